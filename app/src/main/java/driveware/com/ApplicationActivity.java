@@ -6,15 +6,18 @@
 package driveware.com;
 
 import java.io.File;
-import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.List;
 
 import android.app.Activity;
-import android.media.MediaPlayer;
+import android.content.ComponentName;
+import android.content.Intent;
+import android.content.ServiceConnection;
 import android.os.Bundle;
 import android.os.Environment;
+import android.os.IBinder;
 import android.util.Log;
+import android.view.Choreographer;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View.OnClickListener;
@@ -25,43 +28,35 @@ import android.widget.Spinner;
 import android.widget.TextView;
 
 import com.driveware.R;
-import com.interaxon.libmuse.AnnotationData;
+import driveware.com.detection.DetectionEngine;
+import driveware.com.detection.DetectionListener;
+import driveware.com.metrics.Stage;
+import driveware.com.service.MonitorService;
+import driveware.com.session.DeviceSession;
+import driveware.com.replay.ReplayEngine;
+import driveware.com.replay.ReplayStats;
+import driveware.com.ui.BandTraceView;
 import com.interaxon.libmuse.ConnectionState;
 import com.interaxon.libmuse.Eeg;
-import com.interaxon.libmuse.LibMuseVersion;
-import com.interaxon.libmuse.MessageType;
 import com.interaxon.libmuse.Muse;
-import com.interaxon.libmuse.MuseArtifactPacket;
-import com.interaxon.libmuse.MuseConfiguration;
-import com.interaxon.libmuse.MuseConnectionListener;
-import com.interaxon.libmuse.MuseConnectionPacket;
-import com.interaxon.libmuse.MuseDataListener;
-import com.interaxon.libmuse.MuseDataPacket;
-import com.interaxon.libmuse.MuseDataPacketType;
 import com.interaxon.libmuse.MuseFileFactory;
 import com.interaxon.libmuse.MuseFileReader;
-import com.interaxon.libmuse.MuseFileWriter;
 import com.interaxon.libmuse.MuseManager;
-import com.interaxon.libmuse.MusePreset;
 import com.interaxon.libmuse.MuseVersion;
 
-import com.jjoe64.graphview.GraphView;
-import com.jjoe64.graphview.Viewport;
 import com.jjoe64.graphview.series.DataPoint;
 import com.jjoe64.graphview.series.LineGraphSeries;
 
 /**
- * In this simple example ApplicationActivity implements 2 MuseHeadband listeners
- * and updates UI when data from Muse is received. Similarly you can implement
- * listers for other data or register same listener to listen for different type
- * of data.
- * For simplicity we create Listeners as inner classes of ApplicationActivity. We pass
- * reference to ApplicationActivity as we want listeners to update UI thread in this
- * example app.
- * You can also connect multiple muses to the same phone and register same
- * listener to listen for data from different muses. In this case you will
- * have to provide synchronization for data members you are using inside
- * your listener.
+ * ApplicationActivity is a viewer: headbands are connected, scored,
+ * recorded and alarmed on by MonitorService, which keeps running while
+ * this activity is in the background or gone. The activity binds to the
+ * service while it is started, shows the connection status it reports and
+ * the alpha values of one headband, and asks it to connect and disconnect.
+ * You can also connect multiple muses to the same phone. Each connected
+ * muse gets its own DeviceSession (DataListener, detector thread and
+ * recording) in the service, so listeners of different muses share no
+ * mutable state.
  *
  * Usage instructions:
  * 1. Enable bluetooth on your device
@@ -70,9 +65,9 @@ import com.jjoe64.graphview.series.LineGraphSeries;
  * 4. Press Refresh. It should display all paired Muses in Spinner
  * 5. Make sure Muse headband is waiting for connection and press connect.
  * It may take up to 10 sec in some cases.
- * 6. You should see EEG and accelerometer data as well as connection status,
- * Version information and MuseElements (alpha, beta, theta, delta, gamma waves)
- * on the screen.
+ * 6. You should see connection status, version information and the alpha
+ * values on the screen. Monitoring goes on, with a notification, when you
+ * leave the app, until you press disconnect.
  */
 public class ApplicationActivity extends Activity implements OnClickListener {
     /*
@@ -80,537 +75,121 @@ public class ApplicationActivity extends Activity implements OnClickListener {
     private LineGraphSeries<DataPoint> betaSeries;
     private LineGraphSeries<DataPoint> thetaSeries;
     */
-    private LineGraphSeries<DataPoint> aSeries;
     private LineGraphSeries<DataPoint> bSeries;
     private LineGraphSeries<DataPoint> tSeries;
     private LineGraphSeries<DataPoint> dSeries;
     private LineGraphSeries<DataPoint> gSeries;
-    private int lastX = 0;
-
-    private MediaPlayer mp = null;
+    private BandTraceView traceView;
+    private DeviceSession renderedSession = null;
+    private long lastRenderedUpdate = -1;
+    private TextView[] alphaTexts;
+    private TextView alphaAverageText;
 
     /**
-     * Connection listener updates UI with new connection status and logs it.
+     * Connection listener updates UI with new connection status. Registered
+     * with the service only while bound, so it never outlives the activity.
      */
-    class ConnectionListener extends MuseConnectionListener {
-
-        final WeakReference<Activity> activityRef;
-
-        ConnectionListener(final WeakReference<Activity> activityRef) {
-            this.activityRef = activityRef;
-        }
+    class ConnectionListener implements MonitorService.Listener {
 
         @Override
-        public void receiveMuseConnectionPacket(MuseConnectionPacket p) {
-            final ConnectionState current = p.getCurrentConnectionState();
-            final String status = p.getPreviousConnectionState().toString() +
-                    " -> " + current;
-            final String full = "Muse " + p.getSource().getMacAddress() +
-                    " " + status;
-            Log.i("Muse Headband", full);
-            Activity activity = activityRef.get();
-            // UI thread is used here only because we need to update
-            // TextView values. You don't have to use another thread, unless
-            // you want to run disconnect() or connect() from connection packet
-            // handler. In this case creating another thread is required.
-            if (activity != null) {
-                activity.runOnUiThread(new Runnable() {
-                    @Override
-                    public void run() {
-                        TextView statusText =
-                                (TextView) findViewById(R.id.con_status);
-                        statusText.setText(status);
-                        TextView museVersionText =
-                                (TextView) findViewById(R.id.version);
-                        if (current == ConnectionState.CONNECTED) {
-                            MuseVersion museVersion = muse.getMuseVersion();
-                            String version = museVersion.getFirmwareType() +
-                                    " - " + museVersion.getFirmwareVersion() +
-                                    " - " + Integer.toString(
-                                    museVersion.getProtocolVersion());
-                            museVersionText.setText(version);
-                        } else {
-                            museVersionText.setText(R.string.undefined);
-                        }
+        public void onConnectionChanged(final String mac, ConnectionState previous,
+                                        final ConnectionState current) {
+            final String full = "Muse " + mac + " " + previous + " -> " + current;
+            // Called on the libmuse thread, views are only touched on the
+            // UI thread.
+            runOnUiThread(new Runnable() {
+                @Override
+                public void run() {
+                    TextView statusText =
+                            (TextView) findViewById(R.id.con_status);
+                    statusText.setText(full);
+                    TextView museVersionText =
+                            (TextView) findViewById(R.id.version);
+                    MonitorService service = monitor;
+                    DeviceSession session = service == null ? null
+                            : service.getSession(mac);
+                    if (current == ConnectionState.CONNECTED && session != null) {
+                        MuseVersion museVersion =
+                                session.getMuse().getMuseVersion();
+                        String version = museVersion.getFirmwareType() +
+                                " - " + museVersion.getFirmwareVersion() +
+                                " - " + Integer.toString(
+                                museVersion.getProtocolVersion());
+                        museVersionText.setText(version);
+                    } else {
+                        museVersionText.setText(R.string.undefined);
                     }
-                });
-            }
+                }
+            });
         }
     }
 
-    /**
-     * Data listener will be registered to listen for: Accelerometer,
-     * Eeg and Relative Alpha bandpower packets. In all cases we will
-     * update UI with new values.
-     * We also will log message if Artifact packets contains "blink" flag.
-     * DataListener methods will be called from execution thread. If you are
-     * implementing "serious" processing algorithms inside those listeners,
-     * consider to create another thread.
-     */
-    class DataListener extends MuseDataListener {
-
-        final WeakReference<Activity> activityRef;
-        private MuseFileWriter fileWriter;
-
-        /*
-        private double alpha = 0, old_alpha = 0, beta = 0, old_beta = 0, theta = 0, old_theta = 0, old_alpha1 = 0, old_beta1 = 0, old_theta1 = 0;
-        private int alpha_c = 0, beta_c = 0, theta_c = 0, head_bob = 0, head_delay = 0;
-        private double uD;
-        boolean awake = true;
-        */
-        private double alpha;
-        private double beta;
-        private double theta;
-        private double delta;
-        private double gamma;
-        //private double uD;
-        private List<Double> alphaWave = new ArrayList<Double>();
-        private List<Double> betaWave = new ArrayList<Double>();
-        private List<Double> thetaWave = new ArrayList<Double>();
-        private List<Double> deltaWave = new ArrayList<Double>();
-        private List<Double> gammaWave = new ArrayList<Double>();
-        private int alphaWarning;
-        private int thetaWarning;
-        private int deltaWarning;
-
-        DataListener(final WeakReference<Activity> activityRef) {
-            this.activityRef = activityRef;
-        }
+    private Muse muse = null;
+    private final ConnectionListener connectionListener = new ConnectionListener();
+    // Null while not bound to MonitorService.
+    private volatile MonitorService monitor = null;
+    // Headband shown on screen, alarms come from all of them.
+    private volatile DeviceSession displayed = null;
 
+    private final ServiceConnection monitorConnection = new ServiceConnection() {
         @Override
-        public void receiveMuseDataPacket(MuseDataPacket p) {
-            /*
-            old_alpha1 = old_alpha;
-            old_beta1 = old_beta;
-            old_theta1 = old_theta;
-            old_alpha = alpha;
-            old_beta = beta;
-            old_theta = theta;
-            */
-            switch (p.getPacketType()) {
-                /*
-                case ACCELEROMETER:
-                    uD = updateAccelerometer(p.getValues());
-                    break;
-                */
-                case ALPHA_RELATIVE:
-                    alpha = updateAlphaRelative(p.getValues());
-                    if (alpha > 0.4) {
-                        alarm();
-                    }
-                    break;
-                /*
-                case BETA_RELATIVE:
-                    beta = updateBetaRelative(p.getValues());
-                    //betaWave.add(beta);
-                    break;
-                case THETA_RELATIVE:
-                    theta = updateThetaRelative(p.getValues());
-                    //thetaWave.add(theta);
-                    break;
-                case DELTA_RELATIVE:
-                    delta = updateDeltaRelative(p.getValues());
-                    //deltaWave.add(delta);
-                    break;
-                case GAMMA_RELATIVE:
-                    gamma = updateGammaRelative(p.getValues());
-                    //gammaWave.add(gamma);
-                    break;
-                case ALPHA_ABSOLUTE:
-                    updateAlphaAbsolute(p.getValues());
-                    break;
-                case BETA_ABSOLUTE:
-                    updateBetaAbsolute(p.getValues());
-                    break;
-                case THETA_ABSOLUTE:
-                    updateThetaAbsolute(p.getValues());
-                    break;
-                */
-                case BATTERY:
-                    fileWriter.addDataPacket(1, p);
-                    // It's library client responsibility to flush the buffer,
-                    // otherwise you may get memory overflow.
-                    if (fileWriter.getBufferedMessagesSize() > 8096)
-                        fileWriter.flush();
-                    break;
-                default:
-                    break;
+        public void onServiceConnected(ComponentName name, IBinder binder) {
+            MonitorService service = ((MonitorService.LocalBinder) binder).getService();
+            service.setListener(connectionListener);
+            monitor = service;
+            // Coming back to a drive that went on in the background.
+            if (displayed == null) {
+                List<DeviceSession> sessions = service.getSessions();
+                displayed = sessions.isEmpty() ? null : sessions.get(0);
             }
-
-            /*
-            if (beta > old_beta || beta > old_beta1) {
-                beta_c += 1;
-            }
-            //awake = true;
-            if(beta_c >= 25){
-                alpha_c = 0;
-                theta_c = 0;
-                beta_c = 0;
-                awake = true;
-            }
-            else{
-                if (alpha > old_alpha || alpha > old_alpha1){
-                    alpha_c += 1;
-                }
-                if ((theta > old_theta || theta > old_theta1) && theta != 0){
-                    theta_c += 1;
-                }
-
-            }
-            if(theta_c > 10 || alpha_c > 15){
-                awake = false;
-            }
-            if(!awake){
-                // call alarm
-                alarm();
-            }
-            */
         }
 
         @Override
-        public void receiveMuseArtifactPacket(MuseArtifactPacket p) {
-            if (p.getHeadbandOn() && p.getBlink()) {
-                Log.i("Artifacts", "blink");
-            }
-        }
-
-        public void alarm() {
-            MediaPlayer mp = MediaPlayer.create(getApplicationContext(), R.raw.alarm);
-            mp.start();
-        }
-
-        /*
-        private double upDown = 0.0d;
-        private double updateAccelerometer(final ArrayList<Double> data) {
-            Activity activity = activityRef.get();
-            if (activity != null) {
-                activity.runOnUiThread(new Runnable() {
-                    @Override
-                    public void run() {
-                        TextView acc_x = (TextView) findViewById(R.id.acc_x);
-                        TextView acc_y = (TextView) findViewById(R.id.acc_y);
-                        TextView acc_z = (TextView) findViewById(R.id.acc_z);
-                        acc_x.setText(String.format(
-                                "%6.2f", data.get(Accelerometer.FORWARD_BACKWARD.ordinal())));
-                        acc_y.setText(String.format(
-                                "%6.2f", data.get(Accelerometer.UP_DOWN.ordinal())));
-                        acc_z.setText(String.format(
-                                "%6.2f", data.get(Accelerometer.LEFT_RIGHT.ordinal())));
-                        upDown = data.get(Accelerometer.UP_DOWN.ordinal());
-                    }
-                });
-            }
-            return upDown;
-        }
-        */
-
-        private double a = 0.0d;
-        private double updateAlphaRelative(final ArrayList<Double> data) {
-            Activity activity = activityRef.get();
-            if (activity != null) {
-                activity.runOnUiThread(new Runnable() {
-                    @Override
-                    public void run() {
-                        TextView a1 = (TextView) findViewById(R.id.a1);
-                        TextView a2 = (TextView) findViewById(R.id.a2);
-                        TextView a3 = (TextView) findViewById(R.id.a3);
-                        TextView a4 = (TextView) findViewById(R.id.a4);
-                        TextView a5 = (TextView) findViewById(R.id.a5);
-                        a1.setText(String.format(
-                                "%6.2f", data.get(Eeg.TP9.ordinal())));
-                        a2.setText(String.format(
-                                "%6.2f", data.get(Eeg.FP1.ordinal())));
-                        a3.setText(String.format(
-                                "%6.2f", data.get(Eeg.FP2.ordinal())));
-                        a4.setText(String.format(
-                                "%6.2f", data.get(Eeg.TP10.ordinal())));
-                        int count = 0;
-                        double sum = 0.0d;
-                        double avg = 0.0d;
-                        if (!Double.isNaN(data.get(Eeg.TP9.ordinal()))) {
-                            count++;
-                            sum += data.get(Eeg.TP9.ordinal());
-                        }
-                        if (!Double.isNaN(data.get(Eeg.TP10.ordinal()))) {
-                            count++;
-                            sum += data.get(Eeg.TP10.ordinal());
-                        }
-                        if (count > 0) {
-                            avg = sum / count;
-                            aSeries.appendData(new DataPoint(lastX++, avg), true, 10);
-                        }
-                        a = avg;
-                        a5.setText(String.format("%6.2f", avg));
-                    }
-                });
-            }
-            return a;
-        }
-
-        /*
-        private double b = 0.0d;
-        private double updateBetaRelative(final ArrayList<Double> data) {
-            Activity activity = activityRef.get();
-            if (activity != null) {
-                activity.runOnUiThread(new Runnable() {
-                    @Override
-                    public void run() {
-                        TextView b1 = (TextView) findViewById(R.id.b1);
-                        TextView b2 = (TextView) findViewById(R.id.b2);
-                        TextView b3 = (TextView) findViewById(R.id.b3);
-                        TextView b4 = (TextView) findViewById(R.id.b4);
-                        TextView b5 = (TextView) findViewById(R.id.b5);
-                        b1.setText(String.format(
-                                "%6.2f", data.get(Eeg.TP9.ordinal())));
-                        b2.setText(String.format(
-                                "%6.2f", data.get(Eeg.FP1.ordinal())));
-                        b3.setText(String.format(
-                                "%6.2f", data.get(Eeg.FP2.ordinal())));
-                        b4.setText(String.format(
-                                "%6.2f", data.get(Eeg.TP10.ordinal())));
-                        int count = 0;
-                        double sum = 0.0d;
-                        double avg = 0.0d;
-                        if (!Double.isNaN(data.get(Eeg.TP9.ordinal()))) {
-                            count++;
-                            sum += data.get(Eeg.TP9.ordinal());
-                        }
-                        if (!Double.isNaN(data.get(Eeg.TP10.ordinal()))) {
-                            count++;
-                            sum += data.get(Eeg.TP10.ordinal());
-                        }
-                        if (count > 0) {
-                            avg = sum / count;
-                            bSeries.appendData(new DataPoint(lastX++, avg), true, 10);
-                        }
-                        b = avg;
-                        b5.setText(String.format("%6.2f", avg));
-                    }
-                });
-            }
-            return b;
-        }
-
-        private double t = 0.0d;
-        private double updateThetaRelative(final ArrayList<Double> data) {
-            Activity activity = activityRef.get();
-            if (activity != null) {
-                activity.runOnUiThread(new Runnable() {
-                    @Override
-                    public void run() {
-                        TextView t1 = (TextView) findViewById(R.id.t1);
-                        TextView t2 = (TextView) findViewById(R.id.t2);
-                        TextView t3 = (TextView) findViewById(R.id.t3);
-                        TextView t4 = (TextView) findViewById(R.id.t4);
-                        TextView t5 = (TextView) findViewById(R.id.t5);
-                        t1.setText(String.format(
-                                "%6.2f", data.get(Eeg.TP9.ordinal())));
-                        t2.setText(String.format(
-                                "%6.2f", data.get(Eeg.FP1.ordinal())));
-                        t3.setText(String.format(
-                                "%6.2f", data.get(Eeg.FP2.ordinal())));
-                        t4.setText(String.format(
-                                "%6.2f", data.get(Eeg.TP10.ordinal())));
-                        int count = 0;
-                        double sum = 0.0d;
-                        double avg = 0.0d;
-                        if (!Double.isNaN(data.get(Eeg.TP9.ordinal()))) {
-                            count++;
-                            sum += data.get(Eeg.TP9.ordinal());
-                        }
-                        if (!Double.isNaN(data.get(Eeg.TP10.ordinal()))) {
-                            count++;
-                            sum += data.get(Eeg.TP10.ordinal());
-                        }
-                        if (count > 0) {
-                            avg = sum / count;
-                            tSeries.appendData(new DataPoint(lastX++, avg), true, 10);
-                        }
-                        t = avg;
-                        t5.setText(String.format("%6.2f", avg));
-                    }
-                });
-            }
-            return t;
-        }
-
-        private double d = 0.0d;
-        private double updateDeltaRelative(final ArrayList<Double> data) {
-            Activity activity = activityRef.get();
-            if (activity != null) {
-                activity.runOnUiThread(new Runnable() {
-                    @Override
-                    public void run() {
-                        TextView d1 = (TextView) findViewById(R.id.d1);
-                        TextView d2 = (TextView) findViewById(R.id.d2);
-                        TextView d3 = (TextView) findViewById(R.id.d3);
-                        TextView d4 = (TextView) findViewById(R.id.d4);
-                        TextView d5 = (TextView) findViewById(R.id.d5);
-                        d1.setText(String.format(
-                                "%6.2f", data.get(Eeg.TP9.ordinal())));
-                        d2.setText(String.format(
-                                "%6.2f", data.get(Eeg.FP1.ordinal())));
-                        d3.setText(String.format(
-                                "%6.2f", data.get(Eeg.FP2.ordinal())));
-                        d4.setText(String.format(
-                                "%6.2f", data.get(Eeg.TP10.ordinal())));
-                        int count = 0;
-                        double sum = 0.0d;
-                        double avg = 0.0d;
-                        if (!Double.isNaN(data.get(Eeg.TP9.ordinal()))) {
-                            count++;
-                            sum += data.get(Eeg.TP9.ordinal());
-                        }
-                        if (!Double.isNaN(data.get(Eeg.TP10.ordinal()))) {
-                            count++;
-                            sum += data.get(Eeg.TP10.ordinal());
-                        }
-                        if (count > 0) {
-                            avg = sum / count;
-                            dSeries.appendData(new DataPoint(lastX++, avg), true, 10);
-                        }
-                        d = avg;
-                        d5.setText(String.format("%6.2f", avg));
-                    }
-                });
-            }
-            return d;
+        public void onServiceDisconnected(ComponentName name) {
+            monitor = null;
+            displayed = null;
         }
+    };
 
-        private double g = 0.0d;
-        private double updateGammaRelative(final ArrayList<Double> data) {
-            Activity activity = activityRef.get();
-            if (activity != null) {
-                activity.runOnUiThread(new Runnable() {
-                    @Override
-                    public void run() {
-                        TextView g1 = (TextView) findViewById(R.id.g1);
-                        TextView g2 = (TextView) findViewById(R.id.g2);
-                        TextView g3 = (TextView) findViewById(R.id.g3);
-                        TextView g4 = (TextView) findViewById(R.id.g4);
-                        TextView g5 = (TextView) findViewById(R.id.g5);
-                        g1.setText(String.format(
-                                "%6.2f", data.get(Eeg.TP9.ordinal())));
-                        g2.setText(String.format(
-                                "%6.2f", data.get(Eeg.FP1.ordinal())));
-                        g3.setText(String.format(
-                                "%6.2f", data.get(Eeg.FP2.ordinal())));
-                        g4.setText(String.format(
-                                "%6.2f", data.get(Eeg.TP10.ordinal())));
-                        int count = 0;
-                        double sum = 0.0d;
-                        double avg = 0.0d;
-                        if (!Double.isNaN(data.get(Eeg.TP9.ordinal()))) {
-                            count++;
-                            sum += data.get(Eeg.TP9.ordinal());
-                        }
-                        if (!Double.isNaN(data.get(Eeg.TP10.ordinal()))) {
-                            count++;
-                            sum += data.get(Eeg.TP10.ordinal());
-                        }
-                        if (count > 0) {
-                            avg = sum / count;
-                            gSeries.appendData(new DataPoint(lastX++, avg), true, 10);
-                        }
-                        g = avg;
-                        g5.setText(String.format("%6.2f", avg));
-                    }
-                });
-            }
-            return g;
+    /**
+     * Pulls the latest values out of DetectionEngine once per display frame.
+     * Packets arriving between two frames are coalesced into one redraw.
+     */
+    private final Choreographer.FrameCallback frameCallback =
+            new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            renderAlphaRelative();
+            Choreographer.getInstance().postFrameCallback(this);
         }
-
-        private void updateAlphaAbsolute(final ArrayList<Double> data) {
-            Activity activity = activityRef.get();
-            if (activity != null) {
-                activity.runOnUiThread(new Runnable() {
-                    @Override
-                    public void run() {
-                        TextView alpha1 = (TextView) findViewById(R.id.alpha1);
-                        TextView alpha2 = (TextView) findViewById(R.id.alpha2);
-                        TextView alpha3 = (TextView) findViewById(R.id.alpha3);
-                        TextView alpha4 = (TextView) findViewById(R.id.alpha4);
-                        alpha1.setText(String.format(
-                                "%6.2f", data.get(Eeg.TP9.ordinal())));
-                        alpha2.setText(String.format(
-                                "%6.2f", data.get(Eeg.FP1.ordinal())));
-                        alpha3.setText(String.format(
-                                "%6.2f", data.get(Eeg.FP2.ordinal())));
-                        alpha4.setText(String.format(
-                                "%6.2f", data.get(Eeg.TP10.ordinal())));
-                        alphaSeries.appendData(new DataPoint(lastX++, data.get(Eeg.TP9.ordinal())), true, 10);
-                    }
-                });
-            }
+    };
+
+    private void renderAlphaRelative() {
+        DeviceSession session = displayed;
+        if (session != renderedSession) {
+            renderedSession = session;
+            lastRenderedUpdate = -1;
+            traceView.setEngine(session == null ? null : session.getEngine());
         }
-
-        private void updateBetaAbsolute(final ArrayList<Double> data) {
-            Activity activity = activityRef.get();
-            if (activity != null) {
-                activity.runOnUiThread(new Runnable() {
-                    @Override
-                    public void run() {
-                        TextView beta1 = (TextView) findViewById(R.id.beta1);
-                        TextView beta2 = (TextView) findViewById(R.id.beta2);
-                        TextView beta3 = (TextView) findViewById(R.id.beta3);
-                        TextView beta4 = (TextView) findViewById(R.id.beta4);
-                        beta1.setText(String.format(
-                                "%6.2f", data.get(Eeg.TP9.ordinal())));
-                        beta2.setText(String.format(
-                                "%6.2f", data.get(Eeg.FP1.ordinal())));
-                        beta3.setText(String.format(
-                                "%6.2f", data.get(Eeg.FP2.ordinal())));
-                        beta4.setText(String.format(
-                                "%6.2f", data.get(Eeg.TP10.ordinal())));
-                        betaSeries.appendData(new DataPoint(lastX++, data.get(Eeg.TP9.ordinal())), true, 10);
-                    }
-                });
-            }
+        if (session == null) {
+            return;
         }
-
-        private void updateThetaAbsolute(final ArrayList<Double> data) {
-            Activity activity = activityRef.get();
-            if (activity != null) {
-                activity.runOnUiThread(new Runnable() {
-                    @Override
-                    public void run() {
-                        TextView theta1 = (TextView) findViewById(R.id.theta1);
-                        TextView theta2 = (TextView) findViewById(R.id.theta2);
-                        TextView theta3 = (TextView) findViewById(R.id.theta3);
-                        TextView theta4 = (TextView) findViewById(R.id.theta4);
-                        theta1.setText(String.format(
-                                "%6.2f", data.get(Eeg.TP9.ordinal())));
-                        theta2.setText(String.format(
-                                "%6.2f", data.get(Eeg.FP1.ordinal())));
-                        theta3.setText(String.format(
-                                "%6.2f", data.get(Eeg.FP2.ordinal())));
-                        theta4.setText(String.format(
-                                "%6.2f", data.get(Eeg.TP10.ordinal())));
-                        thetaSeries.appendData(new DataPoint(lastX++, data.get(Eeg.TP9.ordinal())), true, 10);
-                    }
-                });
-            }
+        traceView.refresh();
+        DetectionEngine detectionEngine = session.getEngine();
+        long update = detectionEngine.getUpdateCount();
+        if (update == lastRenderedUpdate) {
+            return;
         }
-        */
-
-        public void setFileWriter(MuseFileWriter fileWriter) {
-            this.fileWriter  = fileWriter;
+        lastRenderedUpdate = update;
+        session.getLatency().record(Stage.UI_POST,
+                System.nanoTime() - detectionEngine.getPublishNanos());
+        Eeg[] channels = Eeg.values();
+        for (int i = 0; i < channels.length; i++) {
+            alphaTexts[i].setText(String.format(
+                    "%6.2f", detectionEngine.getAlphaChannel(channels[i])));
         }
-    }
-
-    private Muse muse = null;
-    private ConnectionListener connectionListener = null;
-    private DataListener dataListener = null;
-    private boolean dataTransmission = true;
-    private MuseFileWriter fileWriter = null;
-
-    public ApplicationActivity() {
-        // Create listeners and pass reference to activity to them
-        WeakReference<Activity> weakActivity =
-                new WeakReference<Activity>(this);
-
-        connectionListener = new ConnectionListener(weakActivity);
-        dataListener = new DataListener(weakActivity);
+        double avg = detectionEngine.getAlphaAverage();
+        alphaAverageText.setText(String.format("%6.2f", avg));
     }
 
     @Override
@@ -623,18 +202,25 @@ public class ApplicationActivity extends Activity implements OnClickListener {
         connectButton.setOnClickListener(this);
         Button disconnectButton = (Button) findViewById(R.id.disconnect);
         disconnectButton.setOnClickListener(this);
+        Button acknowledgeButton = (Button) findViewById(R.id.acknowledge);
+        acknowledgeButton.setOnClickListener(this);
 
-        GraphView aGraph = (GraphView) findViewById(R.id.graph_alpha_relative);
+        traceView = (BandTraceView) findViewById(R.id.graph_relative);
         //GraphView bGraph = (GraphView) findViewById(R.id.graph_beta_relative);
         //GraphView tGraph = (GraphView) findViewById(R.id.graph_theta_relative);
         //GraphView dGraph = (GraphView) findViewById(R.id.graph_delta_relative);
         //GraphView gGraph = (GraphView) findViewById(R.id.graph_gamma_relative);
-        aSeries = new LineGraphSeries<DataPoint>();
         //bSeries = new LineGraphSeries<DataPoint>();
         //tSeries = new LineGraphSeries<DataPoint>();
         //dSeries = new LineGraphSeries<DataPoint>();
         //gSeries = new LineGraphSeries<DataPoint>();
-        aGraph.addSeries(aSeries);
+        alphaTexts = new TextView[] {
+                (TextView) findViewById(R.id.a1),
+                (TextView) findViewById(R.id.a2),
+                (TextView) findViewById(R.id.a3),
+                (TextView) findViewById(R.id.a4)
+        };
+        alphaAverageText = (TextView) findViewById(R.id.a5);
         //bGraph.addSeries(bSeries);
         //tGraph.addSeries(tSeries);
         //dGraph.addSeries(dSeries);
@@ -652,13 +238,8 @@ public class ApplicationActivity extends Activity implements OnClickListener {
         thetaGraph.addSeries(thetaSeries);
         */
 
-        // customize graph
-        Viewport aViewport = aGraph.getViewport();
-        aViewport.setYAxisBoundsManual(true);
-        aViewport.setMinY(0);
-        aViewport.setMaxY(1);
-        aViewport.setScrollable(true);
         /*
+        // customize graph
         Viewport bViewport = bGraph.getViewport();
         bViewport.setYAxisBoundsManual(true);
         bViewport.setMinY(0);
@@ -706,18 +287,44 @@ public class ApplicationActivity extends Activity implements OnClickListener {
         //     }
         // });
         // thread.start();
+    }
 
-        File dir = getExternalFilesDir(Environment.DIRECTORY_DOCUMENTS);
-        fileWriter = MuseFileFactory.getMuseFileWriter(
-                new File(dir, "new_muse_file.muse"));
-        Log.i("Muse Headband", "libmuse version=" + LibMuseVersion.SDK_VERSION);
-        fileWriter.addAnnotationString(1, "ApplicationActivity onCreate");
-        dataListener.setFileWriter(fileWriter);
+    @Override
+    protected void onStart() {
+        super.onStart();
+        bindService(new Intent(this, MonitorService.class),
+                monitorConnection, BIND_AUTO_CREATE);
+    }
+
+    @Override
+    protected void onStop() {
+        MonitorService service = monitor;
+        if (service != null) {
+            service.setListener(null);
+        }
+        unbindService(monitorConnection);
+        monitor = null;
+        displayed = null;
+        super.onStop();
     }
 
+    @Override
+    protected void onResume() {
+        super.onResume();
+        Choreographer.getInstance().postFrameCallback(frameCallback);
+    }
+
+    @Override
+    protected void onPause() {
+        Choreographer.getInstance().removeFrameCallback(frameCallback);
+        super.onPause();
+    }
+
+
     @Override
     public void onClick(View v) {
         Spinner musesSpinner = (Spinner) findViewById(R.id.muses_spinner);
+        MonitorService service = monitor;
         if (v.getId() == R.id.refresh) {
             MuseManager.refreshPairedMuses();
             List<Muse> pairedMuses = MuseManager.getPairedMuses();
@@ -731,6 +338,12 @@ public class ApplicationActivity extends Activity implements OnClickListener {
                     this, android.R.layout.simple_spinner_item, spinnerItems);
             musesSpinner.setAdapter(adapterArray);
         }
+        else if (service == null) {
+            Log.w("Muse Headband", "monitor service is not bound yet");
+        }
+        else if (v.getId() == R.id.acknowledge) {
+            service.acknowledge();
+        }
         else if (v.getId() == R.id.connect) {
             List<Muse> pairedMuses = MuseManager.getPairedMuses();
             if (pairedMuses.size() < 1 ||
@@ -739,50 +352,26 @@ public class ApplicationActivity extends Activity implements OnClickListener {
             }
             else {
                 muse = pairedMuses.get(musesSpinner.getSelectedItemPosition());
-                ConnectionState state = muse.getConnectionState();
-                if (state == ConnectionState.CONNECTED ||
-                        state == ConnectionState.CONNECTING) {
-                    Log.w("Muse Headband",
-                            "doesn't make sense to connect second time to the same muse");
-                    return;
-                }
-                configureLibrary();
-                fileWriter.open();
-                fileWriter.addAnnotationString(1, "Connect clicked");
-                /**
-                 * In most cases libmuse native library takes care about
-                 * exceptions and recovery mechanism, but native code still
-                 * may throw in some unexpected situations (like bad bluetooth
-                 * connection). Print all exceptions here.
-                 */
-                try {
-                    muse.runAsynchronously();
-                } catch (Exception e) {
-                    Log.e("Muse Headband", e.toString());
+                DeviceSession session = service.connect(muse);
+                if (session != null) {
+                    displayed = session;
                 }
             }
         }
         else if (v.getId() == R.id.disconnect) {
-            if (muse != null) {
-                /**
-                 * true flag will force libmuse to unregister all listeners,
-                 * BUT AFTER disconnecting and sending disconnection event.
-                 * If you don't want to receive disconnection event (for ex.
-                 * you call disconnect when application is closed), then
-                 * unregister listeners first and then call disconnect:
-                 * muse.unregisterAllListeners();
-                 * muse.disconnect(false);
-                 */
-                muse.disconnect(true);
-                fileWriter.addAnnotationString(1, "Disconnect clicked");
-                fileWriter.flush();
-                fileWriter.close();
+            DeviceSession session = muse == null ? null
+                    : service.disconnect(muse.getMacAddress());
+            if (session != null && displayed == session) {
+                List<DeviceSession> others = service.getSessions();
+                displayed = others.isEmpty() ? null : others.get(0);
             }
         }
     }
 
+
     /*
-     * Simple example of getting data from the "*.muse" file
+     * Re-scores a recorded "*.muse" file with a separate DetectionEngine,
+     * as fast as the detector can consume it, and logs the throughput.
      */
     private void playMuseFile(String name) {
         File dir = getExternalFilesDir(Environment.DIRECTORY_DOCUMENTS);
@@ -792,58 +381,31 @@ public class ApplicationActivity extends Activity implements OnClickListener {
             Log.w(tag, "file doesn't exist");
             return;
         }
-        MuseFileReader fileReader = MuseFileFactory.getMuseFileReader(file);
-        while (fileReader.gotoNextMessage()) {
-            MessageType type = fileReader.getMessageType();
-            int id = fileReader.getMessageId();
-            long timestamp = fileReader.getMessageTimestamp();
-            Log.i(tag, "type: " + type.toString() +
-                    " id: " + Integer.toString(id) +
-                    " timestamp: " + String.valueOf(timestamp));
-            switch(type) {
-                case EEG: case BATTERY: case ACCELEROMETER: case QUANTIZATION:
-                    MuseDataPacket packet = fileReader.getDataPacket();
-                    Log.i(tag, "data packet: " + packet.getPacketType().toString());
-                    break;
-                case VERSION:
-                    MuseVersion version = fileReader.getVersion();
-                    Log.i(tag, "version" + version.getFirmwareType());
-                    break;
-                case CONFIGURATION:
-                    MuseConfiguration config = fileReader.getConfiguration();
-                    Log.i(tag, "config" + config.getBluetoothMac());
-                    break;
-                case ANNOTATION:
-                    AnnotationData annotation = fileReader.getAnnotation();
-                    Log.i(tag, "annotation" + annotation.getData());
-                    break;
-                default:
-                    break;
+        final int[] alarms = new int[1];
+        DetectionEngine engine = new DetectionEngine(1024,
+                new DetectionListener() {
+            @Override
+            public void onAlarm(double alpha, long arrivalNanos,
+                                long decisionNanos) {
+                alarms[0]++;
             }
+        });
+        MuseFileReader fileReader = MuseFileFactory.getMuseFileReader(file);
+        ReplayEngine replay = new ReplayEngine(
+                fileReader, engine, ReplayEngine.Mode.UNPACED);
+        engine.start();
+        try {
+            ReplayStats stats = replay.replay();
+            Log.i(tag, name + ": " + stats + ", alarms: " + alarms[0]);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            engine.stop();
+            fileReader.close();
         }
     }
 
 
-    private void configureLibrary() {
-        muse.registerConnectionListener(connectionListener);
-        //muse.registerDataListener(dataListener, MuseDataPacketType.ACCELEROMETER);
-        muse.registerDataListener(dataListener, MuseDataPacketType.ALPHA_RELATIVE);
-        /*
-        muse.registerDataListener(dataListener, MuseDataPacketType.BETA_RELATIVE);
-        muse.registerDataListener(dataListener, MuseDataPacketType.THETA_RELATIVE);
-        muse.registerDataListener(dataListener, MuseDataPacketType.DELTA_RELATIVE);
-        muse.registerDataListener(dataListener, MuseDataPacketType.GAMMA_RELATIVE);
-
-        muse.registerDataListener(dataListener, MuseDataPacketType.ALPHA_ABSOLUTE);
-        muse.registerDataListener(dataListener, MuseDataPacketType.BETA_ABSOLUTE);
-        muse.registerDataListener(dataListener, MuseDataPacketType.THETA_ABSOLUTE);
-        */
-        muse.registerDataListener(dataListener, MuseDataPacketType.ARTIFACTS);
-        muse.registerDataListener(dataListener, MuseDataPacketType.BATTERY);
-        muse.setPreset(MusePreset.PRESET_14);
-        muse.enableDataTransmission(dataTransmission);
-    }
-
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         // Inflate the menu; this adds items to the action bar if it is present.
@@ -0,0 +1,121 @@
+package driveware.com.alarm;
+
+import android.content.Context;
+import android.media.AudioManager;
+import android.media.SoundPool;
+import android.util.Log;
+
+/**
+ * Plays the alarm sound from a SoundPool that decodes R.raw.alarm once,
+ * instead of creating a MediaPlayer for every decision.
+ * Decisions come from each headband's DrowsinessStateMachine and go
+ * through AlarmPolicy, so headbands alarming together produce one alarm
+ * per refractory period, getting louder and longer while it persists.
+ *
+ * alarm() does no decoding or allocation and may be called from the
+ * detection thread; it only synchronizes with acknowledge() coming from
+ * the UI. The time from the decision to
+ * play() returning is measured and exposed; it does not include the
+ * audio hardware output buffer.
+ */
+public class AlarmPlayer {
+
+    private static final String TAG = "Alarm";
+
+    // Volume and extra repeats per escalation level.
+    private static final float[] VOLUME = {0.6f, 0.8f, 1.0f};
+    private static final int[] LOOPS = {0, 1, 3};
+
+    private final SoundPool soundPool;
+    private final int soundId;
+    private final AlarmPolicy policy;
+
+    private volatile boolean loaded;
+    private volatile int streamId;
+
+    private volatile long lastLatencyNanos;
+    private volatile long maxLatencyNanos;
+    private volatile long totalLatencyNanos;
+    private volatile long played;
+
+    public AlarmPlayer(Context context, int resId) {
+        this(context, resId, new AlarmPolicy());
+    }
+
+    public AlarmPlayer(Context context, int resId, AlarmPolicy policy) {
+        this.policy = policy;
+        // STREAM_ALARM stays audible when media volume is turned down.
+        soundPool = new SoundPool(1, AudioManager.STREAM_ALARM, 0);
+        soundPool.setOnLoadCompleteListener(new SoundPool.OnLoadCompleteListener() {
+            @Override
+            public void onLoadComplete(SoundPool pool, int sampleId, int status) {
+                loaded = status == 0;
+                if (!loaded) {
+                    Log.e(TAG, "failed to load alarm sound, status " + status);
+                }
+            }
+        });
+        soundId = soundPool.load(context, resId, 1);
+    }
+
+    /**
+     * @param decisionNanos System.nanoTime() when detection decided to
+     *                      alarm, used for the latency figures.
+     * @return true if the sound was started.
+     */
+    public synchronized boolean alarm(long decisionNanos) {
+        int level = policy.onDecision(decisionNanos);
+        if (level == AlarmPolicy.SUPPRESSED) {
+            return false;
+        }
+        if (!loaded) {
+            Log.w(TAG, "alarm sound not loaded yet");
+            return false;
+        }
+        int index = Math.min(level, VOLUME.length - 1);
+        soundPool.stop(streamId);
+        streamId = soundPool.play(soundId, VOLUME[index], VOLUME[index],
+                1, LOOPS[index], 1.0f);
+        long latency = System.nanoTime() - decisionNanos;
+        lastLatencyNanos = latency;
+        if (latency > maxLatencyNanos) {
+            maxLatencyNanos = latency;
+        }
+        totalLatencyNanos += latency;
+        played++;
+        return streamId != 0;
+    }
+
+    /**
+     * Driver acknowledged: silence the alarm and restart escalation.
+     */
+    public synchronized void acknowledge() {
+        soundPool.stop(streamId);
+        policy.reset();
+    }
+
+    public long getLastLatencyNanos() {
+        return lastLatencyNanos;
+    }
+
+    public long getMaxLatencyNanos() {
+        return maxLatencyNanos;
+    }
+
+    public long getMeanLatencyNanos() {
+        long n = played;
+        return n == 0 ? 0 : totalLatencyNanos / n;
+    }
+
+    public long getPlayed() {
+        return played;
+    }
+
+    public synchronized long getSuppressed() {
+        return policy.getSuppressed();
+    }
+
+    public void release() {
+        soundPool.release();
+    }
+}
@@ -0,0 +1,53 @@
+package driveware.com.alarm;
+
+import android.media.AudioManager;
+import android.media.ToneGenerator;
+import android.util.Log;
+
+/**
+ * Tells the driver that monitoring is degraded, e.g. the headband link
+ * stalled, with a short error tone pattern on STREAM_ALARM. It sounds
+ * nothing like AlarmPlayer's alarm, so "the app cannot see you" is never
+ * mistaken for "you are drowsy", and the other way round.
+ *
+ * The tone is synthesised, there is nothing to load. If the audio system
+ * refuses a ToneGenerator, play() only logs.
+ */
+public class DegradedAlert {
+
+    private static final String TAG = "Degraded";
+    private static final int VOLUME = 80;
+    private static final int DURATION_MILLIS = 1500;
+
+    private final ToneGenerator tones;
+    private volatile long played;
+
+    public DegradedAlert() {
+        ToneGenerator created = null;
+        try {
+            created = new ToneGenerator(AudioManager.STREAM_ALARM, VOLUME);
+        } catch (RuntimeException e) {
+            Log.e(TAG, "no tone generator, degraded alerts are silent", e);
+        }
+        tones = created;
+    }
+
+    public synchronized void play() {
+        played++;
+        if (tones == null) {
+            Log.w(TAG, "monitoring degraded");
+            return;
+        }
+        tones.startTone(ToneGenerator.TONE_SUP_ERROR, DURATION_MILLIS);
+    }
+
+    public long getPlayed() {
+        return played;
+    }
+
+    public synchronized void release() {
+        if (tones != null) {
+            tones.release();
+        }
+    }
+}
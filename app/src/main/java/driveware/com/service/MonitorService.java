@@ -0,0 +1,974 @@
+package driveware.com.service;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+import android.app.Notification;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.app.Service;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Binder;
+import android.os.Environment;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.IBinder;
+import android.os.PowerManager;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.driveware.R;
+import driveware.com.ApplicationActivity;
+import driveware.com.alarm.AlarmPlayer;
+import driveware.com.alarm.DegradedAlert;
+import driveware.com.classifier.MlpClassifier;
+import driveware.com.detection.ArtifactGate;
+import driveware.com.detection.Baseline;
+import driveware.com.detection.DetectionEngine;
+import driveware.com.detection.DetectionListener;
+import driveware.com.detection.Detector;
+import driveware.com.detection.DrowsinessStateMachine;
+import driveware.com.detection.DrowsinessClassifier;
+import driveware.com.detection.Features;
+import driveware.com.detection.HeadMotionDetector;
+import driveware.com.detection.ThresholdClassifier;
+import driveware.com.dsp.BandPowerEstimator;
+import driveware.com.metrics.LatencyHistogram;
+import driveware.com.metrics.LatencyMonitor;
+import driveware.com.metrics.Stage;
+import driveware.com.recording.RecordingSink;
+import driveware.com.recording.WriterFactory;
+import driveware.com.session.DeviceRegistry;
+import driveware.com.session.DeviceSession;
+import driveware.com.session.SourcePolicy;
+import driveware.com.session.SubscriptionManager;
+import driveware.com.store.SessionStoreWriter;
+import driveware.com.telemetry.LinkTelemetry;
+import driveware.com.telemetry.StreamHealthMonitor;
+import driveware.com.telemetry.TelemetryLog;
+import driveware.com.telemetry.TelemetryRollup;
+import com.interaxon.libmuse.ConnectionState;
+import com.interaxon.libmuse.LibMuseVersion;
+import com.interaxon.libmuse.Muse;
+import com.interaxon.libmuse.MuseArtifactPacket;
+import com.interaxon.libmuse.MuseConnectionListener;
+import com.interaxon.libmuse.MuseConnectionPacket;
+import com.interaxon.libmuse.MuseDataListener;
+import com.interaxon.libmuse.MuseDataPacket;
+import com.interaxon.libmuse.MuseDataPacketType;
+import com.interaxon.libmuse.MuseFileFactory;
+import com.interaxon.libmuse.MuseFileWriter;
+import com.interaxon.libmuse.MusePreset;
+
+/**
+ * Foreground service that owns everything a drive needs: the connected
+ * headbands and their DeviceSessions (detection thread, recording, band
+ * store), baselines, the classifier and the alarm. It keeps monitoring
+ * while ApplicationActivity is in the background, destroyed or was never
+ * started, and the activity only binds to it to show one headband.
+ *
+ * The service runs in the foreground, with an ongoing notification, from
+ * the first connect until the last headband is disconnected, and holds a
+ * partial wake lock for that time. Band packets are scored on each
+ * session's detection thread and alarms are played from there straight
+ * into AlarmPlayer, so the alarm path never waits for the main thread or
+ * for a viewer; the wake lock and foreground priority keep those threads
+ * scheduled with the screen off. Periodic work such as the latency report,
+ * reconnecting after a dropout (see ReconnectSupervisor) and switching a
+ * headband between a lean and a rich band source as its drowsiness score
+ * changes (see SourcePolicy) and checking that every stream keeps
+ * arriving (see StreamHealthMonitor), runs on the service's own worker
+ * thread. A stalled stream raises DegradedAlert, which sounds unlike the
+ * drowsiness alarm: silence from the detector must not be taken for an
+ * awake driver.
+ *
+ * connect() and disconnect() are called through LocalBinder from the main
+ * thread. Connection changes are passed to the registered Listener on the
+ * libmuse thread.
+ */
+public class MonitorService extends Service {
+
+    private static final String TAG = "Monitor";
+    private static final int NOTIFICATION_ID = 1;
+
+    // In RICH mode, band powers are computed from raw EEG every DSP_HOP
+    // samples (20 Hz at 220 Hz) instead of libmuse's 10 Hz *_RELATIVE
+    // packets. With DYNAMIC_SOURCE off every headband stays RICH.
+    // Both modes run PRESET_14 and differ only in the packet types
+    // registered and the band source scored: it is not verified that a
+    // connected headband takes a new preset, nor that PRESET_10 still sends
+    // *_RELATIVE, HORSESHOE and ARTIFACTS. LEAN saves the JNI crossings,
+    // copies and FFTs of raw EEG, not Bluetooth bandwidth.
+    private static final boolean DYNAMIC_SOURCE = true;
+    private static final int DSP_HOP = 11;
+    private static final MusePreset PRESET = MusePreset.PRESET_14;
+    private static final long SOURCE_CHECK_MILLIS = 500;
+    private static final String BASELINES = "baselines";
+    // Keep libmuse's *_RELATIVE bands in recordings next to our own
+    // estimates, for comparing them offline.
+    private static final boolean RECORD_LIBMUSE_BANDS = true;
+
+    /**
+     * Stages that declare packet types, see SubscriptionManager. A viewer
+     * panel that needs packets of its own requires them under its own
+     * name while it is shown.
+     */
+    public static final String DETECTOR = "detector";
+    public static final String RECORDER = "recorder";
+    public static final String TELEMETRY = "telemetry";
+    // Keeps libmuse's bands registered while a switch to RICH warms up the
+    // estimator.
+    private static final String HANDOVER = "handover";
+    private static final long LATENCY_REPORT_MILLIS = 60000;
+    private static final long HEALTH_CHECK_MILLIS = 250;
+    // Sequence gaps at least this long are annotated in the recording.
+    private static final long ANNOTATE_GAP_MICROS = 100000;
+    // The degraded alert repeats while monitoring stays degraded.
+    private static final long DEGRADED_REPEAT_NANOS = 30000000000L;
+
+    /**
+     * Receives connection changes of every headband, on the libmuse
+     * thread. A viewer must post to its own thread before touching views.
+     */
+    public interface Listener {
+        void onConnectionChanged(String macAddress, ConnectionState previous,
+                                 ConnectionState current);
+    }
+
+    /**
+     * Binder for clients in the same process.
+     */
+    public class LocalBinder extends Binder {
+        public MonitorService getService() {
+            return MonitorService.this;
+        }
+    }
+
+    /**
+     * Logs connection changes, starts calibration of a headband without a
+     * baseline, lets ReconnectSupervisor handle dropouts and forwards the
+     * change to the viewer.
+     */
+    class ConnectionListener extends MuseConnectionListener {
+
+        @Override
+        public void receiveMuseConnectionPacket(MuseConnectionPacket p) {
+            ConnectionState previous = p.getPreviousConnectionState();
+            ConnectionState current = p.getCurrentConnectionState();
+            String mac = p.getSource().getMacAddress();
+            Log.i("Muse Headband", "Muse " + mac + " " + previous + " -> " + current);
+            DeviceSession connected = devices.get(mac);
+            if (current == ConnectionState.CONNECTED && connected != null) {
+                Baseline baseline = connected.getEngine().getDetector().getBaseline();
+                if (!baseline.isCalibrated()) {
+                    // Calibrate from the first frames of this connection,
+                    // discarding any partial run from before a drop.
+                    baseline.requestCalibration();
+                    connected.getRecorder().annotate("calibration start");
+                }
+            }
+            supervisor.onConnectionChanged(mac, previous, current);
+            Listener l = listener;
+            if (l != null) {
+                l.onConnectionChanged(mac, previous, current);
+            }
+        }
+    }
+
+    /**
+     * Data listener is registered for the packet types the session's
+     * stages require, see requireStages() and SubscriptionManager.
+     * DataListener methods will be called from execution thread. Packets
+     * are only handed to DetectionEngine and RecordingSink here, which
+     * process them on their own threads, so the callback returns
+     * immediately.
+     * There is one DataListener per connected headband, bound to that
+     * headband's DeviceSession, so several Muses never share listener state.
+     * It also carries the headband's SourcePolicy, its LinkTelemetry,
+     * which counts every packet and reads HORSESHOE and BATTERY packets,
+     * and its StreamHealthMonitor, which follows the cadence of every
+     * packet type; sequence gaps are annotated in the recording as they
+     * end.
+     */
+    static class DataListener extends MuseDataListener {
+
+        private final DetectionEngine detectionEngine;
+        private final RecordingSink recorder;
+        final SourcePolicy policy;
+        final LinkTelemetry telemetry = new LinkTelemetry();
+        final StreamHealthMonitor health = new StreamHealthMonitor();
+        // Band source scored by the detector, switched with the mode.
+        private volatile boolean onboardDsp;
+        // Switching to onboardDsp: EEG already goes to the estimator while
+        // libmuse's bands are scored, until the estimator's first frame
+        // after handoverMark.
+        private volatile boolean warming;
+        private long handoverMark;
+        // Worker thread: HANDOVER is required.
+        boolean handingOver;
+        // Packets and time at the last switch, used by the worker thread.
+        long markPackets;
+        long markMillis;
+        // Written on the worker thread, closed under this listener's lock.
+        TelemetryLog telemetryLog;
+        long telemetryMillis;
+        volatile TelemetryRollup lastRollup;
+        // Worker thread: when health last turned degraded.
+        long degradedNanos;
+        // libmuse thread: last data packet's timestamp, which artifact
+        // packets are stamped with, and the artifact flags last recorded.
+        private long lastTimestamp;
+        private int artifactFlags = -1;
+
+        DataListener(DeviceSession session, SourcePolicy policy) {
+            this.detectionEngine = session.getEngine();
+            this.recorder = session.getRecorder();
+            this.policy = policy;
+            this.onboardDsp = policy.getMode() == SourcePolicy.Mode.RICH;
+            this.markMillis = SystemClock.elapsedRealtime();
+            this.telemetryMillis = System.currentTimeMillis();
+        }
+
+        void setOnboardDsp(boolean onboardDsp) {
+            warming = false;
+            this.onboardDsp = onboardDsp;
+        }
+
+        /**
+         * Starts feeding EEG to the estimator and switches to its bands
+         * once it has a full window, so the switch leaves no frames
+         * unscored. Worker thread.
+         */
+        void warmUpOnboardDsp() {
+            handoverMark = detectionEngine.getDetector().getEstimatedFrames();
+            warming = true;
+        }
+
+        boolean isWarming() {
+            return warming;
+        }
+
+        @Override
+        public void receiveMuseDataPacket(MuseDataPacket p) {
+            long nanos = System.nanoTime();
+            telemetry.onPacket(nanos);
+            lastTimestamp = p.getTimestamp();
+            long gap = health.offer(p.getPacketType(), p.getTimestamp(), nanos);
+            if (gap >= ANNOTATE_GAP_MICROS) {
+                // Rare; the annotation is written on the writer thread.
+                recorder.annotate("gap " + p.getPacketType() + " " + gap / 1000 + " ms");
+            }
+            // Every registered packet type is recorded. The writer thread
+            // does the I/O, this only enqueues the packet.
+            recorder.offer(p);
+            switch (p.getPacketType()) {
+                case ACCELEROMETER:
+                    // Head nods are recognised on the detection thread,
+                    // see HeadMotionDetector.
+                    detectionEngine.offer(p);
+                    break;
+                case EEG:
+                    // Band powers are computed on the detection thread,
+                    // see BandPowerEstimator. Packets still in flight
+                    // after switching to LEAN are only recorded.
+                    if (onboardDsp || warming) {
+                        detectionEngine.offer(p);
+                    }
+                    break;
+                case ALPHA_RELATIVE:
+                case BETA_RELATIVE:
+                case THETA_RELATIVE:
+                case DELTA_RELATIVE:
+                case GAMMA_RELATIVE:
+                    // Values are copied once into a preallocated frame and
+                    // scoring runs on its own thread, see DetectionEngine.
+                    // In RICH mode they are only recorded, for
+                    // comparing against our own estimates offline.
+                    if (warming && detectionEngine.getDetector()
+                            .getEstimatedFrames() > handoverMark) {
+                        warming = false;
+                        onboardDsp = true;
+                    }
+                    if (!onboardDsp) {
+                        detectionEngine.offer(p);
+                    }
+                    break;
+                case HORSESHOE:
+                case BATTERY:
+                    // At most 10 Hz, summarised every
+                    // TelemetryRollup.DEFAULT_INTERVAL_MILLIS.
+                    telemetry.offer(p);
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        @Override
+        public void receiveMuseArtifactPacket(MuseArtifactPacket p) {
+            telemetry.onPacket(System.nanoTime());
+            // Blinks and jaw clenches mask the band frames they overlap.
+            detectionEngine.offer(p);
+            // Recorded as annotations for training, see ArtifactGate: every
+            // change, and every packet during a blink or clench so replays
+            // mask as long as the phone. Quiet packets allocate nothing.
+            boolean on = p.getHeadbandOn();
+            boolean blink = p.getBlink();
+            boolean clench = p.getJawClench();
+            int flags = (on ? 1 : 0) | (blink ? 2 : 0) | (clench ? 4 : 0);
+            if (flags != artifactFlags || blink || clench) {
+                artifactFlags = flags;
+                recorder.annotate(ArtifactGate.annotation(lastTimestamp, on, blink, clench));
+            }
+        }
+    }
+
+    private final IBinder binder = new LocalBinder();
+    private final ConnectionListener connectionListener = new ConnectionListener();
+    private final DeviceRegistry devices = new DeviceRegistry();
+    private volatile Listener listener = null;
+    private AlarmPlayer alarmPlayer = null;
+    private DegradedAlert degradedAlert = null;
+    // Trained with tools/TrainClassifier, null to use ThresholdClassifier.
+    private MlpClassifier model = null;
+    private boolean dataTransmission = true;
+    private File recordingDir = null;
+    private String recordingStamp = null;
+    private HandlerThread worker = null;
+    private Handler handler = null;
+    private ReconnectSupervisor supervisor = null;
+    private PowerManager.WakeLock wakeLock = null;
+    private volatile boolean foreground = false;
+    // Battery and contact of the worst headband and whether any stream
+    // stalled, shown in the notification. Written on the worker thread.
+    private double battery = Double.NaN;
+    private int poorContacts = 0;
+    private boolean stalled = false;
+    private long degradedAlertNanos;
+    private volatile String healthText = null;
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        recordingDir = getExternalFilesDir(Environment.DIRECTORY_DOCUMENTS);
+        recordingStamp = new SimpleDateFormat(
+                "yyyyMMdd_HHmmss", Locale.US).format(new Date());
+        Log.i("Muse Headband", "libmuse version=" + LibMuseVersion.SDK_VERSION);
+        alarmPlayer = new AlarmPlayer(getApplicationContext(), R.raw.alarm);
+        degradedAlert = new DegradedAlert();
+        model = loadModel(new File(getFilesDir(), "drowsiness.mlp"));
+        // Default priority: reconnecting after a dropout runs here.
+        worker = new HandlerThread(TAG);
+        worker.start();
+        handler = new Handler(worker.getLooper());
+        supervisor = new ReconnectSupervisor(handler, devices,
+                new ReconnectSupervisor.Configurator() {
+            @Override
+            public void configure(DeviceSession session) {
+                configureLibrary(session);
+            }
+        });
+        handler.postDelayed(latencyReporter, LATENCY_REPORT_MILLIS);
+        handler.postDelayed(telemetryRoller, TelemetryRollup.DEFAULT_INTERVAL_MILLIS);
+        handler.postDelayed(healthChecker, HEALTH_CHECK_MILLIS);
+        if (DYNAMIC_SOURCE) {
+            handler.postDelayed(sourceChecker, SOURCE_CHECK_MILLIS);
+        }
+        PowerManager power = (PowerManager) getSystemService(Context.POWER_SERVICE);
+        wakeLock = power.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, TAG);
+        wakeLock.setReferenceCounted(false);
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        // Headbands are only connected on request; a restarted service
+        // would have nothing to monitor.
+        return START_NOT_STICKY;
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return binder;
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Starts monitoring a headband: creates its session, registers the
+     * listeners and connects asynchronously. Returns null if the headband
+     * is already connected or connecting.
+     */
+    public DeviceSession connect(Muse muse) {
+        ConnectionState state = muse.getConnectionState();
+        if (state == ConnectionState.CONNECTED ||
+                state == ConnectionState.CONNECTING ||
+                devices.get(muse.getMacAddress()) != null) {
+            Log.w("Muse Headband",
+                    "doesn't make sense to connect second time to the same muse");
+            return null;
+        }
+        // Other headbands stay connected, each one gets its own
+        // detector, recording and listener.
+        DeviceSession session = devices.putIfAbsent(createSession(muse));
+        session.start();
+        configureLibrary(session);
+        session.getRecorder().annotate("Connect clicked");
+        updateForeground();
+        /**
+         * In most cases libmuse native library takes care about
+         * exceptions and recovery mechanism, but native code still
+         * may throw in some unexpected situations (like bad bluetooth
+         * connection). Print all exceptions here.
+         */
+        try {
+            muse.runAsynchronously();
+        } catch (Exception e) {
+            Log.e("Muse Headband", e.toString());
+        }
+        return session;
+    }
+
+    /**
+     * Stops monitoring a headband and finishes its recording. Returns the
+     * stopped session, null if the headband was not connected.
+     */
+    public DeviceSession disconnect(String macAddress) {
+        DeviceSession session = devices.remove(macAddress);
+        if (session == null) {
+            return null;
+        }
+        supervisor.forget(macAddress);
+        /**
+         * true flag will force libmuse to unregister all listeners,
+         * BUT AFTER disconnecting and sending disconnection event.
+         * If you don't want to receive disconnection event (for ex.
+         * you call disconnect when application is closed), then
+         * unregister listeners first and then call disconnect:
+         * muse.unregisterAllListeners();
+         * muse.disconnect(false);
+         */
+        session.getMuse().disconnect(true);
+        RecordingSink recorder = session.getRecorder();
+        recorder.annotate("Disconnect clicked");
+        session.stop();
+        closeTelemetry(session);
+        // The detection thread has stopped, the baseline is stable.
+        saveBaseline(session.getMacAddress(),
+                session.getEngine().getDetector().getBaseline());
+        Log.i("Muse Headband", "recorded " + recorder.getWritten()
+                + " packets in " + recorder.getFiles() + " files, dropped "
+                + recorder.getDropped());
+        updateForeground();
+        return session;
+    }
+
+    /**
+     * The driver acknowledged the alarm: silences it and holds off the
+     * next one of every headband, see DrowsinessStateMachine.
+     */
+    public void acknowledge() {
+        alarmPlayer.acknowledge();
+        for (DeviceSession session : devices.all()) {
+            session.getEngine().getDetector().getStateMachine().acknowledge();
+            session.getRecorder().annotate(DrowsinessStateMachine.ACKNOWLEDGED);
+        }
+    }
+
+    public DeviceSession getSession(String macAddress) {
+        return devices.get(macAddress);
+    }
+
+    public List<DeviceSession> getSessions() {
+        return devices.all();
+    }
+
+    /**
+     * Latest telemetry interval of a headband, null before the first one.
+     */
+    public TelemetryRollup getTelemetry(String macAddress) {
+        DeviceSession session = devices.get(macAddress);
+        return session == null ? null
+                : ((DataListener) session.getDataListener()).lastRollup;
+    }
+
+    /*
+     * Foreground with a wake lock while any headband is monitored. The
+     * service starts itself so that it outlives unbinding viewers, and
+     * stops once there is nothing left to monitor.
+     */
+    private void updateForeground() {
+        int count = devices.size();
+        if (count > 0) {
+            if (!foreground) {
+                startService(new Intent(this, MonitorService.class));
+                wakeLock.acquire();
+                foreground = true;
+            }
+            // Posting the same id again updates the notification.
+            startForeground(NOTIFICATION_ID, buildNotification(count));
+        } else if (foreground) {
+            foreground = false;
+            stopForeground(true);
+            wakeLock.release();
+            stopSelf();
+        }
+    }
+
+    private Notification buildNotification(int count) {
+        Intent open = new Intent(this, ApplicationActivity.class);
+        open.setFlags(Intent.FLAG_ACTIVITY_SINGLE_TOP);
+        String text = getString(R.string.monitoring, count);
+        String health = healthText;
+        if (health != null) {
+            text = text + ", " + health;
+        }
+        return new Notification.Builder(this)
+                .setContentTitle(getString(R.string.app_name))
+                .setContentText(text)
+                .setSmallIcon(R.drawable.drive)
+                .setContentIntent(PendingIntent.getActivity(this, 0, open,
+                        PendingIntent.FLAG_UPDATE_CURRENT))
+                .setOngoing(true)
+                .build();
+    }
+
+    private DeviceSession createSession(Muse m) {
+        final String name = "drive_" + recordingStamp + "_"
+                + m.getMacAddress().replace(":", "") + "_";
+        RecordingSink recorder = new RecordingSink(new WriterFactory() {
+            @Override
+            public MuseFileWriter create(int index) {
+                return MuseFileFactory.getMuseFileWriter(
+                        new File(recordingDir, name + index + ".muse"));
+            }
+        });
+        final LatencyMonitor latency = new LatencyMonitor();
+        // Called from this headband's detection thread, which is also the
+        // only writer of its AUDIO_START and END_TO_END histograms.
+        DetectionListener alarmListener = new DetectionListener() {
+            @Override
+            public void onAlarm(double alpha, long arrivalNanos,
+                                long decisionNanos) {
+                if (alarmPlayer.alarm(decisionNanos)) {
+                    long started = System.nanoTime();
+                    latency.record(Stage.AUDIO_START, started - decisionNanos);
+                    latency.record(Stage.END_TO_END, started - arrivalNanos);
+                }
+            }
+        };
+        // Kept through LEAN periods so RICH can resume at any time; the
+        // Detector restarts its window when EEG comes back.
+        BandPowerEstimator estimator = new BandPowerEstimator(
+                BandPowerEstimator.MUSE_SAMPLE_RATE,
+                BandPowerEstimator.DEFAULT_WINDOW, DSP_HOP);
+        DrowsinessClassifier classifier = model != null
+                ? model.copy() : new ThresholdClassifier();
+        DeviceSession session = new DeviceSession(m, new DetectionEngine(256,
+                new Detector(alarmListener, latency, estimator, classifier)),
+                recorder, new SessionStoreWriter(new File(recordingDir, name + "bands")));
+        DataListener dataListener = new DataListener(session, new SourcePolicy(
+                DYNAMIC_SOURCE ? SourcePolicy.Mode.LEAN : SourcePolicy.Mode.RICH));
+        session.setDataListener(dataListener);
+        // Every file starts with the source scored, for replays.
+        recorder.setHeading(SourcePolicy.annotation(null,
+                dataListener.policy.getMode(), null));
+        try {
+            dataListener.telemetryLog = new TelemetryLog(
+                    new File(recordingDir, name + "telemetry"), LinkTelemetry.CHANNELS);
+        } catch (IOException e) {
+            // Telemetry is still rolled up and logged, only not stored.
+            Log.e("Telemetry", "cannot create log for " + name, e);
+        }
+        requireStages(session.getSubscriptions(), dataListener.policy.getMode());
+        restoreBaseline(session);
+        return session;
+    }
+
+    /*
+     * Each headband's Baseline is kept in SharedPreferences under its MAC,
+     * so reconnecting the same headband skips calibration.
+     */
+    private void restoreBaseline(DeviceSession session) {
+        final String mac = session.getMacAddress();
+        final Baseline baseline = session.getEngine().getDetector().getBaseline();
+        String saved = getSharedPreferences(BASELINES, MODE_PRIVATE)
+                .getString(mac, null);
+        if (baseline.restore(saved)) {
+            Log.i("Baseline", mac + " restored: " + baseline);
+        }
+        // Runs on the detection thread; apply() writes in the background.
+        baseline.setOnCalibrated(new Runnable() {
+            @Override
+            public void run() {
+                Log.i("Baseline", mac + " calibrated: " + baseline);
+                saveBaseline(mac, baseline);
+            }
+        });
+    }
+
+    private void saveBaseline(String mac, Baseline baseline) {
+        String encoded = baseline.encode();
+        if (encoded != null) {
+            getSharedPreferences(BASELINES, MODE_PRIVATE).edit()
+                    .putString(mac, encoded).apply();
+        }
+    }
+
+    private static MlpClassifier loadModel(File file) {
+        if (!file.exists()) {
+            Log.i("Classifier", "no " + file + ", using threshold");
+            return null;
+        }
+        try {
+            InputStream in = new FileInputStream(file);
+            try {
+                MlpClassifier loaded = MlpClassifier.read(in);
+                if (loaded.getInputCount() != Features.SIZE) {
+                    Log.e("Classifier", file + " expects " + loaded.getInputCount()
+                            + " features, using threshold");
+                    return null;
+                }
+                Log.i("Classifier", "loaded " + file);
+                return loaded;
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            Log.e("Classifier", "cannot read " + file + ", using threshold", e);
+            return null;
+        }
+    }
+
+    /*
+     * Packet types each stage of a session consumes. Registration itself
+     * is left to the session's SubscriptionManager.
+     */
+    private static void requireStages(SubscriptionManager subscriptions,
+                                      SourcePolicy.Mode mode) {
+        if (mode == SourcePolicy.Mode.RICH) {
+            subscriptions.require(DETECTOR, MuseDataPacketType.EEG,
+                    MuseDataPacketType.ACCELEROMETER, MuseDataPacketType.ARTIFACTS);
+        } else {
+            subscriptions.require(DETECTOR, MuseDataPacketType.ALPHA_RELATIVE,
+                    MuseDataPacketType.BETA_RELATIVE, MuseDataPacketType.THETA_RELATIVE,
+                    MuseDataPacketType.DELTA_RELATIVE, MuseDataPacketType.GAMMA_RELATIVE,
+                    MuseDataPacketType.ACCELEROMETER, MuseDataPacketType.ARTIFACTS);
+        }
+        subscriptions.require(TELEMETRY, MuseDataPacketType.HORSESHOE,
+                MuseDataPacketType.BATTERY);
+        // The recorder stores whatever is registered; these it wants even
+        // when no other stage does.
+        if (RECORD_LIBMUSE_BANDS) {
+            subscriptions.require(RECORDER,
+                    MuseDataPacketType.ALPHA_RELATIVE, MuseDataPacketType.BETA_RELATIVE,
+                    MuseDataPacketType.THETA_RELATIVE, MuseDataPacketType.DELTA_RELATIVE,
+                    MuseDataPacketType.GAMMA_RELATIVE);
+        } else {
+            subscriptions.release(RECORDER);
+        }
+    }
+
+    private void configureLibrary(DeviceSession session) {
+        Muse muse = session.getMuse();
+        muse.registerConnectionListener(connectionListener);
+        session.getSubscriptions().reapply();
+        muse.setPreset(PRESET);
+        muse.enableDataTransmission(dataTransmission);
+    }
+
+    /**
+     * Moves every headband to the mode its SourcePolicy picks from the
+     * latest drowsiness score: the detector's packet types and the band
+     * source it scores. Each switch is logged and annotated
+     * with the packet rate of the mode it leaves. A switch to RICH scores
+     * libmuse's bands until the estimator has a full window, and their
+     * registration is released on a later run. Runs on the worker thread.
+     */
+    private final Runnable sourceChecker = new Runnable() {
+        @Override
+        public void run() {
+            long now = SystemClock.elapsedRealtime();
+            for (DeviceSession session : devices.all()) {
+                DataListener dataListener = (DataListener) session.getDataListener();
+                SourcePolicy policy = dataListener.policy;
+                SourcePolicy.Mode before = policy.getMode();
+                double score = session.getEngine().getDetector().getDrowsyScore();
+                SourcePolicy.Mode after = policy.update(now, score);
+                if (after != before) {
+                    switchMode(session, dataListener, before, after, score, now);
+                } else if (dataListener.handingOver && !dataListener.isWarming()) {
+                    dataListener.handingOver = false;
+                    session.getSubscriptions().release(HANDOVER);
+                }
+            }
+            handler.postDelayed(this, SOURCE_CHECK_MILLIS);
+        }
+    };
+
+    private void switchMode(DeviceSession session, DataListener dataListener,
+                            SourcePolicy.Mode before, SourcePolicy.Mode after,
+                            double score, long now) {
+        long packets = dataListener.telemetry.getPackets();
+        long millis = Math.max(1, now - dataListener.markMillis);
+        double rate = (packets - dataListener.markPackets) * 1000.0d / millis;
+        dataListener.markPackets = packets;
+        dataListener.markMillis = now;
+        SubscriptionManager subscriptions = session.getSubscriptions();
+        if (after == SourcePolicy.Mode.RICH) {
+            // The estimator starts over on the first EEG and needs a full
+            // window, about 1.2 s, before its first frame: libmuse's bands
+            // stay registered and scored until then.
+            subscriptions.require(HANDOVER, MuseDataPacketType.ALPHA_RELATIVE,
+                    MuseDataPacketType.BETA_RELATIVE, MuseDataPacketType.THETA_RELATIVE,
+                    MuseDataPacketType.DELTA_RELATIVE, MuseDataPacketType.GAMMA_RELATIVE);
+            dataListener.handingOver = true;
+            dataListener.warmUpOnboardDsp();
+            requireStages(subscriptions, after);
+        } else {
+            // Score the new source first, then stop what only the old one used.
+            dataListener.setOnboardDsp(false);
+            requireStages(subscriptions, after);
+            if (dataListener.handingOver) {
+                dataListener.handingOver = false;
+                subscriptions.release(HANDOVER);
+            }
+        }
+        String line = SourcePolicy.annotation(before, after, String.format(Locale.US,
+                "at score %.2f, %s ran %d s at %.1f packets/s",
+                score, before, millis / 1000, rate));
+        Log.i("Source", session.getMacAddress() + " " + line);
+        session.getRecorder().setHeading(SourcePolicy.annotation(null, after, null));
+        session.getRecorder().annotate(line);
+    }
+
+    /**
+     * Rolls up every headband's LinkTelemetry into its TelemetryLog, logs
+     * intervals with late packets or poor contact into its recording and
+     * puts the worst battery and contact into the notification. Runs on
+     * the worker thread.
+     */
+    private final Runnable telemetryRoller = new Runnable() {
+        @Override
+        public void run() {
+            long now = System.currentTimeMillis();
+            long nanos = System.nanoTime();
+            double lowest = Double.NaN;
+            int degraded = 0;
+            for (DeviceSession session : devices.all()) {
+                DataListener dataListener = (DataListener) session.getDataListener();
+                TelemetryRollup rollup = dataListener.telemetry.rollup(
+                        dataListener.telemetryMillis,
+                        now - dataListener.telemetryMillis, nanos);
+                dataListener.telemetryMillis = now;
+                dataListener.lastRollup = rollup;
+                appendTelemetry(session, dataListener, rollup);
+                if (rollup.getLateGaps() > 0 || rollup.getDegradedChannels() > 0) {
+                    Log.w("Telemetry", session.getMacAddress() + " " + rollup);
+                    session.getRecorder().annotate("telemetry " + rollup);
+                }
+                float percent = rollup.getBatteryPercent();
+                if (!Float.isNaN(percent) && (Double.isNaN(lowest) || percent < lowest)) {
+                    lowest = percent;
+                }
+                degraded += rollup.getDegradedChannels();
+            }
+            battery = lowest;
+            poorContacts = degraded;
+            refreshHealth();
+            handler.postDelayed(this, TelemetryRollup.DEFAULT_INTERVAL_MILLIS);
+        }
+    };
+
+    private void appendTelemetry(DeviceSession session, DataListener dataListener,
+                                 TelemetryRollup rollup) {
+        synchronized (dataListener) {
+            TelemetryLog log = dataListener.telemetryLog;
+            if (log == null) {
+                return;
+            }
+            try {
+                log.append(rollup);
+            } catch (IOException e) {
+                Log.e("Telemetry", session.getMacAddress() + " log stopped", e);
+                dataListener.telemetryLog = null;
+                try {
+                    log.close();
+                } catch (IOException ignored) {
+                    // Already failing.
+                }
+            }
+        }
+    }
+
+    private void closeTelemetry(DeviceSession session) {
+        DataListener dataListener = (DataListener) session.getDataListener();
+        synchronized (dataListener) {
+            TelemetryLog log = dataListener.telemetryLog;
+            dataListener.telemetryLog = null;
+            if (log == null) {
+                return;
+            }
+            Log.i("Telemetry", session.getMacAddress() + ": "
+                    + log.getWritten() + " intervals");
+            try {
+                log.close();
+            } catch (IOException e) {
+                Log.e("Telemetry", "closing log failed", e);
+            }
+        }
+    }
+
+    /**
+     * Checks every headband's StreamHealthMonitor against the packet types
+     * registered for it. When a stream stalls, or resumes, the change is
+     * logged and annotated in the recording; while any is stalled the
+     * DegradedAlert sounds every DEGRADED_REPEAT_NANOS. Runs on the worker
+     * thread.
+     */
+    private final Runnable healthChecker = new Runnable() {
+        @Override
+        public void run() {
+            long nanos = System.nanoTime();
+            boolean any = false;
+            for (DeviceSession session : devices.all()) {
+                DataListener dataListener = (DataListener) session.getDataListener();
+                StreamHealthMonitor health = dataListener.health;
+                boolean was = health.isDegraded();
+                boolean now = health.check(session.getSubscriptions().getRegistered(), nanos);
+                if (now && !was) {
+                    dataListener.degradedNanos = nanos;
+                    String line = "monitoring degraded: " + health.getStalled()
+                            + " silent " + health.getStalledNanos() / 1000000 + " ms";
+                    Log.w("Stream", session.getMacAddress() + " " + line);
+                    session.getRecorder().annotate(line);
+                } else if (was && !now) {
+                    String line = "monitoring restored after "
+                            + (nanos - dataListener.degradedNanos) / 1000000 + " ms";
+                    Log.i("Stream", session.getMacAddress() + " " + line);
+                    session.getRecorder().annotate(line);
+                }
+                any |= now;
+            }
+            if (any && (!stalled || nanos - degradedAlertNanos >= DEGRADED_REPEAT_NANOS)) {
+                degradedAlert.play();
+                degradedAlertNanos = nanos;
+            }
+            if (any != stalled) {
+                stalled = any;
+                refreshHealth();
+            }
+            handler.postDelayed(this, HEALTH_CHECK_MILLIS);
+        }
+    };
+
+    private void refreshHealth() {
+        String health = stalled ? getString(R.string.monitoring_degraded) : null;
+        if (!Double.isNaN(battery)) {
+            String charge = getString(R.string.battery, (int) battery);
+            health = health == null ? charge : health + ", " + charge;
+        }
+        if (poorContacts > 0) {
+            String contact = getString(R.string.poor_contact, poorContacts);
+            health = health == null ? contact : health + ", " + contact;
+        }
+        boolean changed = health == null ? healthText != null : !health.equals(healthText);
+        healthText = health;
+        if (changed && foreground) {
+            NotificationManager notifications =
+                    (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
+            notifications.notify(NOTIFICATION_ID, buildNotification(devices.size()));
+        }
+    }
+
+    /**
+     * Logs p50/p99/max per stage for every headband and writes the same
+     * line into its recording. Runs on the worker thread.
+     */
+    private final Runnable latencyReporter = new Runnable() {
+        @Override
+        public void run() {
+            for (DeviceSession session : devices.all()) {
+                String summary = session.getLatency().summary();
+                Log.i("Latency", session.getMacAddress() + " " + summary);
+                session.getRecorder().annotate("latency " + summary);
+            }
+            handler.postDelayed(this, LATENCY_REPORT_MILLIS);
+        }
+    };
+
+    @Override
+    public void onDestroy() {
+        handler.removeCallbacksAndMessages(null);
+        worker.quitSafely();
+        for (DeviceSession session : devices.all()) {
+            devices.remove(session.getMacAddress());
+            session.getMuse().unregisterAllListeners();
+            session.getMuse().disconnect(false);
+            session.stop();
+            closeTelemetry(session);
+            saveBaseline(session.getMacAddress(),
+                    session.getEngine().getDetector().getBaseline());
+            SessionStoreWriter store = session.getStore();
+            Log.i("Store", store.getDirectory() + ": " + store.getWritten()
+                    + " frames, " + store.getOutOfOrder() + " out of order, "
+                    + store.getRebased() + " rebased after " + store.getRestarts()
+                    + " clock restarts");
+            if (store.getFailure() != null) {
+                Log.e("Store", "writing stopped early", store.getFailure());
+            }
+            ArtifactGate gate = session.getEngine().getDetector().getArtifactGate();
+            Log.i("Artifacts", session.getMacAddress() + ": " + gate.getBlinks()
+                    + " blinks, " + gate.getMaskedFrames() + " frames masked, "
+                    + gate.getSuppressedFrames() + " dropped off head");
+            HeadMotionDetector motion = session.getEngine().getDetector().getHeadMotion();
+            Log.i("Head motion", session.getMacAddress() + ": " + motion.getNods()
+                    + " nods, " + motion.getJerks() + " jerk samples");
+            DrowsinessStateMachine states = session.getEngine().getDetector().getStateMachine();
+            Log.i("Alarm", session.getMacAddress() + ": " + states.getEpisodes()
+                    + " drowsy episodes, " + states.getDismissed() + " suspicions dismissed, "
+                    + states.getAlarms() + " alarms, " + states.getAcknowledged()
+                    + " acknowledged");
+            SourcePolicy policy = ((DataListener) session.getDataListener()).policy;
+            Log.i("Source", session.getMacAddress() + ": " + policy.getSwitches()
+                    + " switches, ended " + policy.getMode());
+            StreamHealthMonitor health = ((DataListener) session.getDataListener()).health;
+            long gaps = 0;
+            long missing = 0;
+            long outOfOrder = 0;
+            for (MuseDataPacketType type : MuseDataPacketType.values()) {
+                gaps += health.getGaps(type);
+                missing += health.getMissing(type);
+                outOfOrder += health.getOutOfOrder(type);
+            }
+            Log.i("Stream", session.getMacAddress() + ": " + gaps + " gaps, "
+                    + missing + " packets missing, " + outOfOrder + " out of order, degraded "
+                    + health.getDegradations() + " times");
+        }
+        LatencyHistogram resume = supervisor.getResumeTimes();
+        Log.i("Reconnect", supervisor.getDrops() + " drops, "
+                + supervisor.getAttempts() + " attempts, resumed "
+                + resume.getCount() + " times, p50 "
+                + resume.getValueAtPercentile(50) / 1000000 + " ms, max "
+                + resume.getMax() / 1000000 + " ms");
+        if (wakeLock.isHeld()) {
+            wakeLock.release();
+        }
+        Log.i("Alarm", "played " + alarmPlayer.getPlayed()
+                + ", suppressed " + alarmPlayer.getSuppressed()
+                + ", mean latency " + alarmPlayer.getMeanLatencyNanos() / 1000
+                + " us, max " + alarmPlayer.getMaxLatencyNanos() / 1000 + " us");
+        alarmPlayer.release();
+        Log.i("Stream", "degraded alert played " + degradedAlert.getPlayed() + " times");
+        degradedAlert.release();
+        super.onDestroy();
+    }
+}
@@ -0,0 +1,235 @@
+package driveware.com.service;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+
+import driveware.com.metrics.LatencyHistogram;
+import driveware.com.session.DeviceRegistry;
+import driveware.com.session.DeviceSession;
+import com.interaxon.libmuse.ConnectionState;
+import com.interaxon.libmuse.Muse;
+
+/**
+ * Brings a headband back after a Bluetooth dropout without the driver
+ * pressing Connect again.
+ *
+ * Every connection transition is written into the headband's recording,
+ * so a drive's connection timeline can be read back next to its data.
+ * When a headband that is still registered goes DISCONNECTED, the
+ * supervisor clears its listeners, registers them and the preset again
+ * through the Configurator and calls runAsynchronously(), retrying with
+ * a backoff from FIRST_RETRY_MILLIS doubling to MAX_RETRY_MILLIS until it
+ * connects or is disconnected on purpose. libmuse must not be reconnected
+ * from its own callback, so all of this runs on the handler's thread.
+ *
+ * The session, and with it the detection thread, baseline and every
+ * window of the detector, is kept across the gap. Time to resume is
+ * measured from the drop to the first band frame the detector publishes
+ * after reconnecting, polled every RESUME_POLL_MILLIS.
+ *
+ * onConnectionChanged() may be called from any thread; everything else
+ * runs on the handler's thread.
+ */
+public final class ReconnectSupervisor {
+
+    private static final String TAG = "Reconnect";
+
+    static final long FIRST_RETRY_MILLIS = 250;
+    static final long MAX_RETRY_MILLIS = 4000;
+    static final long RESUME_POLL_MILLIS = 20;
+    // Stop waiting for data after a reconnect that delivers none.
+    static final long RESUME_TIMEOUT_MILLIS = 30000;
+
+    /**
+     * Registers the connection and data listeners and the preset of a
+     * session on its Muse.
+     */
+    public interface Configurator {
+        void configure(DeviceSession session);
+    }
+
+    /*
+     * Reconnect state of one headband, touched only on the handler's thread.
+     */
+    private final class Link implements Runnable {
+
+        final DeviceSession session;
+        int attempts;
+        long droppedAt = -1;
+        long connectedAt = -1;
+        long updateMark;
+
+        Link(DeviceSession session) {
+            this.session = session;
+        }
+
+        // Reconnect attempt.
+        @Override
+        public void run() {
+            if (devices.get(session.getMacAddress()) != session) {
+                links.remove(session.getMacAddress());
+                return;
+            }
+            attempts++;
+            attemptCount++;
+            Muse muse = session.getMuse();
+            session.getRecorder().annotate("reconnect attempt " + attempts);
+            muse.unregisterAllListeners();
+            configurator.configure(session);
+            try {
+                muse.runAsynchronously();
+            } catch (Exception e) {
+                Log.e(TAG, session.getMacAddress() + " " + e.toString());
+                retry(this);
+            }
+        }
+
+        final Runnable resumeProbe = new Runnable() {
+            @Override
+            public void run() {
+                if (droppedAt < 0 || devices.get(session.getMacAddress()) != session) {
+                    return;
+                }
+                long now = SystemClock.elapsedRealtime();
+                if (session.getEngine().getUpdateCount() != updateMark) {
+                    resumed(Link.this, now);
+                } else if (now - connectedAt < RESUME_TIMEOUT_MILLIS) {
+                    handler.postDelayed(this, RESUME_POLL_MILLIS);
+                }
+            }
+        };
+    }
+
+    private final Handler handler;
+    private final DeviceRegistry devices;
+    private final Configurator configurator;
+    private final Map<String, Link> links = new HashMap<String, Link>();
+    private final LatencyHistogram resumeTimes = new LatencyHistogram();
+
+    private volatile long drops;
+    private volatile long attemptCount;
+
+    public ReconnectSupervisor(Handler handler, DeviceRegistry devices,
+                               Configurator configurator) {
+        this.handler = handler;
+        this.devices = devices;
+        this.configurator = configurator;
+    }
+
+    /**
+     * Feeds one transition from a MuseConnectionListener.
+     */
+    public void onConnectionChanged(final String macAddress,
+                                    final ConnectionState previous,
+                                    final ConnectionState current) {
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                transition(macAddress, previous, current);
+            }
+        });
+    }
+
+    /**
+     * Stops reconnecting a headband that was disconnected on purpose.
+     */
+    public void forget(final String macAddress) {
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                Link gone = links.remove(macAddress);
+                if (gone != null) {
+                    cancel(gone);
+                }
+            }
+        });
+    }
+
+    private void transition(String mac, ConnectionState previous,
+                            ConnectionState current) {
+        DeviceSession session = devices.get(mac);
+        if (session == null) {
+            // Disconnected on purpose, or never ours.
+            Link gone = links.remove(mac);
+            if (gone != null) {
+                cancel(gone);
+            }
+            return;
+        }
+        long now = SystemClock.elapsedRealtime();
+        session.getRecorder().annotate("connection " + previous + " -> " + current);
+        Link link = links.get(mac);
+        if (link == null || link.session != session) {
+            link = new Link(session);
+            links.put(mac, link);
+        }
+        switch (current) {
+            case CONNECTED:
+                handler.removeCallbacks(link);
+                link.attempts = 0;
+                link.connectedAt = now;
+                if (link.droppedAt >= 0) {
+                    link.updateMark = session.getEngine().getUpdateCount();
+                    handler.removeCallbacks(link.resumeProbe);
+                    handler.postDelayed(link.resumeProbe, RESUME_POLL_MILLIS);
+                }
+                break;
+            case DISCONNECTED:
+                if (previous == ConnectionState.CONNECTED) {
+                    drops++;
+                    link.droppedAt = now;
+                    link.attempts = 0;
+                    Log.w(TAG, mac + " dropped, reconnecting");
+                    session.getRecorder().annotate("connection lost");
+                }
+                handler.removeCallbacks(link.resumeProbe);
+                retry(link);
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void retry(Link link) {
+        handler.removeCallbacks(link);
+        long delay = link.attempts == 0 ? 0 : Math.min(MAX_RETRY_MILLIS,
+                FIRST_RETRY_MILLIS << Math.min(link.attempts - 1, 16));
+        handler.postDelayed(link, delay);
+    }
+
+    private void resumed(Link link, long now) {
+        long millis = now - link.droppedAt;
+        link.droppedAt = -1;
+        resumeTimes.record(millis * 1000000L);
+        Log.i(TAG, link.session.getMacAddress() + " monitoring resumed after "
+                + millis + " ms");
+        link.session.getRecorder().annotate("monitoring resumed after " + millis + " ms");
+    }
+
+    private void cancel(Link link) {
+        handler.removeCallbacks(link);
+        handler.removeCallbacks(link.resumeProbe);
+    }
+
+    /**
+     * Connections lost while the headband was connected.
+     */
+    public long getDrops() {
+        return drops;
+    }
+
+    public long getAttempts() {
+        return attemptCount;
+    }
+
+    /**
+     * Drop to first published band frame after reconnecting, in nanoseconds.
+     */
+    public LatencyHistogram getResumeTimes() {
+        return resumeTimes;
+    }
+}
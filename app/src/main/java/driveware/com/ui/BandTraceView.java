@@ -0,0 +1,147 @@
+package driveware.com.ui;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.util.AttributeSet;
+import android.view.View;
+
+import driveware.com.detection.Band;
+import driveware.com.detection.BandTrace;
+import driveware.com.detection.DetectionEngine;
+import driveware.com.detection.Detector;
+
+/**
+ * Plots the last WINDOW_MICROS of every relative band straight from the
+ * detector's BandTraces.
+ *
+ * refresh() is meant to be called once per display frame: it copies only
+ * bands that received new values and invalidates at most once, so any
+ * number of packets between two frames costs a single redraw. Each band
+ * is placed on its own time axis from its packet timestamps, ending at its
+ * latest value. Everything is preallocated, nothing is created per frame.
+ */
+public class BandTraceView extends View {
+
+    private static final long WINDOW_MICROS = 10000000L;
+    // A whole trace: at the estimator's 20 Hz, WINDOW_MICROS is 200 values.
+    private static final int POINTS = Detector.TRACE_CAPACITY;
+    private static final int[] COLORS = {
+            Color.rgb(0x21, 0x96, 0xf3),  // alpha
+            Color.rgb(0x4c, 0xaf, 0x50),  // beta
+            Color.rgb(0xff, 0x98, 0x00),  // theta
+            Color.rgb(0x9c, 0x27, 0xb0),  // delta
+            Color.rgb(0xf4, 0x43, 0x36)   // gamma
+    };
+
+    private static final Band[] BANDS = Band.values();
+
+    private final long[][] timestamps = new long[BANDS.length][POINTS];
+    private final double[][] values = new double[BANDS.length][POINTS];
+    private final int[] counts = new int[BANDS.length];
+    private final long[] seen = new long[BANDS.length];
+    // Line segments for Canvas.drawLines, 4 floats per segment.
+    private final float[] segments = new float[(POINTS - 1) * 4];
+    private final Paint[] paints = new Paint[BANDS.length];
+    private final Paint gridPaint = new Paint();
+
+    private DetectionEngine engine;
+
+    public BandTraceView(Context context) {
+        this(context, null);
+    }
+
+    public BandTraceView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        float density = context.getResources().getDisplayMetrics().density;
+        for (int b = 0; b < paints.length; b++) {
+            paints[b] = new Paint(Paint.ANTI_ALIAS_FLAG);
+            paints[b].setColor(COLORS[b % COLORS.length]);
+            paints[b].setStrokeWidth(2 * density);
+            paints[b].setTextSize(12 * density);
+        }
+        gridPaint.setColor(Color.GRAY);
+        gridPaint.setStrokeWidth(density);
+    }
+
+    /**
+     * Switches to another headband's detector, or clears the plot on null.
+     * UI thread only.
+     */
+    public void setEngine(DetectionEngine engine) {
+        this.engine = engine;
+        for (int b = 0; b < BANDS.length; b++) {
+            counts[b] = 0;
+            seen[b] = -1;
+        }
+        invalidate();
+    }
+
+    /**
+     * Copies bands that changed since the previous call and schedules one
+     * redraw if any did. UI thread only.
+     *
+     * @return true if a redraw was scheduled.
+     */
+    public boolean refresh() {
+        DetectionEngine e = engine;
+        if (e == null) {
+            return false;
+        }
+        boolean changed = false;
+        for (int b = 0; b < BANDS.length; b++) {
+            BandTrace trace = e.getTrace(BANDS[b]);
+            long written = trace.getWritten();
+            if (written != seen[b]) {
+                seen[b] = written;
+                counts[b] = trace.snapshot(timestamps[b], values[b], POINTS);
+                changed = true;
+            }
+        }
+        if (changed) {
+            invalidate();
+        }
+        return changed;
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        float width = getWidth();
+        float height = getHeight();
+        canvas.drawLine(0, height, width, height, gridPaint);
+        canvas.drawLine(0, height / 2, width, height / 2, gridPaint);
+        for (int b = 0; b < BANDS.length; b++) {
+            int n = counts[b];
+            if (n < 2) {
+                continue;
+            }
+            long[] ts = timestamps[b];
+            double[] vs = values[b];
+            long end = ts[n - 1];
+            long start = end - WINDOW_MICROS;
+            int s = 0;
+            for (int i = 1; i < n; i++) {
+                if (ts[i - 1] < start) {
+                    continue;
+                }
+                segments[s++] = x(ts[i - 1], start, width);
+                segments[s++] = y(vs[i - 1], height);
+                segments[s++] = x(ts[i], start, width);
+                segments[s++] = y(vs[i], height);
+            }
+            canvas.drawLines(segments, 0, s, paints[b]);
+            canvas.drawText(BANDS[b].name(), 4, (b + 1) * paints[b].getTextSize(),
+                    paints[b]);
+        }
+    }
+
+    private static float x(long timestamp, long start, float width) {
+        return (timestamp - start) * width / WINDOW_MICROS;
+    }
+
+    // Relative band powers are in [0, 1].
+    private static float y(double value, float height) {
+        return (float) (height - value * height);
+    }
+}
@@ -0,0 +1,77 @@
+package driveware.com.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.interaxon.libmuse.MuseDataPacketType;
+
+import driveware.com.detection.PacketSink;
+import driveware.com.dsp.BandPowerEstimator;
+import driveware.com.synthetic.SyntheticEegSource;
+
+/**
+ * Cost of one 4-channel EEG sample at 220 Hz through BandPowerEstimator,
+ * including the FFTs amortised over the hop. Multiply by 220 for the CPU
+ * share of one headband.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class BandPowerBenchmark {
+
+    static final int SAMPLES = 1 << 14;
+    static final int CHANNELS = 4;
+
+    @Param({"22", "11"})
+    int hop;
+
+    private final double[][] values = new double[SAMPLES][];
+    private BandPowerEstimator estimator;
+    private PacketSink sink;
+    private int next;
+    double last;
+
+    @Setup
+    public void setUp() {
+        SyntheticEegSource source = new SyntheticEegSource(7L);
+        PacketSink recorder = new PacketSink() {
+            private int n;
+
+            @Override
+            public boolean offer(MuseDataPacketType type, long timestamp,
+                                 double[] v, int count) {
+                values[n++] = v.clone();
+                return true;
+            }
+        };
+        for (int i = 0; i < SAMPLES; i++) {
+            source.emit(recorder);
+        }
+        estimator = new BandPowerEstimator(BandPowerEstimator.MUSE_SAMPLE_RATE,
+                BandPowerEstimator.DEFAULT_WINDOW, hop);
+        sink = new PacketSink() {
+            @Override
+            public boolean offer(MuseDataPacketType type, long timestamp,
+                                 double[] v, int count) {
+                last = v[0];
+                return true;
+            }
+        };
+    }
+
+    @Benchmark
+    public double addSample() {
+        int i = next;
+        next = (i + 1) & (SAMPLES - 1);
+        estimator.add(i, values[i], CHANNELS, sink);
+        return last;
+    }
+}
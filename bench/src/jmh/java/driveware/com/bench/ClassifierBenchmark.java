@@ -0,0 +1,59 @@
+package driveware.com.bench;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import driveware.com.classifier.MlpClassifier;
+import driveware.com.detection.Features;
+
+/**
+ * Cost of one MlpClassifier forward pass with the default trainer layout
+ * and random weights, i.e. what every alpha frame pays on the phone.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ClassifierBenchmark {
+
+    static final int VECTORS = 1 << 10;
+    static final int HIDDEN = 8;
+
+    private final double[][] features = new double[VECTORS][Features.SIZE];
+    private MlpClassifier classifier;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(7L);
+        for (double[] f : features) {
+            for (int i = 0; i < f.length; i++) {
+                f[i] = random.nextDouble();
+            }
+        }
+        int[] layers = {Features.SIZE, HIDDEN, 1};
+        double[] weights = new double[HIDDEN * (Features.SIZE + 1) + HIDDEN + 1];
+        for (int i = 0; i < weights.length; i++) {
+            weights[i] = random.nextGaussian();
+        }
+        double[] mean = new double[Features.SIZE];
+        double[] stddev = new double[Features.SIZE];
+        Arrays.fill(stddev, 1.0d);
+        classifier = new MlpClassifier(layers, mean, stddev, weights);
+    }
+
+    @Benchmark
+    public double score() {
+        int i = next;
+        next = (i + 1) & (VECTORS - 1);
+        return classifier.score(features[i]);
+    }
+}
@@ -0,0 +1,85 @@
+package driveware.com.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.interaxon.libmuse.MuseDataPacketType;
+
+import driveware.com.detection.DetectionListener;
+import driveware.com.detection.Detector;
+import driveware.com.detection.PacketSink;
+import driveware.com.synthetic.SyntheticPacketSource;
+
+/**
+ * Cost of scoring one relative band or artifact packet on the detection
+ * thread.
+ * Packets are pregenerated so the generator is not measured.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class DetectorBenchmark {
+
+    static final int FRAMES = 1 << 16;
+    // Five band packets and the artifact flags.
+    static final int PER_STEP = 6;
+
+    private final MuseDataPacketType[] types = new MuseDataPacketType[FRAMES];
+    private final long[] timestamps = new long[FRAMES];
+    private final double[][] values = new double[FRAMES][];
+    private Detector detector;
+    private int next;
+    long alarms;
+
+    @Setup
+    public void setUp() {
+        SyntheticPacketSource source = new SyntheticPacketSource(7L)
+                .setDrowsiness(60.0d, 15.0d, 0.25d, 0.10d, 0.15d);
+        PacketSink recorder = new PacketSink() {
+            private int n;
+
+            @Override
+            public boolean offer(MuseDataPacketType type, long timestamp,
+                                 double[] v, int count) {
+                types[n] = type;
+                timestamps[n] = timestamp;
+                values[n] = v.clone();
+                n++;
+                return true;
+            }
+        };
+        for (int i = 0; i < FRAMES / PER_STEP; i++) {
+            source.emit(recorder);
+        }
+        // FRAMES is not a multiple of PER_STEP; pad the tail with the first
+        // packets.
+        int filled = FRAMES / PER_STEP * PER_STEP;
+        for (int i = filled; i < FRAMES; i++) {
+            types[i] = types[i - filled];
+            timestamps[i] = timestamps[i - filled];
+            values[i] = values[i - filled];
+        }
+        detector = new Detector(new DetectionListener() {
+            @Override
+            public void onAlarm(double alpha, long arrivalNanos,
+                                long decisionNanos) {
+                alarms++;
+            }
+        });
+    }
+
+    @Benchmark
+    public double processPacket() {
+        int i = next;
+        next = (i + 1) & (FRAMES - 1);
+        detector.offer(types[i], timestamps[i], values[i], values[i].length);
+        return detector.getRatioMean();
+    }
+}
@@ -0,0 +1,56 @@
+package driveware.com.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.interaxon.libmuse.MuseDataPacketType;
+
+import driveware.com.detection.DetectionEngine;
+import driveware.com.detection.DetectionListener;
+
+/**
+ * Cost paid by the libmuse callback thread to hand a packet to the
+ * detection thread, with the detection thread running concurrently.
+ * This is the latency DataListener adds to every callback.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class EngineOfferBenchmark {
+
+    private final double[] values = {0.3d, 0.2d, 0.2d, 0.3d};
+    private DetectionEngine engine;
+    private long timestamp;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        engine = new DetectionEngine(1024, new DetectionListener() {
+            @Override
+            public void onAlarm(double alpha, long arrivalNanos,
+                                long decisionNanos) {
+            }
+        });
+        engine.start();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        engine.stop();
+    }
+
+    @Benchmark
+    public boolean offer() {
+        timestamp += 100000L;
+        return engine.offer(MuseDataPacketType.ALPHA_RELATIVE, timestamp,
+                values, values.length);
+    }
+}
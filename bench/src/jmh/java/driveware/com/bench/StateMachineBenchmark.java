@@ -0,0 +1,58 @@
+package driveware.com.bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import driveware.com.detection.DrowsinessStateMachine;
+
+/**
+ * Cost of turning one score into an alarm decision. Scores hover around
+ * the alarm level so every state and transition is exercised.
+ * Scores are pregenerated so the generator is not measured.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class StateMachineBenchmark {
+
+    static final int FRAMES = 1 << 16;
+    // Alpha frames at the estimator's 20 Hz.
+    static final long FRAME_MICROS = 50000L;
+
+    private final double[] scores = new double[FRAMES];
+    private DrowsinessStateMachine states;
+    private long timestamp;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(7L);
+        double drift = 0.0d;
+        for (int i = 0; i < FRAMES; i++) {
+            // Slow drift through the zone between the thresholds, plus noise.
+            drift = 0.98d * drift + 0.02d * random.nextGaussian();
+            scores[i] = Math.max(0.0d, Math.min(1.0d,
+                    0.4d + 0.5d * drift + 0.1d * random.nextGaussian()));
+        }
+        states = new DrowsinessStateMachine();
+    }
+
+    @Benchmark
+    public boolean update() {
+        int i = next;
+        next = (i + 1) & (FRAMES - 1);
+        timestamp += FRAME_MICROS;
+        if ((i & 4095) == 0) {
+            states.acknowledge();
+        }
+        return states.update(timestamp, scores[i]);
+    }
+}
@@ -0,0 +1,74 @@
+package driveware.com.bench;
+
+import com.interaxon.libmuse.MuseDataPacketType;
+
+import driveware.com.detection.DetectionEngine;
+import driveware.com.detection.DetectionListener;
+import driveware.com.detection.PacketSink;
+import driveware.com.synthetic.SyntheticPacketSource;
+
+/**
+ * Runs the threaded DetectionEngine against SyntheticPacketSource on a
+ * plain JVM and prints throughput and how alarms line up with the
+ * synthetic drowsy episodes.
+ *
+ * Usage: HeadlessHarness [simulated seconds] [seed]
+ */
+public class HeadlessHarness {
+
+    /**
+     * Waits for ring space instead of dropping, so every generated packet
+     * is scored.
+     */
+    static final class BlockingSink implements PacketSink {
+        private final DetectionEngine engine;
+
+        BlockingSink(DetectionEngine engine) {
+            this.engine = engine;
+        }
+
+        @Override
+        public boolean offer(MuseDataPacketType type, long timestamp,
+                             double[] values, int count) {
+            engine.put(type, timestamp, values, count);
+            return true;
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        double seconds = args.length > 0 ? Double.parseDouble(args[0]) : 8 * 3600;
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : 42L;
+
+        final SyntheticPacketSource source = new SyntheticPacketSource(seed);
+        final long[] alarms = new long[2];
+        DetectionEngine engine = new DetectionEngine(4096, new DetectionListener() {
+            @Override
+            public void onAlarm(double alpha, long arrivalNanos,
+                                long decisionNanos) {
+                // Read on the detection thread while the producer may have
+                // moved on a few steps, good enough for a summary.
+                alarms[source.isDrowsy() ? 0 : 1]++;
+            }
+        });
+        engine.start();
+
+        PacketSink sink = new BlockingSink(engine);
+        long packets = 0;
+        long start = System.nanoTime();
+        while (source.getTime() < seconds) {
+            packets += source.emit(sink);
+        }
+        while (engine.getProcessedCount() < packets) {
+            Thread.yield();
+        }
+        long elapsed = System.nanoTime() - start;
+        engine.stop();
+
+        System.out.printf("%d packets in %.1f ms, %.0f packets/s, %.0fx real time%n",
+                packets, elapsed / 1e6d, packets * 1e9d / elapsed,
+                seconds * 1e9d / elapsed);
+        System.out.printf("alarms while drowsy %d, other alarms %d%n",
+                alarms[0], alarms[1]);
+        System.out.println(engine.getDetector().getLatency().summary());
+    }
+}
@@ -0,0 +1,90 @@
+package driveware.com.alarm;
+
+/**
+ * Debounces alarm decisions and escalates repeated ones.
+ *
+ * After an alarm has sounded, further decisions are ignored for the
+ * refractory period. A decision arriving within the escalation window
+ * after the refractory period raises the level by one, up to maxLevel.
+ * Once no decision arrives for the whole window the level drops back to 0.
+ *
+ * Times are monotonic nanoseconds supplied by the caller, so the policy
+ * can be driven by replayed timestamps as well as System.nanoTime().
+ * Not thread safe, call from the thread making the decisions.
+ */
+public class AlarmPolicy {
+
+    public static final long DEFAULT_REFRACTORY_NANOS = 3000000000L;
+    public static final long DEFAULT_ESCALATION_WINDOW_NANOS = 15000000000L;
+    public static final int DEFAULT_MAX_LEVEL = 2;
+
+    /**
+     * Returned by onDecision() when the alarm must stay silent.
+     */
+    public static final int SUPPRESSED = -1;
+
+    private final long refractoryNanos;
+    private final long escalationWindowNanos;
+    private final int maxLevel;
+
+    private boolean sounded;
+    private long lastSoundNanos;
+    private int level;
+    private long suppressed;
+
+    public AlarmPolicy() {
+        this(DEFAULT_REFRACTORY_NANOS, DEFAULT_ESCALATION_WINDOW_NANOS,
+                DEFAULT_MAX_LEVEL);
+    }
+
+    public AlarmPolicy(long refractoryNanos, long escalationWindowNanos,
+                       int maxLevel) {
+        this.refractoryNanos = refractoryNanos;
+        this.escalationWindowNanos = escalationWindowNanos;
+        this.maxLevel = maxLevel;
+    }
+
+    /**
+     * Returns the level to sound at, or SUPPRESSED.
+     */
+    public int onDecision(long nowNanos) {
+        if (sounded) {
+            long since = nowNanos - lastSoundNanos;
+            if (since < refractoryNanos) {
+                suppressed++;
+                return SUPPRESSED;
+            }
+            if (since < refractoryNanos + escalationWindowNanos) {
+                level = Math.min(level + 1, maxLevel);
+            } else {
+                level = 0;
+            }
+        }
+        sounded = true;
+        lastSoundNanos = nowNanos;
+        return level;
+    }
+
+    /**
+     * Driver acknowledged the alarm: next decision starts from level 0.
+     */
+    public void reset() {
+        sounded = false;
+        level = 0;
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    public int getMaxLevel() {
+        return maxLevel;
+    }
+
+    /**
+     * Decisions swallowed by the refractory period.
+     */
+    public long getSuppressed() {
+        return suppressed;
+    }
+}
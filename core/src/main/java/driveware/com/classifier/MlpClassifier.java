@@ -0,0 +1,160 @@
+package driveware.com.classifier;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import driveware.com.detection.DrowsinessClassifier;
+
+/**
+ * Feed-forward network trained offline with Encog, evaluated without it.
+ *
+ * Weights of every layer are flattened into one array, row per neuron with
+ * the bias last, and activations go through two preallocated buffers, so
+ * score() is a few nested loops over primitives and does not allocate.
+ * Inputs are standardized with the mean and standard deviation of the
+ * training set; NaN inputs become the mean. An input whose mean is NaN
+ * was never seen in training and is always taken as the mean, whatever
+ * the phone computes for it. Every layer after the input uses the
+ * sigmoid, matching Encog's ActivationSigmoid.
+ *
+ * Instances hold scratch buffers and are not thread safe; use copy() to
+ * give each Detector its own.
+ *
+ * File format, big endian: MAGIC, VERSION, layer count, neurons per layer,
+ * input mean and stddev, then the weights in score() order.
+ */
+public final class MlpClassifier implements DrowsinessClassifier {
+
+    static final int MAGIC = 0x44574d4c;  // "DWML"
+    static final int VERSION = 1;
+
+    private final int[] layers;
+    private final double[] mean;
+    private final double[] stddev;
+    private final double[] weights;
+    private final double[] in;
+    private final double[] out;
+
+    /**
+     * @param layers  neurons per layer, input first, one output neuron last.
+     * @param weights for each layer after the input, for each of its
+     *                neurons, one weight per neuron of the previous layer
+     *                followed by the bias.
+     */
+    public MlpClassifier(int[] layers, double[] mean, double[] stddev,
+                         double[] weights) {
+        if (layers.length < 2 || layers[layers.length - 1] != 1) {
+            throw new IllegalArgumentException("need input layer and one output neuron");
+        }
+        if (mean.length != layers[0] || stddev.length != layers[0]) {
+            throw new IllegalArgumentException("normalization does not match inputs");
+        }
+        if (weights.length != weightCount(layers)) {
+            throw new IllegalArgumentException("expected " + weightCount(layers)
+                    + " weights, got " + weights.length);
+        }
+        this.layers = layers;
+        this.mean = mean;
+        this.stddev = stddev;
+        this.weights = weights;
+        int widest = 0;
+        for (int n : layers) {
+            widest = Math.max(widest, n);
+        }
+        in = new double[widest];
+        out = new double[widest];
+    }
+
+    static int weightCount(int[] layers) {
+        int count = 0;
+        for (int l = 1; l < layers.length; l++) {
+            count += layers[l] * (layers[l - 1] + 1);
+        }
+        return count;
+    }
+
+    /**
+     * Shares the weights, with scratch buffers of its own.
+     */
+    public MlpClassifier copy() {
+        return new MlpClassifier(layers, mean, stddev, weights);
+    }
+
+    public int getInputCount() {
+        return layers[0];
+    }
+
+    @Override
+    public double score(double[] features) {
+        double[] a = in;
+        double[] b = out;
+        for (int i = 0; i < layers[0]; i++) {
+            double v = features[i];
+            a[i] = Double.isNaN(v) || Double.isNaN(mean[i]) ? 0.0d : (v - mean[i]) / stddev[i];
+        }
+        int w = 0;
+        for (int l = 1; l < layers.length; l++) {
+            int from = layers[l - 1];
+            int to = layers[l];
+            for (int j = 0; j < to; j++) {
+                double sum = 0.0d;
+                for (int i = 0; i < from; i++) {
+                    sum += weights[w++] * a[i];
+                }
+                sum += weights[w++];
+                b[j] = 1.0d / (1.0d + Math.exp(-sum));
+            }
+            double[] t = a;
+            a = b;
+            b = t;
+        }
+        return a[0];
+    }
+
+    public void write(OutputStream stream) throws IOException {
+        DataOutputStream data = new DataOutputStream(stream);
+        data.writeInt(MAGIC);
+        data.writeInt(VERSION);
+        data.writeInt(layers.length);
+        for (int n : layers) {
+            data.writeInt(n);
+        }
+        for (int i = 0; i < layers[0]; i++) {
+            data.writeDouble(mean[i]);
+            data.writeDouble(stddev[i]);
+        }
+        for (double v : weights) {
+            data.writeDouble(v);
+        }
+        data.flush();
+    }
+
+    public static MlpClassifier read(InputStream stream) throws IOException {
+        DataInputStream data = new DataInputStream(stream);
+        if (data.readInt() != MAGIC) {
+            throw new IOException("not a classifier file");
+        }
+        int version = data.readInt();
+        if (version != VERSION) {
+            throw new IOException("unsupported classifier version " + version);
+        }
+        int[] layers = new int[data.readInt()];
+        for (int l = 0; l < layers.length; l++) {
+            layers[l] = data.readInt();
+        }
+        double[] mean = new double[layers[0]];
+        double[] stddev = new double[layers[0]];
+        for (int i = 0; i < layers[0]; i++) {
+            mean[i] = data.readDouble();
+            stddev[i] = data.readDouble();
+        }
+        double[] weights = new double[weightCount(layers)];
+        for (int i = 0; i < weights.length; i++) {
+            weights[i] = data.readDouble();
+        }
+        return new MlpClassifier(layers, mean, stddev, weights);
+    }
+}
@@ -0,0 +1,241 @@
+package driveware.com.detection;
+
+import com.interaxon.libmuse.Eeg;
+
+/**
+ * Tracks libmuse artifact flags on the detection thread and decides which
+ * band frames they contaminate.
+ *
+ * ARTIFACTS frames carry the flags of a MuseArtifactPacket as 1.0 or 0.0
+ * at HEADBAND_ON, BLINK and JAW_CLENCH. The packets have no timestamp of
+ * their own; DetectionEngine stamps them with the last data packet of the
+ * same headband, which is accurate to one packet at 10 Hz.
+ *
+ * A band frame is contaminated when an artifact was flagged within
+ * windowMicros before its timestamp, the length of the window its power
+ * was computed over. A blink only reaches the frontal electrodes, so it
+ * masks FP1/FP2; a jaw clench masks every channel.
+ *
+ * Blinks are also counted: their rate over the last minute and their mean
+ * duration are Features in their own right, since blinks get longer and
+ * rarer as a driver gets drowsy. Both are NaN until the first artifact
+ * packet, so drives recorded without them train like before.
+ *
+ * MuseFileWriter has no artifact packets, so recordings keep the flags as
+ * annotations, see annotation(): a replay reading them back with
+ * parseAnnotation() learns the same blink features the phone computes.
+ *
+ * Every call is O(1) and allocation free. Owned by the detection thread;
+ * the counters are published for the UI.
+ */
+public final class ArtifactGate {
+
+    public static final int HEADBAND_ON = 0;
+    public static final int BLINK = 1;
+    public static final int JAW_CLENCH = 2;
+    public static final int VALUES = 3;
+
+    /**
+     * Prefix of the annotations recording artifact flags.
+     */
+    public static final String ANNOTATION = "artifacts ";
+
+    /**
+     * 256 samples at 220 Hz, the window of both libmuse's band powers and
+     * BandPowerEstimator's default.
+     */
+    public static final long DEFAULT_WINDOW_MICROS = 256L * 1000000L / 220L;
+
+    static final long RATE_WINDOW_MICROS = 60000000L;
+    static final int MAX_BLINKS = 128;
+    static final int DURATION_WINDOW = 16;
+
+    private final long windowMicros;
+    // Start timestamps of the blinks in the last minute, oldest first.
+    private final long[] blinkStarts = new long[MAX_BLINKS];
+    private int blinkHead;
+    private int blinkCount;
+    private final SlidingWindow durations = new SlidingWindow(DURATION_WINDOW);
+
+    private boolean seen;
+    private boolean blinking;
+    private long blinkStart;
+    private long lastBlink = Long.MIN_VALUE;
+    private long lastClench = Long.MIN_VALUE;
+    private long latest;
+
+    private volatile boolean headbandOn = true;
+    private volatile long blinks;
+    private volatile long maskedFrames;
+    private volatile long suppressedFrames;
+
+    public ArtifactGate() {
+        this(DEFAULT_WINDOW_MICROS);
+    }
+
+    public ArtifactGate(long windowMicros) {
+        if (windowMicros < 0) {
+            throw new IllegalArgumentException("windowMicros must not be negative");
+        }
+        this.windowMicros = windowMicros;
+    }
+
+    /**
+     * Feeds the flags of one artifact packet.
+     */
+    public void update(long timestamp, boolean on, boolean blink, boolean jawClench) {
+        seen = true;
+        headbandOn = on;
+        latest = Math.max(latest, timestamp);
+        if (!on) {
+            // Flags are meaningless off the head; an open blink is dropped.
+            blinking = false;
+            return;
+        }
+        if (blink) {
+            if (!blinking) {
+                blinking = true;
+                blinkStart = timestamp;
+                addBlink(timestamp);
+            }
+            lastBlink = timestamp;
+        } else if (blinking) {
+            blinking = false;
+            durations.add((timestamp - blinkStart) / 1e6d);
+        }
+        if (jawClench) {
+            lastClench = timestamp;
+        }
+        expireBlinks();
+    }
+
+    /**
+     * Annotation recording the flags of one artifact packet and the
+     * timestamp it was stamped with, e.g. "artifacts 1234567 1 1 0".
+     */
+    public static String annotation(long timestamp, boolean on, boolean blink,
+                                    boolean jawClench) {
+        return ANNOTATION + timestamp + (on ? " 1" : " 0") + (blink ? " 1" : " 0")
+                + (jawClench ? " 1" : " 0");
+    }
+
+    /**
+     * Reads an annotation written by annotation() into values, laid out
+     * like an ARTIFACTS frame. Returns its timestamp, or Long.MIN_VALUE if
+     * the text is not such an annotation.
+     */
+    public static long parseAnnotation(String text, double[] values) {
+        if (text == null || !text.startsWith(ANNOTATION)) {
+            return Long.MIN_VALUE;
+        }
+        String[] fields = text.substring(ANNOTATION.length()).split(" ");
+        if (fields.length != 1 + VALUES) {
+            return Long.MIN_VALUE;
+        }
+        try {
+            long timestamp = Long.parseLong(fields[0]);
+            for (int i = 0; i < VALUES; i++) {
+                values[i] = "1".equals(fields[1 + i]) ? 1.0d : 0.0d;
+            }
+            return timestamp;
+        } catch (NumberFormatException e) {
+            return Long.MIN_VALUE;
+        }
+    }
+
+    void update(BandFrame frame) {
+        update(frame.timestamp, frame.values[HEADBAND_ON] != 0.0d,
+                frame.values[BLINK] != 0.0d, frame.values[JAW_CLENCH] != 0.0d);
+    }
+
+    private void addBlink(long timestamp) {
+        if (blinkCount == MAX_BLINKS) {
+            blinkHead = (blinkHead + 1) & (MAX_BLINKS - 1);
+            blinkCount--;
+        }
+        blinkStarts[(blinkHead + blinkCount) & (MAX_BLINKS - 1)] = timestamp;
+        blinkCount++;
+        blinks++;
+    }
+
+    private void expireBlinks() {
+        while (blinkCount > 0 && latest - blinkStarts[blinkHead] >= RATE_WINDOW_MICROS) {
+            blinkHead = (blinkHead + 1) & (MAX_BLINKS - 1);
+            blinkCount--;
+        }
+    }
+
+    /**
+     * Masks the channels of a band frame that an artifact contaminated,
+     * in place. Returns true if every channel is masked.
+     */
+    boolean mask(BandFrame frame) {
+        long t = frame.timestamp;
+        boolean clench = t - lastClench <= windowMicros && lastClench != Long.MIN_VALUE;
+        boolean blink = blinking
+                || (t - lastBlink <= windowMicros && lastBlink != Long.MIN_VALUE);
+        if (!clench && !blink) {
+            return false;
+        }
+        maskedFrames++;
+        if (clench) {
+            for (int c = 0; c < frame.count; c++) {
+                frame.values[c] = Double.NaN;
+            }
+            return true;
+        }
+        if (Eeg.FP1.ordinal() < frame.count) {
+            frame.values[Eeg.FP1.ordinal()] = Double.NaN;
+        }
+        if (Eeg.FP2.ordinal() < frame.count) {
+            frame.values[Eeg.FP2.ordinal()] = Double.NaN;
+        }
+        return false;
+    }
+
+    void suppressed() {
+        suppressedFrames++;
+    }
+
+    /**
+     * Whether the last artifact packet saw the headband on a head. True
+     * until one arrives.
+     */
+    public boolean isHeadbandOn() {
+        return headbandOn;
+    }
+
+    /**
+     * Blinks started in the last minute, NaN before any artifact packet.
+     * Only safe to read from the detection thread.
+     */
+    public double getBlinkRate() {
+        return seen ? blinkCount : Double.NaN;
+    }
+
+    /**
+     * Mean duration of the last blinks in seconds, NaN until one ended.
+     * Only safe to read from the detection thread.
+     */
+    public double getBlinkDuration() {
+        return durations.size() > 0 ? durations.mean() : Double.NaN;
+    }
+
+    public long getBlinks() {
+        return blinks;
+    }
+
+    /**
+     * Band frames with at least one channel masked.
+     */
+    public long getMaskedFrames() {
+        return maskedFrames;
+    }
+
+    /**
+     * Band frames dropped because the headband was off.
+     */
+    public long getSuppressedFrames() {
+        return suppressedFrames;
+    }
+}
@@ -0,0 +1,59 @@
+package driveware.com.detection;
+
+import com.interaxon.libmuse.MuseDataPacketType;
+
+/**
+ * Frequency bands reported by libmuse as *_RELATIVE packets, with the
+ * ranges libmuse documents for them. Alpha and theta overlap on purpose.
+ */
+public enum Band {
+    ALPHA(MuseDataPacketType.ALPHA_RELATIVE, 7.5d, 13.0d),
+    BETA(MuseDataPacketType.BETA_RELATIVE, 13.0d, 30.0d),
+    THETA(MuseDataPacketType.THETA_RELATIVE, 4.0d, 8.0d),
+    DELTA(MuseDataPacketType.DELTA_RELATIVE, 1.0d, 4.0d),
+    GAMMA(MuseDataPacketType.GAMMA_RELATIVE, 30.0d, 44.0d);
+
+    private static final Band[] BY_PACKET_TYPE =
+            new Band[MuseDataPacketType.values().length];
+    static {
+        for (Band b : values()) {
+            BY_PACKET_TYPE[b.relativeType.ordinal()] = b;
+        }
+    }
+
+    private final MuseDataPacketType relativeType;
+    private final double lowHz;
+    private final double highHz;
+
+    Band(MuseDataPacketType relativeType, double lowHz, double highHz) {
+        this.relativeType = relativeType;
+        this.lowHz = lowHz;
+        this.highHz = highHz;
+    }
+
+    public MuseDataPacketType getRelativeType() {
+        return relativeType;
+    }
+
+    /**
+     * Lower edge of the band, inclusive.
+     */
+    public double getLowHz() {
+        return lowHz;
+    }
+
+    /**
+     * Upper edge of the band, exclusive.
+     */
+    public double getHighHz() {
+        return highHz;
+    }
+
+    /**
+     * Returns the band carried by a relative band power packet, or null
+     * for any other packet type.
+     */
+    public static Band fromPacketType(MuseDataPacketType type) {
+        return BY_PACKET_TYPE[type.ordinal()];
+    }
+}
@@ -0,0 +1,71 @@
+package driveware.com.detection;
+
+import java.util.ArrayList;
+
+import com.interaxon.libmuse.MuseDataPacketType;
+
+/**
+ * Primitive copy of a MuseDataPacket. Frames are preallocated by
+ * PacketRing and overwritten in place, so copying a packet into a frame
+ * does not allocate.
+ */
+public final class BandFrame {
+
+    /**
+     * Enough for 4 EEG channels, 3 accelerometer axes or 3 battery values.
+     */
+    public static final int MAX_VALUES = 8;
+
+    MuseDataPacketType type;
+    long timestamp;
+    // System.nanoTime() when the packet reached the listener.
+    long arrivalNanos;
+    final double[] values = new double[MAX_VALUES];
+    int count;
+
+    void set(MuseDataPacketType type, long timestamp,
+             ArrayList<Double> data) {
+        int n = Math.min(data.size(), MAX_VALUES);
+        for (int i = 0; i < n; i++) {
+            values[i] = data.get(i);
+        }
+        this.type = type;
+        this.timestamp = timestamp;
+        this.count = n;
+    }
+
+    void set(MuseDataPacketType type, long timestamp,
+             double[] data, int n) {
+        n = Math.min(n, MAX_VALUES);
+        System.arraycopy(data, 0, values, 0, n);
+        this.type = type;
+        this.timestamp = timestamp;
+        this.count = n;
+    }
+
+    public MuseDataPacketType getType() {
+        return type;
+    }
+
+    /**
+     * Packet timestamp as reported by libmuse.
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * System.nanoTime() when the packet was handed over by the listener.
+     */
+    public long getArrivalNanos() {
+        return arrivalNanos;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public double get(int index) {
+        return values[index];
+    }
+}
@@ -0,0 +1,75 @@
+package driveware.com.detection;
+
+/**
+ * Fixed-capacity history of one band. Keeps the last N frames per channel
+ * plus the TP9/TP10 average in primitive arrays and overwrites the oldest
+ * entry once full, so memory stays constant during long drives.
+ * Not thread safe, owned by the detection thread.
+ */
+public final class BandHistory {
+
+    private final int capacity;
+    private final int channels;
+    private final double[][] values;
+    private final double[] average;
+    private final long[] timestamps;
+    private int next;
+    private int size;
+
+    public BandHistory(int channels, int capacity) {
+        this.capacity = capacity;
+        this.channels = channels;
+        this.values = new double[channels][capacity];
+        this.average = new double[capacity];
+        this.timestamps = new long[capacity];
+    }
+
+    void add(BandFrame frame, double avg) {
+        int n = Math.min(channels, frame.count);
+        for (int c = 0; c < n; c++) {
+            values[c][next] = frame.values[c];
+        }
+        average[next] = avg;
+        timestamps[next] = frame.timestamp;
+        next = next + 1 == capacity ? 0 : next + 1;
+        if (size < capacity) {
+            size++;
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    private int index(int age) {
+        if (age < 0 || age >= size) {
+            throw new IndexOutOfBoundsException("age " + age + ", size " + size);
+        }
+        int i = next - 1 - age;
+        return i < 0 ? i + capacity : i;
+    }
+
+    /**
+     * Channel value, age 0 is the most recent frame.
+     */
+    public double get(int channel, int age) {
+        return values[channel][index(age)];
+    }
+
+    public double getAverage(int age) {
+        return average[index(age)];
+    }
+
+    public long getTimestamp(int age) {
+        return timestamps[index(age)];
+    }
+
+    public void clear() {
+        next = 0;
+        size = 0;
+    }
+}
@@ -0,0 +1,78 @@
+package driveware.com.detection;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed-capacity ring of (packet timestamp, TP9/TP10 average) pairs for one
+ * band, written by the detection thread and copied out by the UI once per
+ * display frame.
+ *
+ * Single writer, any number of readers. Values live in AtomicLongArrays,
+ * doubles as raw long bits, so neither side allocates. The writer never
+ * waits for readers: snapshot() copies without locking and retries if the
+ * writer lapped the entries it was copying.
+ */
+public final class BandTrace {
+
+    private final AtomicLongArray timestamps;
+    private final AtomicLongArray values;
+    private final int mask;
+
+    // Number of entries ever added. Written by the detection thread only,
+    // after the slot itself, so readers that see it also see the slot.
+    private volatile long written;
+
+    /**
+     * @param capacity number of entries, rounded up to a power of two.
+     */
+    public BandTrace(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        timestamps = new AtomicLongArray(size);
+        values = new AtomicLongArray(size);
+        mask = size - 1;
+    }
+
+    void add(long timestamp, double value) {
+        long w = written;
+        int i = (int) w & mask;
+        timestamps.lazySet(i, timestamp);
+        values.lazySet(i, Double.doubleToRawLongBits(value));
+        written = w + 1;
+    }
+
+    /**
+     * Copies up to the last {@code max} entries, oldest first, into the
+     * given arrays and returns how many were copied.
+     */
+    public int snapshot(long[] timestampsOut, double[] valuesOut, int max) {
+        int capacity = mask + 1;
+        while (true) {
+            long end = written;
+            int n = (int) Math.min(Math.min(end, capacity), max);
+            long start = end - n;
+            for (int k = 0; k < n; k++) {
+                int i = (int) (start + k) & mask;
+                timestampsOut[k] = timestamps.get(i);
+                valuesOut[k] = Double.longBitsToDouble(values.get(i));
+            }
+            // The writer fills slot written & mask before publishing it,
+            // so entries from written - capacity on may have been
+            // overwritten while copying.
+            if (written - capacity < start) {
+                return n;
+            }
+        }
+    }
+
+    /**
+     * Number of entries ever added. UI can compare it with the value seen
+     * on the previous frame to skip redundant redraws.
+     */
+    public long getWritten() {
+        return written;
+    }
+
+    public int capacity() {
+        return mask + 1;
+    }
+}
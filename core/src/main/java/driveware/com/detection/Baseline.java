@@ -0,0 +1,260 @@
+package driveware.com.detection;
+
+import java.util.Locale;
+
+import com.interaxon.libmuse.Eeg;
+
+/**
+ * Per-driver resting level of every band, per channel and for the TP9/TP10
+ * average Detector scores, so thresholds can be z-scores instead of one
+ * absolute level for everyone.
+ *
+ * A new baseline calibrates first: for calibrationMicros of frame
+ * timestamps it keeps Welford's running mean and variance. After that it
+ * switches to an exponentially weighted mean and variance with the given
+ * half-life, so it follows slow drift such as electrode contact settling
+ * over a long drive. Frames seen while the detector is alarming after
+ * calibration are not learned from, or drowsiness would become the new
+ * normal. A frame is weighted for the time since the previous one, at
+ * most MAX_STEP_MICROS, so the first frame after an alarm, a headband-off
+ * period or a source switch does not stand in for the whole gap.
+ *
+ * Each update is O(1) per channel and keeps no samples. Owned by the
+ * detection thread; encode() and restore() must be called while it is
+ * not running, or from it. requestCalibration() may be called from any
+ * thread.
+ */
+public final class Baseline {
+
+    public static final long DEFAULT_CALIBRATION_MICROS = 60000000L;
+    public static final double DEFAULT_HALF_LIFE_SECONDS = 1800.0d;
+
+    /**
+     * Slot of the TP9/TP10 average, after the channels.
+     */
+    public static final int AVERAGE = Eeg.values().length;
+
+    static final int SLOTS = AVERAGE + 1;
+    // Averages needed per band before calibration can end.
+    static final int MIN_SAMPLES = 100;
+    // Keeps z-scores finite on a flat channel.
+    static final double MIN_VARIANCE = 1e-6d;
+    // A few frame intervals at 10 or 20 Hz; longer steps are gaps.
+    static final long MAX_STEP_MICROS = 500000L;
+
+    private static final int BANDS = Band.values().length;
+    private static final String FORMAT = "baseline1";
+
+    private final long calibrationMicros;
+    private final double halfLifeMicros;
+    private final double[] mean = new double[BANDS * SLOTS];
+    private final double[] variance = new double[BANDS * SLOTS];
+    private final long[] count = new long[BANDS * SLOTS];
+    private final long[] lastTimestamp = new long[BANDS];
+
+    private long calibrationStart = Long.MIN_VALUE;
+    private volatile boolean calibrated;
+    private volatile boolean recalibrate;
+    private Runnable onCalibrated;
+
+    public Baseline() {
+        this(DEFAULT_CALIBRATION_MICROS, DEFAULT_HALF_LIFE_SECONDS);
+    }
+
+    public Baseline(long calibrationMicros, double halfLifeSeconds) {
+        if (calibrationMicros < 0 || halfLifeSeconds <= 0.0d) {
+            throw new IllegalArgumentException("invalid calibration or half-life");
+        }
+        this.calibrationMicros = calibrationMicros;
+        this.halfLifeMicros = halfLifeSeconds * 1e6d;
+    }
+
+    /**
+     * Runs on the detection thread when calibration completes, e.g. to
+     * persist the result.
+     */
+    public void setOnCalibrated(Runnable onCalibrated) {
+        this.onCalibrated = onCalibrated;
+    }
+
+    /**
+     * Discards the baseline and calibrates again from the next frame.
+     */
+    public void requestCalibration() {
+        recalibrate = true;
+    }
+
+    /**
+     * Learns from one band frame and its TP9/TP10 average. NaN values are
+     * skipped. Once calibrated, nothing is learned when adapt is false;
+     * calibration assumes the driver starts out alert.
+     */
+    void update(BandFrame frame, Band band, double avg, boolean adapt) {
+        if (recalibrate) {
+            recalibrate = false;
+            reset();
+        }
+        long t = frame.timestamp;
+        if (calibrated && !adapt) {
+            lastTimestamp[band.ordinal()] = t;
+            return;
+        }
+        if (calibrationStart == Long.MIN_VALUE) {
+            calibrationStart = t;
+        }
+        int b = band.ordinal();
+        int base = b * SLOTS;
+        if (calibrated) {
+            long dt = Math.max(0L, Math.min(t - lastTimestamp[b], MAX_STEP_MICROS));
+            double w = 1.0d - Math.pow(0.5d, dt / halfLifeMicros);
+            int n = Math.min(frame.count, AVERAGE);
+            for (int c = 0; c < n; c++) {
+                adapt(base + c, frame.values[c], w);
+            }
+            adapt(base + AVERAGE, avg, w);
+        } else {
+            int n = Math.min(frame.count, AVERAGE);
+            for (int c = 0; c < n; c++) {
+                welford(base + c, frame.values[c]);
+            }
+            welford(base + AVERAGE, avg);
+            if (t - calibrationStart >= calibrationMicros && enoughSamples()) {
+                calibrated = true;
+                if (onCalibrated != null) {
+                    onCalibrated.run();
+                }
+            }
+        }
+        lastTimestamp[b] = t;
+    }
+
+    private void welford(int i, double x) {
+        if (Double.isNaN(x)) {
+            return;
+        }
+        long n = ++count[i];
+        double delta = x - mean[i];
+        mean[i] += delta / n;
+        variance[i] += (delta * (x - mean[i]) - variance[i]) / n;
+    }
+
+    private void adapt(int i, double x, double w) {
+        if (Double.isNaN(x)) {
+            return;
+        }
+        count[i]++;
+        double delta = x - mean[i];
+        mean[i] += w * delta;
+        variance[i] = (1.0d - w) * (variance[i] + w * delta * delta);
+    }
+
+    private boolean enoughSamples() {
+        for (int b = 0; b < BANDS; b++) {
+            if (count[b * SLOTS + AVERAGE] < MIN_SAMPLES) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void reset() {
+        for (int i = 0; i < mean.length; i++) {
+            mean[i] = 0.0d;
+            variance[i] = 0.0d;
+            count[i] = 0;
+        }
+        calibrationStart = Long.MIN_VALUE;
+        calibrated = false;
+    }
+
+    /**
+     * How far value is from the driver's mean of that band and slot, in
+     * standard deviations. NaN while calibrating.
+     */
+    public double zScore(Band band, int slot, double value) {
+        if (!calibrated) {
+            return Double.NaN;
+        }
+        int i = band.ordinal() * SLOTS + slot;
+        return (value - mean[i]) / Math.sqrt(Math.max(variance[i], MIN_VARIANCE));
+    }
+
+    public boolean isCalibrated() {
+        return calibrated;
+    }
+
+    public double getMean(Band band, int slot) {
+        return mean[band.ordinal() * SLOTS + slot];
+    }
+
+    public double getStddev(Band band, int slot) {
+        return Math.sqrt(variance[band.ordinal() * SLOTS + slot]);
+    }
+
+    /**
+     * The calibrated state as one line of text, for storing per headband.
+     * Null while calibrating.
+     */
+    public String encode() {
+        if (!calibrated) {
+            return null;
+        }
+        StringBuilder s = new StringBuilder(FORMAT);
+        for (int i = 0; i < mean.length; i++) {
+            s.append(' ').append(Double.toString(mean[i]))
+                    .append(' ').append(Double.toString(variance[i]))
+                    .append(' ').append(count[i]);
+        }
+        return s.toString();
+    }
+
+    /**
+     * Loads a state written by encode(), skipping calibration. Returns
+     * false, leaving this baseline unchanged, if the text is not a
+     * baseline of this layout.
+     */
+    public boolean restore(String encoded) {
+        if (encoded == null) {
+            return false;
+        }
+        String[] parts = encoded.trim().split(" ");
+        if (parts.length != 1 + 3 * mean.length || !FORMAT.equals(parts[0])) {
+            return false;
+        }
+        double[] m = new double[mean.length];
+        double[] v = new double[mean.length];
+        long[] n = new long[mean.length];
+        try {
+            for (int i = 0; i < mean.length; i++) {
+                m[i] = Double.parseDouble(parts[1 + 3 * i]);
+                v[i] = Double.parseDouble(parts[2 + 3 * i]);
+                n[i] = Long.parseLong(parts[3 + 3 * i]);
+            }
+        } catch (NumberFormatException e) {
+            return false;
+        }
+        System.arraycopy(m, 0, mean, 0, m.length);
+        System.arraycopy(v, 0, variance, 0, v.length);
+        System.arraycopy(n, 0, count, 0, n.length);
+        // The first frame adapts with dt measured from itself.
+        for (int b = 0; b < BANDS; b++) {
+            lastTimestamp[b] = Long.MAX_VALUE;
+        }
+        calibrated = true;
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        if (!calibrated) {
+            return "calibrating";
+        }
+        StringBuilder s = new StringBuilder();
+        for (Band band : Band.values()) {
+            s.append(String.format(Locale.US, "%s %.3f+-%.3f ",
+                    band.name().toLowerCase(Locale.US),
+                    getMean(band, AVERAGE), getStddev(band, AVERAGE)));
+        }
+        return s.toString().trim();
+    }
+}
@@ -0,0 +1,190 @@
+package driveware.com.detection;
+
+import java.util.concurrent.locks.LockSupport;
+
+import com.interaxon.libmuse.Eeg;
+import com.interaxon.libmuse.MuseArtifactPacket;
+import com.interaxon.libmuse.MuseDataPacket;
+import com.interaxon.libmuse.MuseDataPacketType;
+
+/**
+ * Runs a Detector on its own thread.
+ * The libmuse listener only calls offer(), which copies the packet values
+ * into a preallocated slot of a bounded ring and returns. The detection
+ * thread drains the ring and hands each frame to the Detector.
+ * Latest values are published for the UI, which is expected to poll them
+ * once per frame instead of being notified for every packet.
+ * This class has no Android dependencies.
+ */
+public class DetectionEngine implements PacketSink, Runnable {
+
+    private static final long IDLE_PARK_NANOS = 10000000L;
+
+    private final PacketRing ring;
+    private final Detector detector;
+
+    private volatile Thread thread;
+    private volatile boolean running;
+    private volatile boolean parked;
+    private volatile long processedCount;
+
+    public DetectionEngine(int capacity, DetectionListener listener) {
+        this(capacity, new Detector(listener));
+    }
+
+    public DetectionEngine(int capacity, Detector detector) {
+        this.ring = new PacketRing(capacity);
+        this.detector = detector;
+    }
+
+    public synchronized void start() {
+        if (thread != null) {
+            return;
+        }
+        running = true;
+        thread = new Thread(this, "DetectionEngine");
+        thread.start();
+    }
+
+    public synchronized void stop() {
+        Thread t = thread;
+        if (t == null) {
+            return;
+        }
+        running = false;
+        LockSupport.unpark(t);
+        try {
+            t.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        thread = null;
+    }
+
+    /**
+     * Called from the libmuse callback thread. Never blocks.
+     * Returns false if the packet was dropped because the detection
+     * thread fell behind.
+     */
+    public boolean offer(MuseDataPacket p) {
+        if (!ring.offer(p)) {
+            return false;
+        }
+        wakeUp();
+        return true;
+    }
+
+    /**
+     * Same as offer(MuseDataPacket) for artifact flags, see ArtifactGate.
+     * Must be called from the same thread as the other offers.
+     */
+    public boolean offer(MuseArtifactPacket p) {
+        if (!ring.offer(p)) {
+            return false;
+        }
+        wakeUp();
+        return true;
+    }
+
+    /**
+     * Same as offer(MuseDataPacket) for sources holding primitive values.
+     * Must be called from the same single producer thread.
+     */
+    @Override
+    public boolean offer(MuseDataPacketType type, long timestamp,
+                         double[] values, int count) {
+        if (!ring.offer(type, timestamp, values, count)) {
+            return false;
+        }
+        wakeUp();
+        return true;
+    }
+
+    /**
+     * Same as offer(MuseDataPacket) but waits for ring space instead of
+     * dropping, so nothing is counted in getDroppedPackets(). For replays
+     * and harnesses, never the libmuse callback thread.
+     */
+    public void put(MuseDataPacket p) {
+        while (ring.isFull()) {
+            Thread.yield();
+        }
+        ring.offer(p);
+        wakeUp();
+    }
+
+    /**
+     * Same as put(MuseDataPacket) for sources holding primitive values.
+     */
+    public void put(MuseDataPacketType type, long timestamp,
+                    double[] values, int count) {
+        while (ring.isFull()) {
+            Thread.yield();
+        }
+        ring.offer(type, timestamp, values, count);
+        wakeUp();
+    }
+
+    private void wakeUp() {
+        if (parked) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            BandFrame frame = ring.peek();
+            if (frame == null) {
+                parked = true;
+                if (ring.isEmpty() && running) {
+                    LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                }
+                parked = false;
+                continue;
+            }
+            detector.process(frame);
+            ring.release();
+            processedCount++;
+        }
+    }
+
+    public Detector getDetector() {
+        return detector;
+    }
+
+    public double getAlphaChannel(Eeg channel) {
+        return detector.getAlphaChannel(channel);
+    }
+
+    public double getAlphaAverage() {
+        return detector.getAlphaAverage();
+    }
+
+    public double getRatioMean() {
+        return detector.getRatioMean();
+    }
+
+    public long getUpdateCount() {
+        return detector.getUpdateCount();
+    }
+
+    public long getPublishNanos() {
+        return detector.getPublishNanos();
+    }
+
+    public BandTrace getTrace(Band band) {
+        return detector.getTrace(band);
+    }
+
+    /**
+     * Number of frames the detection thread has finished with.
+     */
+    public long getProcessedCount() {
+        return processedCount;
+    }
+
+    public long getDroppedPackets() {
+        return ring.getDropped();
+    }
+}
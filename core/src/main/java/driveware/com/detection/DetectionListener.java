@@ -0,0 +1,13 @@
+package driveware.com.detection;
+
+/**
+ * Receives detection decisions. Called from the thread running the Detector.
+ */
+public interface DetectionListener {
+    /**
+     * @param arrivalNanos  System.nanoTime() when the deciding packet
+     *                      reached the listener.
+     * @param decisionNanos System.nanoTime() when the decision was made.
+     */
+    void onAlarm(double alpha, long arrivalNanos, long decisionNanos);
+}
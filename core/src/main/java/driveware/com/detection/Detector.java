@@ -0,0 +1,349 @@
+package driveware.com.detection;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.interaxon.libmuse.Eeg;
+import com.interaxon.libmuse.MuseDataPacketType;
+
+import driveware.com.dsp.BandPowerEstimator;
+import driveware.com.metrics.LatencyMonitor;
+import driveware.com.metrics.Stage;
+
+/**
+ * Single-threaded drowsiness detection logic. Feeds the TP9/TP10 average
+ * of every relative band to DrowsinessScorer, keeps a fixed-capacity
+ * BandHistory per band and, on every alpha frame, has a
+ * DrowsinessClassifier score the Features of the frame being processed.
+ * The score goes through a DrowsinessStateMachine, which decides when to
+ * raise the alarm.
+ * ARTIFACTS frames go to an ArtifactGate, which masks the channels of band
+ * frames a blink or jaw clench contaminated before they are averaged, and
+ * band frames are dropped altogether while the headband is off. An alpha
+ * frame with every channel masked is not scored.
+ * Every band frame also updates the driver's Baseline, which turns alpha
+ * into a z-score feature once calibrated.
+ * ACCELEROMETER frames go to a HeadMotionDetector; its nod score is fused
+ * with the classifier's as independent evidence before the alarm check.
+ * When built with a BandPowerEstimator, raw EEG frames are turned into
+ * relative band frames here as well, at the estimator's hop. When EEG
+ * resumes after a pause longer than the estimator's window, e.g. a LEAN
+ * period without EEG, the estimator starts over instead of splicing old
+ * samples with new ones.
+ *
+ * process() must always be called from the same thread. Latest values are
+ * published through volatile fields so the UI can poll them.
+ * Has no Android or threading dependencies, so it can be driven directly
+ * by benchmarks and replay tools.
+ */
+public class Detector implements PacketSink {
+
+    private static final int CHANNELS = Eeg.values().length;
+    private static final int HISTORY_CAPACITY = 256;
+
+    /**
+     * Entries of every BandTrace, what a plot needs to copy them all.
+     */
+    public static final int TRACE_CAPACITY = 256;
+
+    private final DetectionListener listener;
+    private final LatencyMonitor latency;
+    private final BandPowerEstimator estimator;
+    private final DrowsinessClassifier classifier;
+    private final double[] features = new double[Features.SIZE];
+    private PacketSink bandSink;
+    private final BandHistory[] histories = new BandHistory[Band.values().length];
+    // Published for the UI, one per band with its own timestamps.
+    private final BandTrace[] traces = new BandTrace[Band.values().length];
+    private final DrowsinessScorer scorer = new DrowsinessScorer();
+    private final ArtifactGate gate = new ArtifactGate();
+    private final Baseline baseline = new Baseline();
+    private final HeadMotionDetector motion = new HeadMotionDetector();
+    private final DrowsinessStateMachine states = new DrowsinessStateMachine();
+    // Scratch frame for offer(), so synchronous callers do not allocate.
+    private final BandFrame scratch = new BandFrame();
+    // Band frames produced by the estimator, separate from scratch because
+    // offer() may be processing an EEG frame held in scratch.
+    private final BandFrame estimated = new BandFrame();
+    private long eegArrivalNanos;
+    private long lastEegTimestamp = Long.MIN_VALUE;
+    private final PacketSink estimatorOutput = new PacketSink() {
+        @Override
+        public boolean offer(MuseDataPacketType type, long timestamp,
+                             double[] values, int count) {
+            estimated.arrivalNanos = eegArrivalNanos;
+            estimated.set(type, timestamp, values, count);
+            estimatedFrames++;
+            process(estimated);
+            return true;
+        }
+    };
+
+    // Published for the UI. Doubles are stored as raw long bits.
+    private final AtomicLongArray alphaChannels = new AtomicLongArray(CHANNELS);
+    private volatile double alphaAverage;
+    private volatile double ratioMean = Double.NaN;
+    private volatile long updateCount;
+    private volatile long publishNanos;
+    private volatile double drowsyScore;
+    private volatile long estimatedFrames;
+
+    public Detector(DetectionListener listener) {
+        this(listener, new LatencyMonitor());
+    }
+
+    /**
+     * @param latency receives the DECISION stage for every band frame.
+     */
+    public Detector(DetectionListener listener, LatencyMonitor latency) {
+        this(listener, latency, null);
+    }
+
+    /**
+     * @param estimator computes band powers from EEG frames, or null to
+     *                  only score the *_RELATIVE frames libmuse sends.
+     */
+    public Detector(DetectionListener listener, LatencyMonitor latency,
+                    BandPowerEstimator estimator) {
+        this(listener, latency, estimator, new ThresholdClassifier());
+    }
+
+    /**
+     * @param classifier owned by this detector, scored on its thread.
+     */
+    public Detector(DetectionListener listener, LatencyMonitor latency,
+                    BandPowerEstimator estimator,
+                    DrowsinessClassifier classifier) {
+        this.listener = listener;
+        this.latency = latency;
+        this.estimator = estimator;
+        this.classifier = classifier;
+        for (int i = 0; i < histories.length; i++) {
+            histories[i] = new BandHistory(CHANNELS, HISTORY_CAPACITY);
+            traces[i] = new BandTrace(TRACE_CAPACITY);
+        }
+    }
+
+    /**
+     * Processes the packet immediately on the calling thread.
+     */
+    @Override
+    public boolean offer(MuseDataPacketType type, long timestamp,
+                         double[] values, int count) {
+        scratch.arrivalNanos = System.nanoTime();
+        scratch.set(type, timestamp, values, count);
+        process(scratch);
+        return true;
+    }
+
+    public void process(BandFrame frame) {
+        if (frame.type == MuseDataPacketType.EEG && estimator != null) {
+            // Band frames inherit the arrival time of the EEG packet that
+            // completed their window.
+            eegArrivalNanos = frame.arrivalNanos;
+            long last = lastEegTimestamp;
+            if (last != Long.MIN_VALUE && (frame.timestamp < last
+                    || frame.timestamp - last > estimator.getWindowMicros())) {
+                estimator.reset();
+            }
+            lastEegTimestamp = frame.timestamp;
+            estimator.add(frame.timestamp, frame.values, frame.count,
+                    estimatorOutput);
+            return;
+        }
+        if (frame.type == MuseDataPacketType.ACCELEROMETER) {
+            motion.update(frame);
+            return;
+        }
+        if (frame.type == MuseDataPacketType.ARTIFACTS) {
+            if (frame.count >= ArtifactGate.VALUES) {
+                gate.update(frame);
+            }
+            return;
+        }
+        Band band = Band.fromPacketType(frame.type);
+        if (band == null) {
+            return;
+        }
+        if (!gate.isHeadbandOn()) {
+            gate.suppressed();
+            return;
+        }
+        boolean masked = gate.mask(frame);
+        double avg = averageTemporal(frame);
+        histories[band.ordinal()].add(frame, avg);
+        scorer.update(band, avg);
+        if (!Double.isNaN(avg)) {
+            traces[band.ordinal()].add(frame.timestamp, avg);
+        }
+        boolean scored = band == Band.ALPHA && !masked;
+        double score = 0.0d;
+        if (scored) {
+            Features.fill(features, avg, scorer, gate, baseline);
+            score = classifier.score(features);
+            score = 1.0d - (1.0d - score) * (1.0d - motion.getNodScore());
+        }
+        // Frames are not learned from while the driver is deemed drowsy.
+        baseline.update(frame, band, avg,
+                drowsyScore < DrowsinessClassifier.ALARM_SCORE);
+        long decided = System.nanoTime();
+        latency.record(Stage.DECISION, decided - frame.arrivalNanos);
+        if (band == Band.ALPHA) {
+            publishAlpha(frame, avg, decided);
+            ratioMean = scorer.getRatioMean();
+        }
+        if (scored) {
+            drowsyScore = score;
+            if (states.update(frame.timestamp, score)) {
+                listener.onAlarm(avg, frame.arrivalNanos, decided);
+            }
+        }
+        if (bandSink != null) {
+            bandSink.offer(frame.type, frame.timestamp, frame.values, frame.count);
+        }
+    }
+
+    private void publishAlpha(BandFrame frame, double avg, long now) {
+        int n = Math.min(CHANNELS, frame.count);
+        for (int i = 0; i < n; i++) {
+            alphaChannels.lazySet(i, Double.doubleToRawLongBits(frame.values[i]));
+        }
+        if (!Double.isNaN(avg)) {
+            alphaAverage = avg;
+            publishNanos = now;
+            updateCount++;
+        }
+    }
+
+    /**
+     * TP9/TP10 average, skipping NaN channels. NaN if both are missing.
+     */
+    static double averageTemporal(BandFrame frame) {
+        double tp9 = frame.values[Eeg.TP9.ordinal()];
+        double tp10 = frame.values[Eeg.TP10.ordinal()];
+        int count = 0;
+        double sum = 0.0d;
+        if (!Double.isNaN(tp9)) {
+            count++;
+            sum += tp9;
+        }
+        if (!Double.isNaN(tp10)) {
+            count++;
+            sum += tp10;
+        }
+        return count > 0 ? sum / count : Double.NaN;
+    }
+
+    /**
+     * Receives every band frame after it has been scored, whether it came
+     * from libmuse or from the estimator. Called on the detection thread;
+     * set it before the engine starts.
+     */
+    public void setBandSink(PacketSink bandSink) {
+        this.bandSink = bandSink;
+    }
+
+    /**
+     * History of the given band. Only safe to read from the detection thread.
+     */
+    public BandHistory getHistory(Band band) {
+        return histories[band.ordinal()];
+    }
+
+    /**
+     * Recent averages of the given band. Safe to read from any thread.
+     */
+    public BandTrace getTrace(Band band) {
+        return traces[band.ordinal()];
+    }
+
+    /**
+     * Counters are safe to read from any thread, blink features only from
+     * the detection thread.
+     */
+    public ArtifactGate getArtifactGate() {
+        return gate;
+    }
+
+    /**
+     * Only safe to read from the detection thread, except the counters.
+     */
+    public HeadMotionDetector getHeadMotion() {
+        return motion;
+    }
+
+    /**
+     * acknowledge(), getState() and the counters are safe from any thread.
+     */
+    public DrowsinessStateMachine getStateMachine() {
+        return states;
+    }
+
+    /**
+     * Restore or request calibration before the engine starts, see Baseline.
+     */
+    public Baseline getBaseline() {
+        return baseline;
+    }
+
+    /**
+     * Only safe to read from the detection thread.
+     */
+    public DrowsinessScorer getScorer() {
+        return scorer;
+    }
+
+    /**
+     * Last relative alpha value received for the given channel.
+     */
+    public double getAlphaChannel(Eeg channel) {
+        return Double.longBitsToDouble(alphaChannels.get(channel.ordinal()));
+    }
+
+    /**
+     * Last TP9/TP10 relative alpha average.
+     */
+    public double getAlphaAverage() {
+        return alphaAverage;
+    }
+
+    /**
+     * Sliding window mean of (theta + alpha) / beta.
+     */
+    public double getRatioMean() {
+        return ratioMean;
+    }
+
+    /**
+     * Score of the last alpha frame, classifier and head nods combined.
+     */
+    public double getDrowsyScore() {
+        return drowsyScore;
+    }
+
+    /**
+     * Incremented every time a new average is published. UI can compare
+     * it with the value seen on the previous frame to skip redundant redraws.
+     */
+    public long getUpdateCount() {
+        return updateCount;
+    }
+
+    /**
+     * Band frames the estimator has produced. A caller switching to EEG
+     * can watch it to know when the estimator's window is full.
+     */
+    public long getEstimatedFrames() {
+        return estimatedFrames;
+    }
+
+    /**
+     * System.nanoTime() of the last published update, for the UI_POST stage.
+     */
+    public long getPublishNanos() {
+        return publishNanos;
+    }
+
+    public LatencyMonitor getLatency() {
+        return latency;
+    }
+}
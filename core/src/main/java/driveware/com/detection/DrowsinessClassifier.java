@@ -0,0 +1,20 @@
+package driveware.com.detection;
+
+/**
+ * Decides from a Features vector whether to raise the alarm.
+ * Called on the detection thread for every alpha frame, so implementations
+ * must be fast and should not allocate. One instance per Detector.
+ */
+public interface DrowsinessClassifier {
+
+    /**
+     * A score of this or more makes DrowsinessStateMachine suspect the
+     * driver is drowsy.
+     */
+    double ALARM_SCORE = 0.5d;
+
+    /**
+     * Score in [0, 1]. Features may contain NaN.
+     */
+    double score(double[] features);
+}
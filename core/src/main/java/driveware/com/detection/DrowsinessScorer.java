@@ -0,0 +1,173 @@
+package driveware.com.detection;
+
+/**
+ * Incremental drowsiness scoring over the five relative bands.
+ *
+ * Two signals are maintained:
+ * - the rise counters originally prototyped in DataListener: alpha and
+ *   theta rising on two consecutive packets count towards drowsiness, a
+ *   run of beta rises resets them. Unlike the prototype, every fall takes
+ *   one off a counter, so the driver is only deemed not awake while a
+ *   band keeps rising more often than it falls. On stationary noise a
+ *   consecutive rise comes every sixth packet and a fall every other one,
+ *   so the counters stay near zero;
+ * - the (theta + alpha) / beta ratio and its sliding window mean and slope,
+ *   updated on every alpha packet.
+ *
+ * Every update is O(1) and does not allocate. Owned by the detection thread.
+ */
+public final class DrowsinessScorer {
+
+    public static final int DEFAULT_WINDOW = 50;
+
+    static final int BETA_RESET_COUNT = 25;
+    static final int THETA_DROWSY_COUNT = 10;
+    static final int ALPHA_DROWSY_COUNT = 15;
+
+    private static final int BANDS = Band.values().length;
+
+    private final double[] current = new double[BANDS];
+    private final double[] previous = new double[BANDS];
+    private final double[] previous1 = new double[BANDS];
+    private final int[] received = new int[BANDS];
+    private final SlidingWindow[] bandWindows = new SlidingWindow[BANDS];
+    private final SlidingWindow ratioWindow;
+
+    private int alphaCount;
+    private int betaCount;
+    private int thetaCount;
+    private boolean awake = true;
+
+    public DrowsinessScorer() {
+        this(DEFAULT_WINDOW);
+    }
+
+    public DrowsinessScorer(int window) {
+        for (int i = 0; i < BANDS; i++) {
+            bandWindows[i] = new SlidingWindow(window);
+        }
+        ratioWindow = new SlidingWindow(window);
+    }
+
+    /**
+     * Feeds the TP9/TP10 average of a band packet. NaN values are ignored.
+     */
+    public void update(Band band, double value) {
+        if (Double.isNaN(value)) {
+            return;
+        }
+        int b = band.ordinal();
+        previous1[b] = previous[b];
+        previous[b] = current[b];
+        current[b] = value;
+        bandWindows[b].add(value);
+        if (received[b] < 3) {
+            received[b]++;
+        }
+
+        switch (band) {
+            case BETA:
+                betaCount = count(b, betaCount);
+                if (betaCount >= BETA_RESET_COUNT) {
+                    alphaCount = 0;
+                    thetaCount = 0;
+                    betaCount = 0;
+                }
+                break;
+            case ALPHA:
+                alphaCount = count(b, alphaCount);
+                updateRatio();
+                break;
+            case THETA:
+                thetaCount = count(b, thetaCount);
+                break;
+            default:
+                break;
+        }
+        awake = thetaCount <= THETA_DROWSY_COUNT && alphaCount <= ALPHA_DROWSY_COUNT;
+    }
+
+    /*
+     * One up for a second consecutive rise, one down for a fall, never
+     * below zero. Nothing counts before two previous values were received.
+     */
+    private int count(int b, int count) {
+        if (received[b] < 3) {
+            return count;
+        }
+        if (current[b] > previous[b] && previous[b] > previous1[b]) {
+            return count + 1;
+        }
+        if (current[b] < previous[b] && count > 0) {
+            return count - 1;
+        }
+        return count;
+    }
+
+    private void updateRatio() {
+        double beta = current[Band.BETA.ordinal()];
+        if (beta <= 0.0d) {
+            return;
+        }
+        double ratio = (current[Band.THETA.ordinal()]
+                + current[Band.ALPHA.ordinal()]) / beta;
+        ratioWindow.add(ratio);
+    }
+
+    public boolean isAwake() {
+        return awake;
+    }
+
+    public double getCurrent(Band band) {
+        return current[band.ordinal()];
+    }
+
+    public SlidingWindow getWindow(Band band) {
+        return bandWindows[band.ordinal()];
+    }
+
+    /**
+     * Latest (theta + alpha) / beta, NaN until beta has been received.
+     */
+    public double getRatio() {
+        return ratioWindow.latest();
+    }
+
+    public double getRatioMean() {
+        return ratioWindow.mean();
+    }
+
+    /**
+     * Ratio trend per alpha packet over the window, positive when rising.
+     */
+    public double getRatioSlope() {
+        return ratioWindow.slope();
+    }
+
+    public int getAlphaCount() {
+        return alphaCount;
+    }
+
+    public int getBetaCount() {
+        return betaCount;
+    }
+
+    public int getThetaCount() {
+        return thetaCount;
+    }
+
+    public void reset() {
+        for (int i = 0; i < BANDS; i++) {
+            current[i] = 0.0d;
+            previous[i] = 0.0d;
+            previous1[i] = 0.0d;
+            received[i] = 0;
+            bandWindows[i].clear();
+        }
+        ratioWindow.clear();
+        alphaCount = 0;
+        betaCount = 0;
+        thetaCount = 0;
+        awake = true;
+    }
+}
@@ -0,0 +1,264 @@
+package driveware.com.detection;
+
+/**
+ * Turns the score of every alpha frame into few, well-timed alarms, so a
+ * noisy score hovering around DrowsinessClassifier.ALARM_SCORE does not
+ * alarm on every frame above it.
+ *
+ * AWAKE becomes DROWSY_SUSPECT when the score reaches enterScore. The
+ * suspicion is dropped when the score falls below exitScore and confirmed
+ * as DROWSY once it has held for suspectMicros. DROWSY raises the alarm
+ * and becomes ALARMING after drowsyMicros more, and ALARMING repeats it
+ * every repeatMicros. Falling below exitScore in either goes to
+ * RECOVERING, which returns to AWAKE after recoverMicros continuously
+ * below exitScore; reaching enterScore again on the way goes straight back
+ * to DROWSY, without a new suspicion.
+ *
+ * Dwell times only count continuous evidence. When no frame came for
+ * more than maxGapMicros, e.g. frames were masked, the headband was off
+ * or reconnecting, DROWSY_SUSPECT is dismissed, DROWSY and ALARMING go to
+ * RECOVERING and RECOVERING starts its dwell over, all at the frame after
+ * the gap.
+ *
+ * acknowledge() is the driver confirming the alarm. It is taken up by the
+ * next update(): ALARMING goes to RECOVERING and no alarm is raised for
+ * acknowledgeMicros, so a driver who stays drowsy is alarmed again after
+ * that, not at once. An acknowledge while not ALARMING is ignored.
+ *
+ * Times are the timestamps of the scored frames in microseconds, so a
+ * recording replays with the alarms the phone raised. If they go back,
+ * e.g. the headband's clock restarted after a reconnect, dwell times go on
+ * from where they were. update() is O(1), does not allocate and must be
+ * called from one thread; acknowledge(), getState() and the counters may
+ * be used from any thread.
+ */
+public final class DrowsinessStateMachine {
+
+    public enum State {
+        AWAKE,
+        DROWSY_SUSPECT,
+        DROWSY,
+        ALARMING,
+        RECOVERING
+    }
+
+    /**
+     * Annotation written into a recording when the driver acknowledges, so
+     * replays can acknowledge at the same point.
+     */
+    public static final String ACKNOWLEDGED = "alarm acknowledged";
+
+    public static final double DEFAULT_ENTER_SCORE = DrowsinessClassifier.ALARM_SCORE;
+    public static final double DEFAULT_EXIT_SCORE = 0.3d;
+    public static final long DEFAULT_SUSPECT_MICROS = 1000000L;
+    public static final long DEFAULT_DROWSY_MICROS = 1000000L;
+    // AlarmPolicy escalates alarms repeated within its window.
+    public static final long DEFAULT_REPEAT_MICROS = 5000000L;
+    public static final long DEFAULT_RECOVER_MICROS = 10000000L;
+    public static final long DEFAULT_ACKNOWLEDGE_MICROS = 20000000L;
+    // Alpha frames come at 10 or 20 Hz.
+    public static final long DEFAULT_MAX_GAP_MICROS = 1000000L;
+
+    private final double enterScore;
+    private final double exitScore;
+    private final long suspectMicros;
+    private final long drowsyMicros;
+    private final long repeatMicros;
+    private final long recoverMicros;
+    private final long acknowledgeMicros;
+    private final long maxGapMicros;
+
+    private volatile State state = State.AWAKE;
+    private boolean started;
+    private long lastTimestamp;
+    // Entered the state, or in RECOVERING last above exitScore.
+    private long since;
+    private long alarmedAt;
+    private boolean muted;
+    private long mutedUntil;
+    private volatile boolean acknowledgeRequested;
+
+    private volatile long transitions;
+    private volatile long episodes;
+    private volatile long dismissed;
+    private volatile long alarms;
+    private volatile long acknowledged;
+    private volatile long gaps;
+
+    public DrowsinessStateMachine() {
+        this(DEFAULT_ENTER_SCORE, DEFAULT_EXIT_SCORE, DEFAULT_SUSPECT_MICROS,
+                DEFAULT_DROWSY_MICROS, DEFAULT_REPEAT_MICROS,
+                DEFAULT_RECOVER_MICROS, DEFAULT_ACKNOWLEDGE_MICROS,
+                DEFAULT_MAX_GAP_MICROS);
+    }
+
+    public DrowsinessStateMachine(double enterScore, double exitScore,
+                                  long suspectMicros, long drowsyMicros,
+                                  long repeatMicros, long recoverMicros,
+                                  long acknowledgeMicros, long maxGapMicros) {
+        if (exitScore > enterScore || suspectMicros < 0 || drowsyMicros < 0
+                || repeatMicros <= 0 || recoverMicros < 0 || acknowledgeMicros < 0
+                || maxGapMicros <= 0) {
+            throw new IllegalArgumentException("invalid score zone or dwell time");
+        }
+        this.enterScore = enterScore;
+        this.exitScore = exitScore;
+        this.suspectMicros = suspectMicros;
+        this.drowsyMicros = drowsyMicros;
+        this.repeatMicros = repeatMicros;
+        this.recoverMicros = recoverMicros;
+        this.acknowledgeMicros = acknowledgeMicros;
+        this.maxGapMicros = maxGapMicros;
+    }
+
+    /**
+     * Feeds the score of one frame and returns whether to sound the alarm
+     * now. A NaN score only takes up a pending acknowledge.
+     */
+    public boolean update(long timestamp, double score) {
+        if (!started) {
+            started = true;
+            since = timestamp;
+        } else if (timestamp < lastTimestamp) {
+            long shift = timestamp - lastTimestamp;
+            since += shift;
+            alarmedAt += shift;
+            mutedUntil += shift;
+        } else if (timestamp - lastTimestamp > maxGapMicros) {
+            interrupted(timestamp);
+        }
+        lastTimestamp = timestamp;
+        if (acknowledgeRequested) {
+            acknowledgeRequested = false;
+            if (state == State.ALARMING) {
+                acknowledged++;
+                muted = true;
+                mutedUntil = timestamp + acknowledgeMicros;
+                enter(State.RECOVERING, timestamp);
+            }
+        }
+        if (muted && timestamp >= mutedUntil) {
+            muted = false;
+        }
+        if (Double.isNaN(score)) {
+            return false;
+        }
+        switch (state) {
+            case AWAKE:
+                if (score >= enterScore) {
+                    enter(State.DROWSY_SUSPECT, timestamp);
+                }
+                return false;
+            case DROWSY_SUSPECT:
+                if (score < exitScore) {
+                    dismissed++;
+                    enter(State.AWAKE, timestamp);
+                } else if (timestamp - since >= suspectMicros) {
+                    episodes++;
+                    enter(State.DROWSY, timestamp);
+                }
+                return false;
+            case DROWSY:
+                if (score < exitScore) {
+                    enter(State.RECOVERING, timestamp);
+                } else if (timestamp - since >= drowsyMicros && !muted) {
+                    enter(State.ALARMING, timestamp);
+                    return alarm(timestamp);
+                }
+                return false;
+            case ALARMING:
+                if (score < exitScore) {
+                    enter(State.RECOVERING, timestamp);
+                } else if (timestamp - alarmedAt >= repeatMicros) {
+                    return alarm(timestamp);
+                }
+                return false;
+            case RECOVERING:
+                if (score >= enterScore) {
+                    enter(State.DROWSY, timestamp);
+                } else if (score >= exitScore) {
+                    since = timestamp;
+                } else if (timestamp - since >= recoverMicros) {
+                    enter(State.AWAKE, timestamp);
+                }
+                return false;
+            default:
+                return false;
+        }
+    }
+
+    private void interrupted(long timestamp) {
+        gaps++;
+        switch (state) {
+            case DROWSY_SUSPECT:
+                dismissed++;
+                enter(State.AWAKE, timestamp);
+                break;
+            case DROWSY:
+            case ALARMING:
+                enter(State.RECOVERING, timestamp);
+                break;
+            case RECOVERING:
+                since = timestamp;
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void enter(State next, long timestamp) {
+        state = next;
+        since = timestamp;
+        transitions++;
+    }
+
+    private boolean alarm(long timestamp) {
+        alarmedAt = timestamp;
+        alarms++;
+        return true;
+    }
+
+    /**
+     * Driver acknowledged the alarm, taken up by the next update().
+     */
+    public void acknowledge() {
+        acknowledgeRequested = true;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public long getTransitions() {
+        return transitions;
+    }
+
+    /**
+     * Suspicions confirmed as DROWSY.
+     */
+    public long getEpisodes() {
+        return episodes;
+    }
+
+    /**
+     * Suspicions dropped before they were confirmed.
+     */
+    public long getDismissed() {
+        return dismissed;
+    }
+
+    public long getAlarms() {
+        return alarms;
+    }
+
+    public long getAcknowledged() {
+        return acknowledged;
+    }
+
+    /**
+     * Frames that came more than maxGapMicros after the previous one.
+     */
+    public long getGaps() {
+        return gaps;
+    }
+}
@@ -0,0 +1,43 @@
+package driveware.com.detection;
+
+/**
+ * Layout of the feature vector Detector hands to its DrowsinessClassifier
+ * on every alpha frame. Training must build vectors the same way, which is
+ * why the trainer collects them from a Detector rather than recomputing.
+ */
+public final class Features {
+
+    // Indices 0-4 are the latest TP9/TP10 average of each band, by
+    // Band.ordinal(). Alpha is the value of the frame being scored and may
+    // be NaN; the other bands keep their last valid value.
+    public static final int RATIO_MEAN = Band.values().length;
+    public static final int RATIO_SLOPE = RATIO_MEAN + 1;
+    // 1 while DrowsinessScorer considers the driver awake, else 0.
+    public static final int AWAKE = RATIO_SLOPE + 1;
+    // Blinks in the last minute and their mean duration in seconds, see
+    // ArtifactGate. NaN without artifact packets.
+    public static final int BLINK_RATE = AWAKE + 1;
+    public static final int BLINK_DURATION = BLINK_RATE + 1;
+    // Alpha against the driver's Baseline in standard deviations, NaN
+    // while calibrating.
+    public static final int ALPHA_Z = BLINK_DURATION + 1;
+
+    public static final int SIZE = ALPHA_Z + 1;
+
+    private Features() {
+    }
+
+    static void fill(double[] features, double alpha, DrowsinessScorer scorer,
+                     ArtifactGate gate, Baseline baseline) {
+        for (Band band : Band.values()) {
+            features[band.ordinal()] = scorer.getCurrent(band);
+        }
+        features[Band.ALPHA.ordinal()] = alpha;
+        features[RATIO_MEAN] = scorer.getRatioMean();
+        features[RATIO_SLOPE] = scorer.getRatioSlope();
+        features[AWAKE] = scorer.isAwake() ? 1.0d : 0.0d;
+        features[BLINK_RATE] = gate.getBlinkRate();
+        features[BLINK_DURATION] = gate.getBlinkDuration();
+        features[ALPHA_Z] = baseline.zScore(Band.ALPHA, Baseline.AVERAGE, alpha);
+    }
+}
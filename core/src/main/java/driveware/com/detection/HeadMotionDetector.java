@@ -0,0 +1,195 @@
+package driveware.com.detection;
+
+import com.interaxon.libmuse.Accelerometer;
+
+/**
+ * Recognises head nods from ACCELEROMETER frames, the slow droop of the
+ * head followed by the jerk of catching it that comes with a micro-sleep.
+ *
+ * UP_DOWN and FORWARD_BACKWARD are high-pass filtered to remove gravity
+ * and the driver's posture, and the jerk (rate of change of the filtered
+ * acceleration vector) is tracked alongside. A nod is a filtered excursion above
+ * DROOP_THRESHOLD that lasts MIN_DROOP_MICROS to MAX_DROOP_MICROS with low
+ * jerk and ends with a jerk above JERK_THRESHOLD. Road bumps are jerks
+ * without a droop, turning the head is a droop that returns smoothly, so
+ * neither counts.
+ *
+ * getNodScore() grows by NOD_WEIGHT per nod in the last minute, so a single
+ * nod only tips a borderline EEG score over the alarm level while repeated
+ * nods raise it alone. Detector fuses the two as independent evidence.
+ *
+ * Accelerometer frames arrive several times faster than band frames:
+ * update() is O(1) on primitive fields and does not allocate. Owned by the
+ * detection thread.
+ */
+public final class HeadMotionDetector {
+
+    // Accelerometer values are in milli-g.
+    static final double CUTOFF_HZ = 0.3d;
+    static final double DROOP_THRESHOLD = 120.0d;
+    // Milli-g per second.
+    static final double JERK_THRESHOLD = 2500.0d;
+    static final long MIN_DROOP_MICROS = 300000L;
+    static final long MAX_DROOP_MICROS = 3000000L;
+    static final long REFRACTORY_MICROS = 1000000L;
+    static final long DEFAULT_SAMPLE_MICROS = 20000L;
+    static final long RATE_WINDOW_MICROS = 60000000L;
+    static final int MAX_NODS = 32;
+    static final double NOD_WEIGHT = 0.4d;
+
+    private static final int IDLE = 0;
+    private static final int DROOPING = 1;
+    private static final int REFRACTORY = 2;
+
+    private static final int UP_DOWN = Accelerometer.UP_DOWN.ordinal();
+    private static final int FORWARD_BACKWARD = Accelerometer.FORWARD_BACKWARD.ordinal();
+
+    private final double rc = 1.0d / (2.0d * Math.PI * CUTOFF_HZ);
+
+    private boolean primed;
+    private long lastTimestamp;
+    private double rawUpDown;
+    private double rawForward;
+    private double upDown;
+    private double forward;
+    private double magnitude;
+    private double jerk;
+
+    private int state = IDLE;
+    private long stateSince;
+
+    private final long[] nodTimes = new long[MAX_NODS];
+    private int nodHead;
+    private int nodCount;
+
+    private volatile long nods;
+    private volatile long jerks;
+
+    void update(BandFrame frame) {
+        if (frame.count <= Math.max(UP_DOWN, FORWARD_BACKWARD)) {
+            return;
+        }
+        double ud = frame.values[UP_DOWN];
+        double fb = frame.values[FORWARD_BACKWARD];
+        if (Double.isNaN(ud) || Double.isNaN(fb)) {
+            return;
+        }
+        update(frame.timestamp, ud, fb);
+    }
+
+    /**
+     * Feeds one accelerometer sample in milli-g.
+     */
+    public void update(long timestamp, double upDownValue, double forwardValue) {
+        if (!primed) {
+            primed = true;
+            lastTimestamp = timestamp;
+            rawUpDown = upDownValue;
+            rawForward = forwardValue;
+            return;
+        }
+        long dtMicros = timestamp - lastTimestamp;
+        if (dtMicros <= 0 || dtMicros > 10 * DEFAULT_SAMPLE_MICROS) {
+            // Out of order or after a gap: keep filtering at the nominal rate.
+            dtMicros = DEFAULT_SAMPLE_MICROS;
+        }
+        double dt = dtMicros / 1e6d;
+        double a = rc / (rc + dt);
+        double nextUpDown = a * (upDown + upDownValue - rawUpDown);
+        double nextForward = a * (forward + forwardValue - rawForward);
+        double dUpDown = nextUpDown - upDown;
+        double dForward = nextForward - forward;
+        jerk = Math.sqrt(dUpDown * dUpDown + dForward * dForward) / dt;
+        upDown = nextUpDown;
+        forward = nextForward;
+        magnitude = Math.sqrt(upDown * upDown + forward * forward);
+        rawUpDown = upDownValue;
+        rawForward = forwardValue;
+        lastTimestamp = timestamp;
+        if (jerk > JERK_THRESHOLD) {
+            jerks++;
+        }
+        step(timestamp);
+        expireNods(timestamp);
+    }
+
+    private void step(long t) {
+        switch (state) {
+            case IDLE:
+                if (magnitude > DROOP_THRESHOLD && jerk <= JERK_THRESHOLD) {
+                    state = DROOPING;
+                    stateSince = t;
+                }
+                break;
+            case DROOPING:
+                long held = t - stateSince;
+                if (jerk > JERK_THRESHOLD) {
+                    if (held >= MIN_DROOP_MICROS) {
+                        addNod(t);
+                    }
+                    state = REFRACTORY;
+                    stateSince = t;
+                } else if (held > MAX_DROOP_MICROS
+                        || magnitude < DROOP_THRESHOLD / 2.0d) {
+                    state = IDLE;
+                }
+                break;
+            default:
+                if (t - stateSince >= REFRACTORY_MICROS) {
+                    state = IDLE;
+                }
+                break;
+        }
+    }
+
+    private void addNod(long t) {
+        if (nodCount == MAX_NODS) {
+            nodHead = (nodHead + 1) % MAX_NODS;
+            nodCount--;
+        }
+        nodTimes[(nodHead + nodCount) % MAX_NODS] = t;
+        nodCount++;
+        nods++;
+    }
+
+    private void expireNods(long t) {
+        while (nodCount > 0 && t - nodTimes[nodHead] >= RATE_WINDOW_MICROS) {
+            nodHead = (nodHead + 1) % MAX_NODS;
+            nodCount--;
+        }
+    }
+
+    /**
+     * Drowsiness evidence from nods in the last minute, 0 to 1.
+     * Only safe to read from the detection thread.
+     */
+    public double getNodScore() {
+        return Math.min(1.0d, nodCount * NOD_WEIGHT);
+    }
+
+    /**
+     * Nods in the last minute. Only safe to read from the detection thread.
+     */
+    public int getRecentNods() {
+        return nodCount;
+    }
+
+    /**
+     * High-pass filtered head acceleration, in milli-g.
+     * Only safe to read from the detection thread.
+     */
+    public double getMagnitude() {
+        return magnitude;
+    }
+
+    public long getNods() {
+        return nods;
+    }
+
+    /**
+     * Samples whose jerk exceeded JERK_THRESHOLD, nods or not.
+     */
+    public long getJerks() {
+        return jerks;
+    }
+}
@@ -0,0 +1,161 @@
+package driveware.com.detection;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.interaxon.libmuse.MuseArtifactPacket;
+import com.interaxon.libmuse.MuseDataPacket;
+import com.interaxon.libmuse.MuseDataPacketType;
+
+/**
+ * Bounded single-producer/single-consumer ring buffer used to hand packets
+ * from the libmuse callback thread to the detection thread.
+ * Only one thread may call offer() and only one thread may call peek()
+ * and release().
+ * Slots are preallocated BandFrames: offer() copies the packet values into
+ * the next free slot once and the consumer reads them in place, so nothing
+ * is allocated per packet.
+ * offer() never blocks: when the ring is full the packet is dropped and
+ * counted, so the libmuse callback always returns in constant time.
+ * Producers that would rather wait, e.g. replays, check isFull() first,
+ * which does not count.
+ */
+final class PacketRing {
+
+    private final BandFrame[] slots;
+    private final int mask;
+
+    // Next slot to read. Written by consumer only.
+    private final AtomicLong head = new AtomicLong();
+    // Next slot to write. Written by producer only.
+    private final AtomicLong tail = new AtomicLong();
+
+    // Producer's last seen value of head, saves a volatile read per offer.
+    private long cachedHead;
+    // Consumer's last seen value of tail.
+    private long cachedTail;
+    // Producer's last packet timestamp, stamps artifact packets.
+    private long lastTimestamp;
+    private final double[] artifactValues = new double[ArtifactGate.VALUES];
+
+    // Written by producer only.
+    private volatile long dropped;
+
+    /**
+     * @param capacity number of slots, rounded up to a power of two.
+     */
+    PacketRing(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        slots = new BandFrame[size];
+        for (int i = 0; i < size; i++) {
+            slots[i] = new BandFrame();
+        }
+        mask = size - 1;
+    }
+
+    /**
+     * Producer side. Returns false if the ring is full.
+     */
+    boolean offer(MuseDataPacket p) {
+        BandFrame frame = claim();
+        if (frame == null) {
+            return false;
+        }
+        frame.arrivalNanos = System.nanoTime();
+        frame.set(p.getPacketType(), p.getTimestamp(), p.getValues());
+        lastTimestamp = p.getTimestamp();
+        publish();
+        return true;
+    }
+
+    /**
+     * Producer side. Artifact packets carry no timestamp, so the frame
+     * gets the one of the last packet offered before it.
+     */
+    boolean offer(MuseArtifactPacket p) {
+        artifactValues[ArtifactGate.HEADBAND_ON] = p.getHeadbandOn() ? 1.0d : 0.0d;
+        artifactValues[ArtifactGate.BLINK] = p.getBlink() ? 1.0d : 0.0d;
+        artifactValues[ArtifactGate.JAW_CLENCH] = p.getJawClench() ? 1.0d : 0.0d;
+        return offer(MuseDataPacketType.ARTIFACTS, lastTimestamp,
+                artifactValues, ArtifactGate.VALUES);
+    }
+
+    /**
+     * Producer side, for sources that already hold primitive values.
+     */
+    boolean offer(MuseDataPacketType type, long timestamp,
+                  double[] values, int count) {
+        BandFrame frame = claim();
+        if (frame == null) {
+            return false;
+        }
+        frame.arrivalNanos = System.nanoTime();
+        frame.set(type, timestamp, values, count);
+        lastTimestamp = timestamp;
+        publish();
+        return true;
+    }
+
+    /**
+     * Producer side. Whether offer() would drop now. Once false it stays
+     * false until the producer offers.
+     */
+    boolean isFull() {
+        long t = tail.get();
+        if (t - cachedHead >= slots.length) {
+            cachedHead = head.get();
+        }
+        return t - cachedHead >= slots.length;
+    }
+
+    private BandFrame claim() {
+        long t = tail.get();
+        if (t - cachedHead >= slots.length) {
+            cachedHead = head.get();
+            if (t - cachedHead >= slots.length) {
+                dropped++;
+                return null;
+            }
+        }
+        return slots[(int) t & mask];
+    }
+
+    private void publish() {
+        // Full volatile store: pairs with the consumer's parked flag so
+        // a packet published right before the consumer parks is not missed.
+        tail.set(tail.get() + 1);
+    }
+
+    /**
+     * Consumer side. Returns the oldest unread frame, or null if the ring
+     * is empty. The frame stays valid until release() is called.
+     */
+    BandFrame peek() {
+        long h = head.get();
+        if (h >= cachedTail) {
+            cachedTail = tail.get();
+            if (h >= cachedTail) {
+                return null;
+            }
+        }
+        return slots[(int) h & mask];
+    }
+
+    /**
+     * Consumer side. Hands the frame returned by peek() back to the producer.
+     */
+    void release() {
+        head.lazySet(head.get() + 1);
+    }
+
+    boolean isEmpty() {
+        return head.get() >= tail.get();
+    }
+
+    int capacity() {
+        return slots.length;
+    }
+
+    long getDropped() {
+        return dropped;
+    }
+}
@@ -0,0 +1,18 @@
+package driveware.com.detection;
+
+import com.interaxon.libmuse.MuseDataPacketType;
+
+/**
+ * Anything packets can be pushed into: the threaded DetectionEngine, the
+ * synchronous Detector, or a recorder. Lets plain-JVM sources such as the
+ * synthetic generator drive the same code as the libmuse listener.
+ */
+public interface PacketSink {
+
+    /**
+     * Returns false if the packet was not accepted.
+     * values is only read during the call and may be reused by the caller.
+     */
+    boolean offer(MuseDataPacketType type, long timestamp,
+                  double[] values, int count);
+}
@@ -0,0 +1,108 @@
+package driveware.com.detection;
+
+/**
+ * Fixed-size sliding window over a stream of doubles keeping running sums,
+ * so mean and least-squares slope are available in O(1) per sample without
+ * rescanning the window.
+ * Running sums are rebuilt from the window once per full turn of the ring
+ * to stop floating point drift, which is still O(1) amortised.
+ * Not thread safe.
+ */
+public final class SlidingWindow {
+
+    private final double[] samples;
+    private final int capacity;
+    private int next;
+    private int size;
+    private int sinceRebuild;
+
+    // Sum of y over the window.
+    private double sum;
+    // Sum of i * y, i = 0 for the oldest sample.
+    private double weightedSum;
+
+    public SlidingWindow(int capacity) {
+        if (capacity < 2) {
+            throw new IllegalArgumentException("capacity must be at least 2");
+        }
+        this.capacity = capacity;
+        this.samples = new double[capacity];
+    }
+
+    public void add(double y) {
+        if (size < capacity) {
+            weightedSum += size * y;
+            sum += y;
+            size++;
+        } else {
+            double oldest = samples[next];
+            // Every remaining sample moves one position towards the start.
+            weightedSum -= sum - oldest;
+            weightedSum += (capacity - 1) * y;
+            sum += y - oldest;
+        }
+        samples[next] = y;
+        next = next + 1 == capacity ? 0 : next + 1;
+        if (++sinceRebuild == capacity) {
+            rebuild();
+        }
+    }
+
+    private void rebuild() {
+        sinceRebuild = 0;
+        double s = 0.0d;
+        double ws = 0.0d;
+        int start = size < capacity ? 0 : next;
+        for (int i = 0; i < size; i++) {
+            int index = start + i;
+            if (index >= capacity) {
+                index -= capacity;
+            }
+            s += samples[index];
+            ws += i * samples[index];
+        }
+        sum = s;
+        weightedSum = ws;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isFull() {
+        return size == capacity;
+    }
+
+    public double latest() {
+        if (size == 0) {
+            return Double.NaN;
+        }
+        return samples[next == 0 ? capacity - 1 : next - 1];
+    }
+
+    public double mean() {
+        return size == 0 ? Double.NaN : sum / size;
+    }
+
+    /**
+     * Least-squares slope of the window per sample. NaN with fewer than
+     * two samples.
+     */
+    public double slope() {
+        if (size < 2) {
+            return Double.NaN;
+        }
+        double n = size;
+        double sx = n * (n - 1) / 2;
+        double sxx = (n - 1) * n * (2 * n - 1) / 6;
+        return (n * weightedSum - sx * sum) / (n * sxx - sx * sx);
+    }
+
+    public void clear() {
+        next = 0;
+        size = 0;
+        sinceRebuild = 0;
+        sum = 0.0d;
+        weightedSum = 0.0d;
+    }
+}
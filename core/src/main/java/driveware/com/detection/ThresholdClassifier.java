@@ -0,0 +1,24 @@
+package driveware.com.detection;
+
+/**
+ * The original hand-tuned rule: alarm when relative alpha is high or
+ * DrowsinessScorer's rise counters say the driver is no longer awake.
+ * Alpha is high when it is ALPHA_Z_THRESHOLD standard deviations above the
+ * driver's Baseline, or above ALPHA_THRESHOLD while that is calibrating.
+ * Used until a trained model is installed.
+ */
+public final class ThresholdClassifier implements DrowsinessClassifier {
+
+    public static final double ALPHA_THRESHOLD = 0.4;
+    public static final double ALPHA_Z_THRESHOLD = 2.0;
+
+    @Override
+    public double score(double[] features) {
+        double z = features[Features.ALPHA_Z];
+        boolean high = Double.isNaN(z)
+                ? features[Band.ALPHA.ordinal()] > ALPHA_THRESHOLD
+                : z > ALPHA_Z_THRESHOLD;
+        boolean drowsy = high || features[Features.AWAKE] == 0.0d;
+        return drowsy ? 1.0d : 0.0d;
+    }
+}
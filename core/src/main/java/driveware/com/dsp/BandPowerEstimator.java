@@ -0,0 +1,216 @@
+package driveware.com.dsp;
+
+import com.interaxon.libmuse.Eeg;
+
+import driveware.com.detection.Band;
+import driveware.com.detection.PacketSink;
+
+/**
+ * Computes relative band powers from raw EEG samples, as a faster
+ * alternative to waiting for libmuse's *_RELATIVE packets.
+ *
+ * Keeps the last window samples of TP9/FP1/FP2/TP10 in circular buffers.
+ * Every hop samples each channel's window is mean-removed, Hamming
+ * windowed and transformed. Power is summed over the FFT bins of each
+ * Band and divided by the sum over all bands, the way libmuse derives
+ * relative from absolute band powers. Channels are transformed in pairs,
+ * packed as the real and imaginary parts of one complex FFT, so four
+ * channels cost two transforms.
+ *
+ * With libmuse's own settings (256 samples at 220 Hz, hop 22) output comes
+ * at the same 10 Hz; a smaller hop gives a faster detection cadence.
+ * Each hop's ALPHA packet is emitted after the other bands, so the
+ * Detector scores it against the same hop's beta and theta.
+ * A channel that had a NaN sample anywhere in the window reports NaN.
+ * After a pause in the EEG stream, call reset() so that no window splices
+ * old samples with new ones.
+ * add() does not allocate. Not thread safe.
+ */
+public final class BandPowerEstimator {
+
+    public static final double MUSE_SAMPLE_RATE = 220.0d;
+    public static final int DEFAULT_WINDOW = 256;
+    public static final int DEFAULT_HOP = 22;
+
+    private static final int CHANNELS = Eeg.values().length;
+    private static final Band[] BANDS = Band.values();
+    private static final Band[] EMIT_ORDER = emitOrder();
+
+    private final int window;
+    private final int mask;
+    private final int hop;
+    private final long windowMicros;
+    private final Fft fft;
+    private final double[] hamming;
+    // FFT bins of each band, firstBin inclusive, lastBin exclusive.
+    private final int[] firstBin = new int[BANDS.length];
+    private final int[] lastBin = new int[BANDS.length];
+
+    private final double[][] samples;
+    // Sample index of the latest NaN per channel.
+    private final long[] lastNaN = new long[CHANNELS];
+    private final double[] re;
+    private final double[] im;
+    private final double[][] power = new double[BANDS.length][CHANNELS];
+    private final double[] out = new double[CHANNELS];
+
+    private long received;
+    private int sinceHop;
+
+    public BandPowerEstimator() {
+        this(MUSE_SAMPLE_RATE, DEFAULT_WINDOW, DEFAULT_HOP);
+    }
+
+    /**
+     * @param window FFT size in samples, a power of two.
+     * @param hop    samples between two outputs, 1 to window.
+     */
+    public BandPowerEstimator(double sampleRate, int window, int hop) {
+        if (hop < 1 || hop > window) {
+            throw new IllegalArgumentException("hop " + hop + ", window " + window);
+        }
+        this.fft = new Fft(window);
+        this.window = window;
+        this.mask = window - 1;
+        this.hop = hop;
+        this.windowMicros = (long) (window * 1e6d / sampleRate);
+        hamming = new double[window];
+        for (int i = 0; i < window; i++) {
+            hamming[i] = 0.54d - 0.46d * Math.cos(2.0d * Math.PI * i / (window - 1));
+        }
+        double binHz = sampleRate / window;
+        for (int b = 0; b < BANDS.length; b++) {
+            firstBin[b] = Math.max(1, (int) Math.ceil(BANDS[b].getLowHz() / binHz));
+            lastBin[b] = Math.min(window / 2, (int) Math.ceil(BANDS[b].getHighHz() / binHz));
+        }
+        samples = new double[CHANNELS][window];
+        re = new double[window];
+        im = new double[window];
+        reset();
+    }
+
+    /**
+     * Forgets every sample; nothing is emitted until the window has filled
+     * again.
+     */
+    public void reset() {
+        received = 0;
+        sinceHop = 0;
+        for (int c = 0; c < CHANNELS; c++) {
+            lastNaN[c] = -window;
+        }
+    }
+
+    /**
+     * Adds one EEG packet, one sample per channel. Once the window is full,
+     * every hop samples emits one *_RELATIVE packet per band into the sink,
+     * stamped with this packet's timestamp.
+     *
+     * @return true if band packets were emitted.
+     */
+    public boolean add(long timestamp, double[] values, int count,
+                       PacketSink sink) {
+        int slot = (int) received & mask;
+        for (int c = 0; c < CHANNELS; c++) {
+            double v = c < count ? values[c] : Double.NaN;
+            if (Double.isNaN(v)) {
+                lastNaN[c] = received;
+                v = 0.0d;
+            }
+            samples[c][slot] = v;
+        }
+        received++;
+        if (received < window) {
+            return false;
+        }
+        if (received > window && ++sinceHop < hop) {
+            return false;
+        }
+        sinceHop = 0;
+        for (int c = 0; c < CHANNELS; c += 2) {
+            transformPair(c, Math.min(c + 1, CHANNELS - 1));
+        }
+        emit(timestamp, sink);
+        return true;
+    }
+
+    private void transformPair(int a, int b) {
+        double[] sa = samples[a];
+        double[] sb = samples[b];
+        double meanA = 0.0d;
+        double meanB = 0.0d;
+        for (int i = 0; i < window; i++) {
+            meanA += sa[i];
+            meanB += sb[i];
+        }
+        meanA /= window;
+        meanB /= window;
+        // Oldest sample is the one add() overwrites next.
+        int oldest = (int) received & mask;
+        for (int i = 0; i < window; i++) {
+            int j = (oldest + i) & mask;
+            re[i] = (sa[j] - meanA) * hamming[i];
+            im[i] = (sb[j] - meanB) * hamming[i];
+        }
+        fft.transform(re, im);
+        // Split Z = A + iB back into the spectra of the two real inputs:
+        // A[k] = (Z[k] + conj Z[N-k]) / 2, B[k] = (Z[k] - conj Z[N-k]) / 2i.
+        for (int band = 0; band < BANDS.length; band++) {
+            double pa = 0.0d;
+            double pb = 0.0d;
+            for (int k = firstBin[band]; k < lastBin[band]; k++) {
+                int n = window - k;
+                double sumRe = re[k] + re[n];
+                double difRe = re[k] - re[n];
+                double sumIm = im[k] + im[n];
+                double difIm = im[k] - im[n];
+                pa += sumRe * sumRe + difIm * difIm;
+                pb += sumIm * sumIm + difRe * difRe;
+            }
+            power[band][a] = pa;
+            power[band][b] = pb;
+        }
+    }
+
+    private static Band[] emitOrder() {
+        Band[] order = new Band[BANDS.length];
+        int i = 0;
+        for (Band band : BANDS) {
+            if (band != Band.ALPHA) {
+                order[i++] = band;
+            }
+        }
+        order[i] = Band.ALPHA;
+        return order;
+    }
+
+    private void emit(long timestamp, PacketSink sink) {
+        for (Band emitted : EMIT_ORDER) {
+            int band = emitted.ordinal();
+            for (int c = 0; c < CHANNELS; c++) {
+                double total = 0.0d;
+                for (int t = 0; t < BANDS.length; t++) {
+                    total += power[t][c];
+                }
+                boolean valid = received - lastNaN[c] > window && total > 0.0d;
+                out[c] = valid ? power[band][c] / total : Double.NaN;
+            }
+            sink.offer(emitted.getRelativeType(), timestamp, out, CHANNELS);
+        }
+    }
+
+    public int getWindow() {
+        return window;
+    }
+
+    public int getHop() {
+        return hop;
+    }
+
+    /**
+     * Length of the window in microseconds at the sample rate.
+     */
+    public long getWindowMicros() {
+        return windowMicros;
+    }
+}
@@ -0,0 +1,107 @@
+package driveware.com.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed-bucket log-linear histogram of nanosecond latencies, in the spirit
+ * of HdrHistogram: values below 32 ns get their own bucket, above that each
+ * power of two is split into 16 buckets, so every recorded value is known
+ * to within about 6%. Values above 2^40 ns (18 minutes) are clamped.
+ *
+ * record() does not allocate. Each histogram must have a single writer
+ * thread; any thread may read percentiles, which are then approximate
+ * while recording is in progress.
+ */
+public final class LatencyHistogram {
+
+    private static final int LINEAR = 32;
+    private static final int SUB_BUCKETS = 16;
+    private static final int SUB_SHIFT = 4;
+    private static final int MAX_MSB = 40;
+    private static final int BUCKETS =
+            LINEAR + SUB_BUCKETS * (MAX_MSB - SUB_SHIFT);
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private volatile long count;
+    private volatile long max;
+
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        int index = index(nanos);
+        counts.lazySet(index, counts.get(index) + 1);
+        if (nanos > max) {
+            max = nanos;
+        }
+        count++;
+    }
+
+    static int index(long value) {
+        if (value < LINEAR) {
+            return (int) value;
+        }
+        int msb = 63 - Long.numberOfLeadingZeros(value);
+        if (msb >= MAX_MSB) {
+            return BUCKETS - 1;
+        }
+        int shift = msb - SUB_SHIFT;
+        int sub = (int) (value >>> shift) - SUB_BUCKETS;
+        return LINEAR + (msb - SUB_SHIFT - 1) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * Highest value that falls into the bucket.
+     */
+    static long highestEquivalent(int index) {
+        if (index < LINEAR) {
+            return index;
+        }
+        int k = index - LINEAR;
+        int msb = SUB_SHIFT + 1 + k / SUB_BUCKETS;
+        long m = SUB_BUCKETS + k % SUB_BUCKETS;
+        int shift = msb - SUB_SHIFT;
+        return ((m + 1) << shift) - 1;
+    }
+
+    /**
+     * @param percentile 0 to 100.
+     */
+    public long getValueAtPercentile(double percentile) {
+        long total = count;
+        if (total == 0) {
+            return 0;
+        }
+        long target = (long) Math.ceil(percentile / 100.0d * total);
+        if (target < 1) {
+            target = 1;
+        }
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= target) {
+                return Math.min(highestEquivalent(i), max);
+            }
+        }
+        return max;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    /**
+     * Must be called by the writer thread.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.lazySet(i, 0);
+        }
+        max = 0;
+        count = 0;
+    }
+}
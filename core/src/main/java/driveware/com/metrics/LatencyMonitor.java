@@ -0,0 +1,47 @@
+package driveware.com.metrics;
+
+import java.util.Locale;
+
+/**
+ * One LatencyHistogram per Stage. Each stage must be recorded from a
+ * single thread: DECISION, AUDIO_START and END_TO_END from the detection
+ * thread, UI_POST from the UI thread.
+ */
+public class LatencyMonitor {
+
+    private final LatencyHistogram[] histograms =
+            new LatencyHistogram[Stage.values().length];
+
+    public LatencyMonitor() {
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new LatencyHistogram();
+        }
+    }
+
+    public void record(Stage stage, long nanos) {
+        histograms[stage.ordinal()].record(nanos);
+    }
+
+    public LatencyHistogram get(Stage stage) {
+        return histograms[stage.ordinal()];
+    }
+
+    /**
+     * p50/p99/max per stage in microseconds, for logs and annotations.
+     */
+    public String summary() {
+        StringBuilder sb = new StringBuilder();
+        for (Stage stage : Stage.values()) {
+            LatencyHistogram h = get(stage);
+            if (sb.length() > 0) {
+                sb.append("; ");
+            }
+            sb.append(stage.name().toLowerCase(Locale.US))
+                    .append(" n=").append(h.getCount())
+                    .append(" p50=").append(h.getValueAtPercentile(50) / 1000)
+                    .append(" p99=").append(h.getValueAtPercentile(99) / 1000)
+                    .append(" max=").append(h.getMax() / 1000);
+        }
+        return sb.append(" (us)").toString();
+    }
+}
@@ -0,0 +1,15 @@
+package driveware.com.metrics;
+
+/**
+ * Intervals measured on the way from a libmuse packet to the alarm sound.
+ */
+public enum Stage {
+    /** Listener entry to detector decision, on the detection thread. */
+    DECISION,
+    /** Detector publishing a value to the UI drawing it. */
+    UI_POST,
+    /** Detector decision to the alarm sound being started. */
+    AUDIO_START,
+    /** Listener entry to the alarm sound being started. */
+    END_TO_END
+}
@@ -0,0 +1,242 @@
+package driveware.com.recording;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import com.interaxon.libmuse.MuseDataPacket;
+import com.interaxon.libmuse.MuseFileWriter;
+
+/**
+ * Records packets to .muse files on a dedicated writer thread.
+ *
+ * The libmuse callback thread only calls offer(), which puts the packet
+ * reference into a bounded lock-free queue and returns; when the writer
+ * falls behind packets are dropped and counted rather than stalling data
+ * delivery. The writer thread drains the queue in batches, flushes when
+ * the libmuse buffer exceeds flushBytes or flushIntervalMillis has passed,
+ * and rotates to a new file once the current one exceeds maxFileBytes or
+ * maxFileMillis.
+ *
+ * Annotations may come from any thread and take a separate queue. The
+ * heading, if set, is annotated first in every file, for state a replay
+ * of any one file needs from its start.
+ */
+public class RecordingSink implements Runnable {
+
+    public static final int DEFAULT_CAPACITY = 4096;
+    public static final int DEFAULT_FLUSH_BYTES = 64 * 1024;
+    public static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 1000;
+    public static final long DEFAULT_MAX_FILE_BYTES = 64L * 1024 * 1024;
+    public static final long DEFAULT_MAX_FILE_MILLIS = 60L * 60 * 1000;
+
+    private static final int BATCH = 256;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(20);
+    private static final int ANNOTATION_ID = 1;
+    private static final int PACKET_ID = 1;
+
+    private final WriterFactory factory;
+    private final SpscQueue<MuseDataPacket> queue;
+    private final ConcurrentLinkedQueue<String> annotations =
+            new ConcurrentLinkedQueue<String>();
+    private final int flushBytes;
+    private final long flushIntervalNanos;
+    private final long maxFileBytes;
+    private final long maxFileNanos;
+
+    private volatile Thread thread;
+    private volatile boolean running;
+    private volatile String heading;
+
+    // Writer thread state.
+    private MuseFileWriter writer;
+    private long fileBytes;
+    private long fileStartNanos;
+    private long lastFlushNanos;
+
+    // Written by the producer only.
+    private volatile long dropped;
+    // Written by the writer thread only.
+    private volatile long written;
+    private volatile long flushes;
+    private volatile int files;
+
+    public RecordingSink(WriterFactory factory) {
+        this(factory, DEFAULT_CAPACITY, DEFAULT_FLUSH_BYTES,
+                DEFAULT_FLUSH_INTERVAL_MILLIS, DEFAULT_MAX_FILE_BYTES,
+                DEFAULT_MAX_FILE_MILLIS);
+    }
+
+    public RecordingSink(WriterFactory factory, int capacity, int flushBytes,
+                         long flushIntervalMillis, long maxFileBytes,
+                         long maxFileMillis) {
+        this.factory = factory;
+        this.queue = new SpscQueue<MuseDataPacket>(capacity);
+        this.flushBytes = flushBytes;
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis);
+        this.maxFileBytes = maxFileBytes;
+        this.maxFileNanos = TimeUnit.MILLISECONDS.toNanos(maxFileMillis);
+    }
+
+    public synchronized void start() {
+        if (thread != null) {
+            return;
+        }
+        running = true;
+        thread = new Thread(this, "RecordingSink");
+        thread.start();
+    }
+
+    /**
+     * Writes everything still queued, closes the current file and stops
+     * the writer thread.
+     */
+    public synchronized void stop() {
+        Thread t = thread;
+        if (t == null) {
+            return;
+        }
+        running = false;
+        LockSupport.unpark(t);
+        try {
+            t.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        thread = null;
+    }
+
+    /**
+     * Called from the libmuse callback thread. Never blocks.
+     */
+    public boolean offer(MuseDataPacket p) {
+        if (!queue.offer(p)) {
+            dropped++;
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Sets the annotation written at the start of every file opened from
+     * now on, the first one too if set before start(). Safe from any
+     * thread.
+     */
+    public void setHeading(String text) {
+        heading = text;
+    }
+
+    /**
+     * Adds an annotation to the recording. Safe from any thread.
+     */
+    public void annotate(String text) {
+        annotations.offer(text);
+    }
+
+    @Override
+    public void run() {
+        openNext();
+        while (running) {
+            if (drain() == 0) {
+                maybeFlush(System.nanoTime());
+                LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+            }
+        }
+        while (drain() > 0) {
+            // Write whatever arrived before stop().
+        }
+        closeCurrent();
+    }
+
+    private int drain() {
+        int n = 0;
+        String annotation;
+        while ((annotation = annotations.poll()) != null) {
+            writer.addAnnotationString(ANNOTATION_ID, annotation);
+        }
+        MuseDataPacket p;
+        while (n < BATCH && (p = queue.poll()) != null) {
+            writer.addDataPacket(PACKET_ID, p);
+            n++;
+        }
+        if (n > 0) {
+            written += n;
+            long now = System.nanoTime();
+            if (writer.getBufferedMessagesSize() >= flushBytes) {
+                flush(now);
+            } else {
+                maybeFlush(now);
+            }
+            if (fileBytes >= maxFileBytes || now - fileStartNanos >= maxFileNanos) {
+                closeCurrent();
+                openNext();
+            }
+        }
+        return n;
+    }
+
+    private void maybeFlush(long now) {
+        if (now - lastFlushNanos >= flushIntervalNanos
+                && writer.getBufferredMessagesCount() > 0) {
+            flush(now);
+        }
+    }
+
+    private void flush(long now) {
+        fileBytes += writer.getBufferedMessagesSize();
+        writer.flush();
+        lastFlushNanos = now;
+        flushes++;
+    }
+
+    private void openNext() {
+        writer = factory.create(files);
+        writer.open();
+        String h = heading;
+        if (h != null) {
+            writer.addAnnotationString(ANNOTATION_ID, h);
+        }
+        files++;
+        fileBytes = 0;
+        fileStartNanos = System.nanoTime();
+        lastFlushNanos = fileStartNanos;
+    }
+
+    private void closeCurrent() {
+        if (writer == null) {
+            return;
+        }
+        flush(System.nanoTime());
+        writer.close();
+        writer = null;
+    }
+
+    /**
+     * Packets waiting for the writer thread.
+     */
+    public int getQueued() {
+        return queue.size();
+    }
+
+    /**
+     * Packets rejected because the queue was full.
+     */
+    public long getDropped() {
+        return dropped;
+    }
+
+    public long getWritten() {
+        return written;
+    }
+
+    public long getFlushes() {
+        return flushes;
+    }
+
+    /**
+     * Number of files opened so far, including the current one.
+     */
+    public int getFiles() {
+        return files;
+    }
+}
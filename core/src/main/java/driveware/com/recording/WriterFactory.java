@@ -0,0 +1,15 @@
+package driveware.com.recording;
+
+import com.interaxon.libmuse.MuseFileWriter;
+
+/**
+ * Creates the MuseFileWriter for each file of a recording.
+ */
+public interface WriterFactory {
+
+    /**
+     * @param index 0 for the first file of the recording, incremented on
+     *              every rotation.
+     */
+    MuseFileWriter create(int index);
+}
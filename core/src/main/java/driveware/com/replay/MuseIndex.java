@@ -0,0 +1,254 @@
+package driveware.com.replay;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import com.interaxon.libmuse.MuseFileReader;
+
+/**
+ * Sidecar index of a .muse recording: a checkpoint at least every
+ * intervalMicros of message timestamps, each holding the byte offset a
+ * native reader can start decoding from and the message's ordinal in the
+ * file. Built by one sequential pass, then saved next to the recording as
+ * "<name>.muse.idx" and reused until the recording changes.
+ *
+ * A checkpoint is only taken at a message the reader had to fetch from the
+ * file; messages libmuse decodes from an already read frame have no offset
+ * of their own.
+ *
+ * Layout, big endian: int MAGIC, int VERSION, long length and long
+ * lastModified of the recording, long intervalMicros, long message count,
+ * int checkpoint count, then the timestamps, offsets and ordinals as three
+ * columns of longs.
+ */
+public final class MuseIndex {
+
+    public static final long DEFAULT_INTERVAL_MICROS = 10000000L;
+
+    static final int MAGIC = 0x44574958;  // "DWIX"
+    static final int VERSION = 1;
+
+    private final long sourceLength;
+    private final long sourceModified;
+    private final long intervalMicros;
+    private final long messages;
+    private final int size;
+    private final long[] timestamps;
+    private final long[] offsets;
+    private final long[] ordinals;
+
+    private MuseIndex(long sourceLength, long sourceModified, long intervalMicros,
+                      long messages, int size, long[] timestamps, long[] offsets,
+                      long[] ordinals) {
+        this.sourceLength = sourceLength;
+        this.sourceModified = sourceModified;
+        this.intervalMicros = intervalMicros;
+        this.messages = messages;
+        this.size = size;
+        this.timestamps = timestamps;
+        this.offsets = offsets;
+        this.ordinals = ordinals;
+    }
+
+    public static File sidecar(File recording) {
+        return new File(recording.getPath() + ".idx");
+    }
+
+    /**
+     * The recording's index, read from its sidecar if that is current and
+     * was built with the same interval, otherwise rebuilt and saved.
+     */
+    public static MuseIndex load(File recording, long intervalMicros) throws IOException {
+        File sidecar = sidecar(recording);
+        if (sidecar.isFile()) {
+            try {
+                MuseIndex index = read(sidecar);
+                if (index.isCurrent(recording) && index.intervalMicros == intervalMicros) {
+                    return index;
+                }
+            } catch (IOException e) {
+                // Unreadable sidecar, rebuilt below.
+            }
+        }
+        MuseIndex index = build(recording, intervalMicros);
+        try {
+            index.write(sidecar);
+        } catch (IOException e) {
+            // Read-only storage: the index still works, it is rebuilt next time.
+            sidecar.delete();
+        }
+        return index;
+    }
+
+    /**
+     * Decodes the whole recording once and records its checkpoints.
+     */
+    public static MuseIndex build(File recording, long intervalMicros) throws IOException {
+        if (intervalMicros <= 0) {
+            throw new IllegalArgumentException("intervalMicros must be positive");
+        }
+        long length = recording.length();
+        long modified = recording.lastModified();
+        PositionedMuseFile file = new PositionedMuseFile(recording, 0);
+        MuseFileReader reader = MuseFileReader.getFileReader(file);
+        int size = 0;
+        long[] timestamps = new long[64];
+        long[] offsets = new long[64];
+        long[] ordinals = new long[64];
+        long ordinal = 0;
+        long due = Long.MIN_VALUE;
+        try {
+            while (true) {
+                long before = file.getPosition();
+                if (!reader.gotoNextMessage()) {
+                    break;
+                }
+                long timestamp = reader.getMessageTimestamp();
+                if (file.getPosition() > before && timestamp >= due) {
+                    if (size == timestamps.length) {
+                        timestamps = grow(timestamps);
+                        offsets = grow(offsets);
+                        ordinals = grow(ordinals);
+                    }
+                    timestamps[size] = timestamp;
+                    offsets[size] = before;
+                    ordinals[size] = ordinal;
+                    size++;
+                    due = timestamp + intervalMicros;
+                }
+                ordinal++;
+            }
+        } finally {
+            reader.close();
+        }
+        if (file.getFailure() != null) {
+            throw file.getFailure();
+        }
+        return new MuseIndex(length, modified, intervalMicros, ordinal, size,
+                timestamps, offsets, ordinals);
+    }
+
+    private static long[] grow(long[] values) {
+        long[] grown = new long[values.length * 2];
+        System.arraycopy(values, 0, grown, 0, values.length);
+        return grown;
+    }
+
+    public static MuseIndex read(File file) throws IOException {
+        DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file), 1 << 16));
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException(file + " is not a recording index");
+            }
+            long length = in.readLong();
+            long modified = in.readLong();
+            long interval = in.readLong();
+            long messages = in.readLong();
+            int size = in.readInt();
+            if (size < 0 || size > file.length() / 24) {
+                throw new IOException(file + " has " + size + " checkpoints");
+            }
+            long[] timestamps = readColumn(in, size);
+            long[] offsets = readColumn(in, size);
+            long[] ordinals = readColumn(in, size);
+            return new MuseIndex(length, modified, interval, messages, size,
+                    timestamps, offsets, ordinals);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static long[] readColumn(DataInputStream in, int size) throws IOException {
+        long[] column = new long[size];
+        for (int i = 0; i < size; i++) {
+            column[i] = in.readLong();
+        }
+        return column;
+    }
+
+    public void write(File file) throws IOException {
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(sourceLength);
+            out.writeLong(sourceModified);
+            out.writeLong(intervalMicros);
+            out.writeLong(messages);
+            out.writeInt(size);
+            writeColumn(out, timestamps);
+            writeColumn(out, offsets);
+            writeColumn(out, ordinals);
+        } finally {
+            out.close();
+        }
+    }
+
+    private void writeColumn(DataOutputStream out, long[] column) throws IOException {
+        for (int i = 0; i < size; i++) {
+            out.writeLong(column[i]);
+        }
+    }
+
+    /**
+     * Whether the recording still has the length and modification time it
+     * had when this index was built.
+     */
+    public boolean isCurrent(File recording) {
+        return recording.length() == sourceLength
+                && recording.lastModified() == sourceModified;
+    }
+
+    /**
+     * Index of the last checkpoint at or before the timestamp, -1 if the
+     * timestamp is before the first one.
+     */
+    public int floor(long timestamp) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (timestamps[mid] <= timestamp) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low - 1;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long getTimestamp(int checkpoint) {
+        return timestamps[checkpoint];
+    }
+
+    public long getOffset(int checkpoint) {
+        return offsets[checkpoint];
+    }
+
+    public long getOrdinal(int checkpoint) {
+        return ordinals[checkpoint];
+    }
+
+    public long getIntervalMicros() {
+        return intervalMicros;
+    }
+
+    /**
+     * Number of messages in the recording.
+     */
+    public long getMessages() {
+        return messages;
+    }
+}
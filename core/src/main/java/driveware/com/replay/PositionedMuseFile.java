@@ -0,0 +1,120 @@
+package driveware.com.replay;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import com.interaxon.libmuse.MuseFile;
+import com.interaxon.libmuse.MuseFileReader;
+
+/**
+ * Read-only MuseFile that starts at a given byte offset and keeps track of
+ * how far the native reader has read.
+ *
+ * Same contract as libmuse's own file: read(n) returns exactly n bytes, or
+ * an empty array without consuming anything if fewer are left. The native
+ * reader asks for whole frames, so the position between two
+ * gotoNextMessage() calls that read from the file is a frame boundary a
+ * new reader can start from.
+ */
+final class PositionedMuseFile extends MuseFile {
+
+    private static final byte[] EMPTY = new byte[0];
+
+    static {
+        // MuseFileReader.getFileReader is native, and only MuseFileFactory
+        // loads the library; MuseIndex and SeekableMuseReader start their
+        // readers through this class without touching the factory.
+        System.loadLibrary("muse");
+    }
+
+    private final File file;
+    private final long start;
+    private RandomAccessFile in;
+    private long position;
+    private IOException failure;
+
+    PositionedMuseFile(File file, long start) {
+        this.file = file;
+        this.start = start;
+        this.position = start;
+    }
+
+    /**
+     * A native reader whose first message is the one at offset.
+     */
+    static MuseFileReader reader(File file, long offset) {
+        return MuseFileReader.getFileReader(new PositionedMuseFile(file, offset));
+    }
+
+    @Override
+    public void open(boolean forWriting) {
+        if (forWriting || in != null || failure != null) {
+            return;
+        }
+        try {
+            in = new RandomAccessFile(file, "r");
+            in.seek(start);
+            position = start;
+        } catch (IOException e) {
+            failure = e;
+        }
+    }
+
+    @Override
+    public void write(byte[] data) {
+        // Opened for reading only.
+    }
+
+    @Override
+    public byte[] read(int n) {
+        if (in == null) {
+            open(false);
+            if (in == null) {
+                return EMPTY;
+            }
+        }
+        byte[] data = new byte[n];
+        try {
+            in.readFully(data);
+        } catch (EOFException e) {
+            // A frame cut short by a crash ends the file.
+            try {
+                in.seek(position);
+            } catch (IOException seekFailure) {
+                failure = seekFailure;
+            }
+            return EMPTY;
+        } catch (IOException e) {
+            failure = e;
+            return EMPTY;
+        }
+        position += n;
+        return data;
+    }
+
+    @Override
+    public void close(boolean forWriting) {
+        if (forWriting || in == null) {
+            return;
+        }
+        try {
+            in.close();
+        } catch (IOException e) {
+            failure = e;
+        }
+        in = null;
+    }
+
+    /**
+     * Byte offset of the next read.
+     */
+    long getPosition() {
+        return position;
+    }
+
+    IOException getFailure() {
+        return failure;
+    }
+}
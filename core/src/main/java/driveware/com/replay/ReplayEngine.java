@@ -0,0 +1,132 @@
+package driveware.com.replay;
+
+import com.interaxon.libmuse.MuseDataPacket;
+import com.interaxon.libmuse.MuseDataPacketType;
+import com.interaxon.libmuse.MuseFileReader;
+
+import driveware.com.detection.ArtifactGate;
+import driveware.com.detection.DetectionEngine;
+
+/**
+ * Replays a recorded .muse file through a DetectionEngine, the same
+ * pipeline DataListener feeds with live packets.
+ *
+ * PACED mode sleeps between messages according to getMessageTimestamp(),
+ * optionally scaled by a speed factor. UNPACED mode pushes packets as fast
+ * as the detection thread consumes them, which is what re-scoring recorded
+ * drives after a threshold change needs.
+ *
+ * The replay thread becomes the single producer of the engine, so the
+ * engine must not be fed by a live listener at the same time. Packets are
+ * never dropped: if the ring is full the replay thread waits in
+ * DetectionEngine.put(), so the engine's drop count stays that of live use.
+ * Artifact flags recorded as annotations, see ArtifactGate, are replayed
+ * as ARTIFACTS frames.
+ */
+public class ReplayEngine {
+
+    public enum Mode {
+        PACED,
+        UNPACED
+    }
+
+    private final MuseFileReader reader;
+    private final DetectionEngine engine;
+    private final Mode mode;
+    private final double speed;
+    private final double[] artifacts = new double[ArtifactGate.VALUES];
+    private volatile boolean cancelled;
+
+    public ReplayEngine(MuseFileReader reader, DetectionEngine engine, Mode mode) {
+        this(reader, engine, mode, 1.0d);
+    }
+
+    /**
+     * @param speed playback speed for PACED mode, 1.0 is real time.
+     */
+    public ReplayEngine(MuseFileReader reader, DetectionEngine engine,
+                        Mode mode, double speed) {
+        if (speed <= 0.0d) {
+            throw new IllegalArgumentException("speed must be positive");
+        }
+        this.reader = reader;
+        this.engine = engine;
+        this.mode = mode;
+        this.speed = speed;
+    }
+
+    /**
+     * Stops a running replay() at the next message.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * Reads the whole file on the calling thread and returns once the
+     * detection thread has processed every packet.
+     * The engine must already be started.
+     */
+    public ReplayStats replay() throws InterruptedException {
+        long processedBefore = engine.getProcessedCount();
+        long messages = 0;
+        long packets = 0;
+        long firstTimestamp = -1;
+        long lastTimestamp = -1;
+        long startNanos = System.nanoTime();
+
+        while (!cancelled && reader.gotoNextMessage()) {
+            messages++;
+            long timestamp = reader.getMessageTimestamp();
+            if (firstTimestamp < 0) {
+                firstTimestamp = timestamp;
+            }
+            lastTimestamp = timestamp;
+            switch (reader.getMessageType()) {
+                // ALG_VALUE holds band powers written back through
+                // MuseFileWriter.addDataPacket.
+                case EEG: case BATTERY: case ACCELEROMETER:
+                case QUANTIZATION: case ALG_VALUE:
+                    if (mode == Mode.PACED) {
+                        pace(startNanos, timestamp - firstTimestamp);
+                    }
+                    MuseDataPacket packet = reader.getDataPacket();
+                    engine.put(packet);
+                    packets++;
+                    break;
+                case ANNOTATION:
+                    long stamp = ArtifactGate.parseAnnotation(
+                            reader.getAnnotation().getData(), artifacts);
+                    if (stamp == Long.MIN_VALUE) {
+                        break;
+                    }
+                    engine.put(MuseDataPacketType.ARTIFACTS, stamp,
+                            artifacts, ArtifactGate.VALUES);
+                    packets++;
+                    break;
+                default:
+                    break;
+            }
+        }
+        long target = processedBefore + packets;
+        while (engine.getProcessedCount() < target && !cancelled) {
+            Thread.yield();
+        }
+        long elapsed = System.nanoTime() - startNanos;
+        long span = firstTimestamp < 0 ? 0 : lastTimestamp - firstTimestamp;
+        return new ReplayStats(messages, packets, elapsed, span);
+    }
+
+    /**
+     * Sleeps until offsetMicros of recording time (scaled by speed) have
+     * passed since startNanos.
+     */
+    private void pace(long startNanos, long offsetMicros)
+            throws InterruptedException {
+        long due = startNanos + (long) (offsetMicros * 1000L / speed);
+        long wait = due - System.nanoTime();
+        if (wait > 0) {
+            Thread.sleep(wait / 1000000L, (int) (wait % 1000000L));
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package driveware.com.replay;
+
+/**
+ * Outcome of one ReplayEngine run.
+ */
+public final class ReplayStats {
+
+    private final long messages;
+    private final long packets;
+    private final long elapsedNanos;
+    private final long recordedMicros;
+
+    ReplayStats(long messages, long packets, long elapsedNanos,
+                long recordedMicros) {
+        this.messages = messages;
+        this.packets = packets;
+        this.elapsedNanos = elapsedNanos;
+        this.recordedMicros = recordedMicros;
+    }
+
+    public long getMessages() {
+        return messages;
+    }
+
+    public long getPackets() {
+        return packets;
+    }
+
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    /**
+     * Time between first and last message timestamp in the file.
+     */
+    public long getRecordedMicros() {
+        return recordedMicros;
+    }
+
+    public double getPacketsPerSecond() {
+        return elapsedNanos == 0 ? 0.0d : packets * 1e9d / elapsedNanos;
+    }
+
+    /**
+     * How many times faster than real time the file was replayed.
+     */
+    public double getSpeedup() {
+        return elapsedNanos == 0 ? 0.0d : recordedMicros * 1000.0d / elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d packets (%d messages) in %.1f ms, "
+                + "%.0f packets/s, %.1fx real time",
+                packets, messages, elapsedNanos / 1e6d,
+                getPacketsPerSecond(), getSpeedup());
+    }
+}
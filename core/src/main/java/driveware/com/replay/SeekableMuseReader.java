@@ -0,0 +1,236 @@
+package driveware.com.replay;
+
+import java.io.File;
+import java.io.IOException;
+
+import com.interaxon.libmuse.AnnotationData;
+import com.interaxon.libmuse.ComputingDeviceConfiguration;
+import com.interaxon.libmuse.DspData;
+import com.interaxon.libmuse.MessageType;
+import com.interaxon.libmuse.MuseConfiguration;
+import com.interaxon.libmuse.MuseDataPacket;
+import com.interaxon.libmuse.MuseFileReader;
+import com.interaxon.libmuse.MuseVersion;
+
+/**
+ * MuseFileReader over a recording and its MuseIndex that can also jump to
+ * a point in time, so ReplayEngine, FeatureReplay or a review screen can
+ * start anywhere in a long drive.
+ *
+ * seek() binary searches the index for the last checkpoint at or before
+ * the target, starts a native reader at its byte offset and decodes
+ * forward, so it costs at most one index interval of decoding. The open
+ * reader is kept between calls: a seek forward that does not pass another
+ * checkpoint just keeps decoding from where the reader is, which is what
+ * scrubbing forward through a drive does most of the time.
+ *
+ * If the message at a checkpoint does not have the indexed timestamp, the
+ * recording was rewritten since indexing; seek() then decodes from the
+ * start of the file and counts a fallback. Not thread-safe.
+ */
+public final class SeekableMuseReader extends MuseFileReader {
+
+    /**
+     * Starts a reader whose first message is the one at a byte offset of
+     * the recording.
+     */
+    interface Readers {
+        MuseFileReader open(long offset);
+    }
+
+    private final Readers readers;
+    private final MuseIndex index;
+    private MuseFileReader reader;
+    // Messages decoded by reader, counted from the start of the file.
+    private long decoded;
+    // reader holds a message found by seek() not yet returned.
+    private boolean pending;
+    private long pendingTarget;
+    private boolean exhausted;
+    private long seeks;
+    private long reopens;
+    private long fallbacks;
+
+    public SeekableMuseReader(final File file, MuseIndex index) {
+        this(index, new Readers() {
+            @Override
+            public MuseFileReader open(long offset) {
+                return PositionedMuseFile.reader(file, offset);
+            }
+        });
+    }
+
+    SeekableMuseReader(MuseIndex index, Readers readers) {
+        this.readers = readers;
+        this.index = index;
+        this.reader = readers.open(0);
+    }
+
+    /**
+     * Opens the recording with its sidecar index, building the index first
+     * if it is missing or stale.
+     */
+    public static SeekableMuseReader open(File file) throws IOException {
+        return new SeekableMuseReader(file,
+                MuseIndex.load(file, MuseIndex.DEFAULT_INTERVAL_MICROS));
+    }
+
+    /**
+     * Positions the reader so that the next gotoNextMessage() moves to the
+     * first message at or after the timestamp (microseconds, as
+     * getMessageTimestamp()). Returns false if there is none; the reader is
+     * then at the end of the file.
+     */
+    public boolean seek(long timestamp) {
+        seeks++;
+        int checkpoint = index.floor(timestamp);
+        long checkpointOrdinal = checkpoint < 0 ? 0 : index.getOrdinal(checkpoint);
+        long next = pending ? decoded - 1 : decoded;
+        boolean before;
+        if (exhausted) {
+            before = false;
+        } else if (pending) {
+            // Every message before the pending one is older than its target.
+            before = timestamp >= pendingTarget;
+        } else {
+            before = decoded == 0 || reader.getMessageTimestamp() < timestamp;
+        }
+        if (next < checkpointOrdinal || !before) {
+            pending = false;
+            if (checkpoint < 0) {
+                reopen(0, 0);
+            } else {
+                reopen(index.getOffset(checkpoint), checkpointOrdinal);
+                if (!reader.gotoNextMessage()
+                        || reader.getMessageTimestamp() != index.getTimestamp(checkpoint)) {
+                    fallbacks++;
+                    reopen(0, 0);
+                } else {
+                    decoded++;
+                    pending = true;
+                }
+            }
+        }
+        if (pending && reader.getMessageTimestamp() >= timestamp) {
+            pendingTarget = timestamp;
+            return true;
+        }
+        pending = false;
+        while (reader.gotoNextMessage()) {
+            decoded++;
+            if (reader.getMessageTimestamp() >= timestamp) {
+                pending = true;
+                pendingTarget = timestamp;
+                return true;
+            }
+        }
+        exhausted = true;
+        return false;
+    }
+
+    private void reopen(long offset, long ordinal) {
+        reader.close();
+        reader = readers.open(offset);
+        decoded = ordinal;
+        exhausted = false;
+        reopens++;
+    }
+
+    public MuseIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * Position of the current message in the file, -1 before the first.
+     */
+    public long getOrdinal() {
+        return pending ? decoded - 2 : decoded - 1;
+    }
+
+    public long getSeeks() {
+        return seeks;
+    }
+
+    /**
+     * Seeks that had to start a new native reader.
+     */
+    public long getReopens() {
+        return reopens;
+    }
+
+    /**
+     * Seeks that found the index stale and decoded from the start.
+     */
+    public long getFallbacks() {
+        return fallbacks;
+    }
+
+    @Override
+    public void open() {
+        // Readers are opened by the constructor and seek().
+    }
+
+    @Override
+    public void close() {
+        reader.close();
+    }
+
+    @Override
+    public boolean gotoNextMessage() {
+        if (pending) {
+            pending = false;
+            return true;
+        }
+        if (!reader.gotoNextMessage()) {
+            exhausted = true;
+            return false;
+        }
+        decoded++;
+        return true;
+    }
+
+    @Override
+    public MessageType getMessageType() {
+        return reader.getMessageType();
+    }
+
+    @Override
+    public int getMessageId() {
+        return reader.getMessageId();
+    }
+
+    @Override
+    public long getMessageTimestamp() {
+        return reader.getMessageTimestamp();
+    }
+
+    @Override
+    public AnnotationData getAnnotation() {
+        return reader.getAnnotation();
+    }
+
+    @Override
+    public MuseConfiguration getConfiguration() {
+        return reader.getConfiguration();
+    }
+
+    @Override
+    public MuseVersion getVersion() {
+        return reader.getVersion();
+    }
+
+    @Override
+    public ComputingDeviceConfiguration getComputingDeviceConfiguration() {
+        return reader.getComputingDeviceConfiguration();
+    }
+
+    @Override
+    public DspData getDsp() {
+        return reader.getDsp();
+    }
+
+    @Override
+    public MuseDataPacket getDataPacket() {
+        return reader.getDataPacket();
+    }
+}
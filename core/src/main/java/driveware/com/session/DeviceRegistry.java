@@ -0,0 +1,45 @@
+package driveware.com.session;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Sessions of all connected headbands keyed by Muse.getMacAddress().
+ * Backed by a lock-striped ConcurrentHashMap: lookups never block and
+ * adding or removing a headband does not stall the others.
+ * The packet path does not go through the registry at all, each listener
+ * holds its own DeviceSession.
+ */
+public class DeviceRegistry {
+
+    // Up to 4 headbands in a vehicle, each possibly updated concurrently.
+    private final ConcurrentHashMap<String, DeviceSession> sessions =
+            new ConcurrentHashMap<String, DeviceSession>(8, 0.75f, 4);
+
+    public DeviceSession get(String macAddress) {
+        return sessions.get(macAddress);
+    }
+
+    /**
+     * Registers the session unless one already exists for the same MAC.
+     * Returns the session now registered for that MAC.
+     */
+    public DeviceSession putIfAbsent(DeviceSession session) {
+        DeviceSession existing =
+                sessions.putIfAbsent(session.getMacAddress(), session);
+        return existing != null ? existing : session;
+    }
+
+    public DeviceSession remove(String macAddress) {
+        return sessions.remove(macAddress);
+    }
+
+    public List<DeviceSession> all() {
+        return new ArrayList<DeviceSession>(sessions.values());
+    }
+
+    public int size() {
+        return sessions.size();
+    }
+}
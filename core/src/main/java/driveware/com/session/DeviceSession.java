@@ -0,0 +1,99 @@
+package driveware.com.session;
+
+import com.interaxon.libmuse.Muse;
+import com.interaxon.libmuse.MuseDataListener;
+
+import driveware.com.detection.DetectionEngine;
+import driveware.com.metrics.LatencyMonitor;
+import driveware.com.recording.RecordingSink;
+import driveware.com.store.SessionStoreWriter;
+
+/**
+ * Everything that belongs to one headband: its detector thread, its
+ * recording, its band store and the listener registered on it.
+ * Each Muse delivers packets on its own libmuse thread, and each session
+ * has its own single-producer rings, so headbands never share mutable
+ * state on the packet path.
+ */
+public class DeviceSession {
+
+    private final String macAddress;
+    private final Muse muse;
+    private final DetectionEngine engine;
+    private final RecordingSink recorder;
+    private final SessionStoreWriter store;
+    private volatile MuseDataListener dataListener;
+    private volatile SubscriptionManager subscriptions;
+
+    public DeviceSession(Muse muse, DetectionEngine engine,
+                         RecordingSink recorder) {
+        this(muse, engine, recorder, null);
+    }
+
+    /**
+     * @param store receives every band frame the detector scores, or null.
+     */
+    public DeviceSession(Muse muse, DetectionEngine engine,
+                         RecordingSink recorder, SessionStoreWriter store) {
+        this.macAddress = muse.getMacAddress();
+        this.muse = muse;
+        this.engine = engine;
+        this.recorder = recorder;
+        this.store = store;
+        engine.getDetector().setBandSink(store);
+    }
+
+    public void start() {
+        engine.start();
+        recorder.start();
+    }
+
+    public void stop() {
+        recorder.stop();
+        engine.stop();
+        // The detection thread has exited, so the store has no writer left.
+        if (store != null) {
+            store.close();
+        }
+    }
+
+    public String getMacAddress() {
+        return macAddress;
+    }
+
+    public Muse getMuse() {
+        return muse;
+    }
+
+    public DetectionEngine getEngine() {
+        return engine;
+    }
+
+    public RecordingSink getRecorder() {
+        return recorder;
+    }
+
+    public SessionStoreWriter getStore() {
+        return store;
+    }
+
+    public LatencyMonitor getLatency() {
+        return engine.getDetector().getLatency();
+    }
+
+    public MuseDataListener getDataListener() {
+        return dataListener;
+    }
+
+    /**
+     * Also creates the SubscriptionManager that registers this listener.
+     */
+    public void setDataListener(MuseDataListener dataListener) {
+        this.dataListener = dataListener;
+        this.subscriptions = new SubscriptionManager(muse, dataListener);
+    }
+
+    public SubscriptionManager getSubscriptions() {
+        return subscriptions;
+    }
+}
@@ -0,0 +1,146 @@
+package driveware.com.session;
+
+/**
+ * Decides which band source a headband's detector scores, from its
+ * drowsiness score. The headband's preset stays the same, so both modes
+ * stream the same data over Bluetooth.
+ *
+ * LEAN scores libmuse's 10 Hz relative band packets and leaves raw EEG
+ * unregistered, which is enough to notice a driver getting drowsy without
+ * the JNI crossings, copies and FFTs of EEG. RICH scores raw EEG through
+ * BandPowerEstimator at 20 Hz with masking per window, for the time it
+ * takes to confirm or clear a suspicion. The policy goes RICH as soon as the score reaches
+ * suspectScore and back to LEAN once it has stayed below clearScore for
+ * holdMillis, so it does not flap around one threshold.
+ *
+ * The caller maps each Mode to the packet types it registers, and records
+ * every switch with annotation() so replays can score the same source.
+ * update() is O(1) and must be called from one thread; getMode() and the
+ * counters may be read from any thread.
+ */
+public final class SourcePolicy {
+
+    public enum Mode {
+        LEAN,
+        RICH
+    }
+
+    // DrowsinessClassifier.ALARM_SCORE is 0.5; a single head nod is 0.4.
+    public static final double DEFAULT_SUSPECT_SCORE = 0.3d;
+    public static final double DEFAULT_CLEAR_SCORE = 0.1d;
+    public static final long DEFAULT_HOLD_MILLIS = 60000L;
+
+    /**
+     * Prefix of the annotations recording the mode, see annotation().
+     */
+    public static final String ANNOTATION = "source ";
+
+    private final double suspectScore;
+    private final double clearScore;
+    private final long holdMillis;
+
+    private volatile Mode mode;
+    private long clearSince = -1;
+    private volatile long switches;
+    private volatile long switchedAt;
+
+    public SourcePolicy(Mode initial) {
+        this(initial, DEFAULT_SUSPECT_SCORE, DEFAULT_CLEAR_SCORE, DEFAULT_HOLD_MILLIS);
+    }
+
+    public SourcePolicy(Mode initial, double suspectScore, double clearScore,
+                        long holdMillis) {
+        if (clearScore > suspectScore || holdMillis < 0) {
+            throw new IllegalArgumentException("invalid score zone or hold time");
+        }
+        this.mode = initial;
+        this.suspectScore = suspectScore;
+        this.clearScore = clearScore;
+        this.holdMillis = holdMillis;
+    }
+
+    /**
+     * Feeds the latest score and returns the mode to run in. A NaN score,
+     * before the first scored frame, keeps the current mode.
+     */
+    public Mode update(long nowMillis, double score) {
+        if (Double.isNaN(score)) {
+            return mode;
+        }
+        if (score >= suspectScore) {
+            clearSince = -1;
+            if (mode != Mode.RICH) {
+                switchTo(Mode.RICH, nowMillis);
+            }
+        } else if (mode == Mode.RICH) {
+            if (score >= clearScore) {
+                clearSince = -1;
+            } else if (clearSince < 0) {
+                clearSince = nowMillis;
+            } else if (nowMillis - clearSince >= holdMillis) {
+                clearSince = -1;
+                switchTo(Mode.LEAN, nowMillis);
+            }
+        }
+        return mode;
+    }
+
+    private void switchTo(Mode next, long nowMillis) {
+        mode = next;
+        switchedAt = nowMillis;
+        switches++;
+    }
+
+    /**
+     * Annotation recording a switch from one mode to the other, or with a
+     * null from, the mode a recording starts in. The detail, if any, is
+     * appended for reading only.
+     */
+    public static String annotation(Mode from, Mode to, String detail) {
+        StringBuilder text = new StringBuilder(ANNOTATION);
+        if (from != null) {
+            text.append(from).append(" -> ");
+        }
+        text.append(to);
+        if (detail != null) {
+            text.append(' ').append(detail);
+        }
+        return text.toString();
+    }
+
+    /**
+     * The mode an annotation() switched to or started in, null if the text
+     * is not one.
+     */
+    public static Mode parseAnnotation(String text) {
+        if (!text.startsWith(ANNOTATION)) {
+            return null;
+        }
+        String rest = text.substring(ANNOTATION.length());
+        int arrow = rest.indexOf(" -> ");
+        if (arrow >= 0) {
+            rest = rest.substring(arrow + 4);
+        }
+        int end = rest.indexOf(' ');
+        try {
+            return Mode.valueOf(end < 0 ? rest : rest.substring(0, end));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public long getSwitches() {
+        return switches;
+    }
+
+    /**
+     * Time of the last switch, as passed to update().
+     */
+    public long getSwitchedAt() {
+        return switchedAt;
+    }
+}
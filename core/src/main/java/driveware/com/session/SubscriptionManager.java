@@ -0,0 +1,135 @@
+package driveware.com.session;
+
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.interaxon.libmuse.Muse;
+import com.interaxon.libmuse.MuseDataListener;
+import com.interaxon.libmuse.MuseDataPacketType;
+
+/**
+ * Registers a headband's DataListener for exactly the packet types some
+ * pipeline stage needs. The headband streams what its preset selects either
+ * way; every registered type adds a JNI crossing, a packet copy and a
+ * callback per packet on the phone, so a type no stage asked for is never
+ * registered, and an idle stage costs nothing on the packet path.
+ *
+ * Stages (detector, recorder, telemetry, a UI panel) declare their types
+ * by name with require() when they start and release() when they stop. A
+ * type is registered with the Muse when its first stage requires it and
+ * unregistered when its last stage releases it. reapply() registers the
+ * current set again after Muse.unregisterAllListeners(), e.g. before a
+ * reconnect.
+ *
+ * Synchronized; called from control threads only, never per packet.
+ */
+public final class SubscriptionManager {
+
+    private static final MuseDataPacketType[] TYPES = MuseDataPacketType.values();
+
+    private final Muse muse;
+    private final MuseDataListener listener;
+    private final Map<String, EnumSet<MuseDataPacketType>> demands =
+            new HashMap<String, EnumSet<MuseDataPacketType>>();
+    // Stages requiring each type, by ordinal.
+    private final int[] counts = new int[TYPES.length];
+    private final EnumSet<MuseDataPacketType> registered =
+            EnumSet.noneOf(MuseDataPacketType.class);
+    private volatile long changes;
+
+    public SubscriptionManager(Muse muse, MuseDataListener listener) {
+        this.muse = muse;
+        this.listener = listener;
+    }
+
+    /**
+     * Sets the packet types a stage needs, replacing what it required
+     * before. Types in no other stage's set are registered or
+     * unregistered right away.
+     */
+    public synchronized void require(String stage, MuseDataPacketType... types) {
+        EnumSet<MuseDataPacketType> wanted = EnumSet.noneOf(MuseDataPacketType.class);
+        for (MuseDataPacketType type : types) {
+            wanted.add(type);
+        }
+        EnumSet<MuseDataPacketType> previous = demands.put(stage, wanted);
+        for (MuseDataPacketType type : wanted) {
+            if (previous == null || !previous.contains(type)) {
+                acquire(type);
+            }
+        }
+        if (previous != null) {
+            for (MuseDataPacketType type : previous) {
+                if (!wanted.contains(type)) {
+                    dismiss(type);
+                }
+            }
+        }
+    }
+
+    /**
+     * Drops every type the stage required.
+     */
+    public synchronized void release(String stage) {
+        EnumSet<MuseDataPacketType> previous = demands.remove(stage);
+        if (previous == null) {
+            return;
+        }
+        for (MuseDataPacketType type : previous) {
+            dismiss(type);
+        }
+    }
+
+    private void acquire(MuseDataPacketType type) {
+        if (counts[type.ordinal()]++ == 0) {
+            muse.registerDataListener(listener, type);
+            registered.add(type);
+            changes++;
+        }
+    }
+
+    private void dismiss(MuseDataPacketType type) {
+        if (--counts[type.ordinal()] == 0) {
+            muse.unregisterDataListener(listener, type);
+            registered.remove(type);
+            changes++;
+        }
+    }
+
+    /**
+     * Registers every required type again, for after the Muse dropped all
+     * of its listeners. A type that is still registered stays registered
+     * once.
+     */
+    public synchronized void reapply() {
+        registered.clear();
+        for (MuseDataPacketType type : TYPES) {
+            if (counts[type.ordinal()] > 0) {
+                muse.unregisterDataListener(listener, type);
+                muse.registerDataListener(listener, type);
+                registered.add(type);
+            }
+        }
+    }
+
+    public synchronized boolean isRegistered(MuseDataPacketType type) {
+        return registered.contains(type);
+    }
+
+    public synchronized EnumSet<MuseDataPacketType> getRegistered() {
+        return EnumSet.copyOf(registered);
+    }
+
+    /**
+     * Registrations and unregistrations made since creation.
+     */
+    public long getChanges() {
+        return changes;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return registered.toString();
+    }
+}
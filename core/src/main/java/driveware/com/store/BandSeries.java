@@ -0,0 +1,88 @@
+package driveware.com.store;
+
+import java.nio.MappedByteBuffer;
+
+import com.interaxon.libmuse.Eeg;
+
+/**
+ * All stored rows of one band, read through read-only mappings of its
+ * segments. Rows are numbered from 0 across segments; since every
+ * segment but the last is full, finding a row's segment is a division.
+ * Only the mappings live on the heap, whatever the length of the drive.
+ *
+ * MappedByteBuffer reads are absolute, so one instance can be shared by
+ * threads. Rows appended after SessionStore.open() are not visible.
+ */
+public final class BandSeries {
+
+    private final MappedByteBuffer[] segments;
+    private final int capacity;
+    private final long size;
+
+    BandSeries(MappedByteBuffer[] segments, int capacity, long size) {
+        this.segments = segments;
+        this.capacity = capacity;
+        this.size = size;
+    }
+
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Packet timestamp of the row, in microseconds.
+     */
+    public long getTimestamp(long row) {
+        checkRow(row);
+        return segments[(int) (row / capacity)]
+                .getLong(Segment.timestampOffset((int) (row % capacity)));
+    }
+
+    public float get(long row, Eeg channel) {
+        return get(row, channel.ordinal());
+    }
+
+    public float get(long row, int channel) {
+        checkRow(row);
+        return segments[(int) (row / capacity)].getFloat(
+                Segment.valueOffset(capacity, channel, (int) (row % capacity)));
+    }
+
+    /**
+     * Index of the first row at or after the timestamp, size() if none.
+     * Rows in [indexOf(from), indexOf(to)) are the ones in [from, to).
+     */
+    public long indexOf(long timestamp) {
+        long low = 0;
+        long high = size;
+        while (low < high) {
+            long mid = (low + high) >>> 1;
+            if (getTimestamp(mid) < timestamp) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Copies up to n timestamps and values of one channel starting at row
+     * into the arrays, for charting without boxing. Returns the number of
+     * rows copied.
+     */
+    public int copy(long row, int n, int channel, long[] timestamps, float[] values) {
+        int count = (int) Math.max(0, Math.min(n, size - row));
+        for (int i = 0; i < count; i++) {
+            timestamps[i] = getTimestamp(row + i);
+            values[i] = get(row + i, channel);
+        }
+        return count;
+    }
+
+    private void checkRow(long row) {
+        if (row < 0 || row >= size) {
+            throw new IndexOutOfBoundsException("row " + row + ", size " + size);
+        }
+    }
+}
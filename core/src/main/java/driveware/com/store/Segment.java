@@ -0,0 +1,53 @@
+package driveware.com.store;
+
+import java.io.File;
+import java.util.Locale;
+
+import com.interaxon.libmuse.Eeg;
+
+import driveware.com.detection.Band;
+
+/**
+ * Layout of one segment file: the rows of one band, column by column.
+ *
+ * Big endian, as MappedByteBuffer defaults to:
+ * - int MAGIC, int VERSION, int capacity, int rows written so far;
+ * - capacity int64 timestamps (microseconds, never decreasing);
+ * - for each Eeg channel, capacity float32 values.
+ *
+ * The file is created at full size, so appending a row never changes its
+ * length or moves the other columns. Every segment but the last of a band
+ * is full.
+ */
+final class Segment {
+
+    static final int MAGIC = 0x44575347;  // "DWSG"
+    static final int VERSION = 1;
+    static final int CAPACITY_OFFSET = 8;
+    static final int ROWS_OFFSET = 12;
+    static final int HEADER = 16;
+    static final int CHANNELS = Eeg.values().length;
+
+    private Segment() {
+    }
+
+    static long size(int capacity) {
+        return HEADER + (long) capacity * (8 + 4 * CHANNELS);
+    }
+
+    static int timestampOffset(int row) {
+        return HEADER + row * 8;
+    }
+
+    static int valueOffset(int capacity, int channel, int row) {
+        return HEADER + capacity * 8 + (channel * capacity + row) * 4;
+    }
+
+    static String prefix(Band band) {
+        return band.name().toLowerCase(Locale.US) + "_";
+    }
+
+    static File file(File directory, Band band, int index) {
+        return new File(directory, prefix(band) + index + ".seg");
+    }
+}
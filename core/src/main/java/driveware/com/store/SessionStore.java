@@ -0,0 +1,124 @@
+package driveware.com.store;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import driveware.com.detection.Band;
+import driveware.com.detection.PacketSink;
+
+/**
+ * Read side of a session directory written by SessionStoreWriter.
+ *
+ * open() maps every segment read-only and reads only the headers, so a
+ * session of any length opens in constant heap; values are paged in from
+ * the file as they are touched.
+ */
+public final class SessionStore {
+
+    private static final Band[] BANDS = Band.values();
+
+    private final BandSeries[] series = new BandSeries[BANDS.length];
+
+    private SessionStore() {
+    }
+
+    public static SessionStore open(File directory) throws IOException {
+        SessionStore store = new SessionStore();
+        for (Band band : BANDS) {
+            store.series[band.ordinal()] = openSeries(directory, band);
+        }
+        return store;
+    }
+
+    private static BandSeries openSeries(File directory, Band band) throws IOException {
+        int count = 0;
+        while (Segment.file(directory, band, count).exists()) {
+            count++;
+        }
+        MappedByteBuffer[] segments = new MappedByteBuffer[count];
+        int capacity = 0;
+        long size = 0;
+        for (int i = 0; i < count; i++) {
+            File file = Segment.file(directory, band, i);
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try {
+                segments[i] = raf.getChannel().map(
+                        FileChannel.MapMode.READ_ONLY, 0, raf.length());
+            } finally {
+                raf.close();
+            }
+            MappedByteBuffer segment = segments[i];
+            if (segment.capacity() < Segment.HEADER
+                    || segment.getInt(0) != Segment.MAGIC
+                    || segment.getInt(4) != Segment.VERSION) {
+                throw new IOException(file + " is not a segment");
+            }
+            int segmentCapacity = segment.getInt(Segment.CAPACITY_OFFSET);
+            if (i == 0) {
+                capacity = segmentCapacity;
+            } else if (segmentCapacity != capacity) {
+                throw new IOException(file + " has capacity " + segmentCapacity
+                        + ", expected " + capacity);
+            }
+            if (segment.capacity() < Segment.size(capacity)) {
+                throw new IOException(file + " is truncated");
+            }
+            int rows = segment.getInt(Segment.ROWS_OFFSET);
+            // A segment left short by a crash ends the series.
+            size += Math.min(rows, capacity);
+            if (rows < capacity && i < count - 1) {
+                MappedByteBuffer[] kept = new MappedByteBuffer[i + 1];
+                System.arraycopy(segments, 0, kept, 0, i + 1);
+                segments = kept;
+                break;
+            }
+        }
+        return new BandSeries(segments, Math.max(capacity, 1), size);
+    }
+
+    public BandSeries getSeries(Band band) {
+        return series[band.ordinal()];
+    }
+
+    /**
+     * Feeds every stored frame with a timestamp in [from, to) to the sink
+     * as *_RELATIVE packets, merging bands in timestamp order, e.g. to
+     * re-score a drive with a new Detector. Returns the number of frames.
+     */
+    public long replay(long from, long to, PacketSink sink) {
+        long[] next = new long[BANDS.length];
+        long[] end = new long[BANDS.length];
+        for (int b = 0; b < BANDS.length; b++) {
+            next[b] = series[b].indexOf(from);
+            end[b] = series[b].indexOf(to);
+        }
+        double[] values = new double[Segment.CHANNELS];
+        long frames = 0;
+        while (true) {
+            int earliest = -1;
+            long timestamp = Long.MAX_VALUE;
+            for (int b = 0; b < BANDS.length; b++) {
+                if (next[b] < end[b]) {
+                    long t = series[b].getTimestamp(next[b]);
+                    if (t < timestamp) {
+                        timestamp = t;
+                        earliest = b;
+                    }
+                }
+            }
+            if (earliest < 0) {
+                return frames;
+            }
+            BandSeries s = series[earliest];
+            long row = next[earliest]++;
+            for (int c = 0; c < values.length; c++) {
+                values[c] = s.get(row, c);
+            }
+            sink.offer(BANDS[earliest].getRelativeType(), timestamp, values, values.length);
+            frames++;
+        }
+    }
+}
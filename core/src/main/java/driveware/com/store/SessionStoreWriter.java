@@ -0,0 +1,264 @@
+package driveware.com.store;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import com.interaxon.libmuse.MuseDataPacketType;
+
+import driveware.com.detection.Band;
+import driveware.com.detection.PacketSink;
+
+/**
+ * Appends relative band frames to a session directory, one series of
+ * Segment files per band.
+ *
+ * Segments are memory mapped read-write, so appending a row is a handful
+ * of stores into the page cache: no system call, no copy and no
+ * allocation, cheap enough for the detection thread. A new segment is
+ * created and mapped every segmentRows rows of a band, about once an hour
+ * per band at 20 Hz with the default size.
+ *
+ * A writer opened on a directory that already holds segments, e.g. the
+ * same headband connected again within one recording stamp, appends after
+ * the rows stored there instead of overwriting them.
+ *
+ * Timestamps never decrease within a band, so range queries can binary
+ * search. A frame slightly older than the last stored one for its band is
+ * dropped and counted. A step back of RESTART_MICROS or more is the
+ * headband's clock restarting, e.g. after a reconnect: from then on every
+ * band is stored shifted to continue just after the newest stored row, and
+ * those rows are counted as rebased. offer() cannot throw:
+ * the first I/O error stops the writer and is kept for getFailure().
+ * Single writer; close() must be called from the same thread or after it
+ * has stopped.
+ */
+public final class SessionStoreWriter implements PacketSink, Closeable {
+
+    public static final int DEFAULT_SEGMENT_ROWS = 1 << 16;
+    public static final long RESTART_MICROS = 1000000L;
+
+    private static final Band[] BANDS = Band.values();
+
+    private final File directory;
+    private final int segmentRows;
+    private final MappedByteBuffer[] current = new MappedByteBuffer[BANDS.length];
+    private final int[] segment = new int[BANDS.length];
+    private final int[] rows = new int[BANDS.length];
+    private final long[] lastTimestamp = new long[BANDS.length];
+    // Added to every timestamp since the last clock restart.
+    private long offset;
+
+    private boolean closed;
+    private volatile long written;
+    private volatile long outOfOrder;
+    private volatile long restarts;
+    private volatile long rebased;
+    private volatile IOException failure;
+
+    public SessionStoreWriter(File directory) {
+        this(directory, DEFAULT_SEGMENT_ROWS);
+    }
+
+    public SessionStoreWriter(File directory, int segmentRows) {
+        if (segmentRows < 1) {
+            throw new IllegalArgumentException("segmentRows must be positive");
+        }
+        this.directory = directory;
+        this.segmentRows = segmentRows;
+        for (int b = 0; b < BANDS.length; b++) {
+            segment[b] = -1;
+            lastTimestamp[b] = Long.MIN_VALUE;
+        }
+    }
+
+    /**
+     * Stores a *_RELATIVE frame, ignores every other type.
+     */
+    @Override
+    public boolean offer(MuseDataPacketType type, long timestamp,
+                         double[] values, int count) {
+        Band band = Band.fromPacketType(type);
+        if (band == null || closed || failure != null) {
+            return false;
+        }
+        int b = band.ordinal();
+        MappedByteBuffer buffer = current[b];
+        if (buffer == null) {
+            // Opens the series first, which may resume stored rows.
+            buffer = roll(band);
+            if (buffer == null) {
+                return false;
+            }
+        }
+        long t = timestamp + offset;
+        if (t < lastTimestamp[b]) {
+            if (lastTimestamp[b] - t < RESTART_MICROS) {
+                outOfOrder++;
+                return false;
+            }
+            long newest = Long.MIN_VALUE;
+            for (int i = 0; i < BANDS.length; i++) {
+                newest = Math.max(newest, lastTimestamp[i]);
+            }
+            offset += newest + 1 - t;
+            t = timestamp + offset;
+            restarts++;
+        }
+        if (rows[b] == segmentRows) {
+            buffer = roll(band);
+            if (buffer == null) {
+                return false;
+            }
+        }
+        int row = rows[b];
+        buffer.putLong(Segment.timestampOffset(row), t);
+        for (int c = 0; c < Segment.CHANNELS; c++) {
+            float v = c < count ? (float) values[c] : Float.NaN;
+            buffer.putFloat(Segment.valueOffset(segmentRows, c, row), v);
+        }
+        // Row count last, after the row it covers.
+        rows[b] = row + 1;
+        buffer.putInt(Segment.ROWS_OFFSET, row + 1);
+        lastTimestamp[b] = t;
+        written++;
+        if (offset != 0) {
+            rebased++;
+        }
+        return true;
+    }
+
+    private MappedByteBuffer roll(Band band) {
+        int b = band.ordinal();
+        try {
+            int index = segment[b] + 1;
+            if (segment[b] < 0) {
+                if (!directory.isDirectory() && !directory.mkdirs()) {
+                    throw new IOException("cannot create " + directory);
+                }
+                int last = -1;
+                while (Segment.file(directory, band, last + 1).exists()) {
+                    last++;
+                }
+                if (last >= 0) {
+                    resume(band, last);
+                    if (rows[b] < segmentRows) {
+                        return current[b];
+                    }
+                    index = last + 1;
+                }
+            }
+            long size = Segment.size(segmentRows);
+            RandomAccessFile file = new RandomAccessFile(
+                    Segment.file(directory, band, index), "rw");
+            MappedByteBuffer buffer;
+            try {
+                file.setLength(size);
+                // The mapping stays valid after the channel is closed.
+                buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+            } finally {
+                file.close();
+            }
+            buffer.putInt(0, Segment.MAGIC);
+            buffer.putInt(4, Segment.VERSION);
+            buffer.putInt(Segment.CAPACITY_OFFSET, segmentRows);
+            buffer.putInt(Segment.ROWS_OFFSET, 0);
+            if (current[b] != null) {
+                current[b].force();
+            }
+            current[b] = buffer;
+            segment[b] = index;
+            rows[b] = 0;
+            return buffer;
+        } catch (IOException e) {
+            failure = e;
+            return null;
+        }
+    }
+
+    /*
+     * Maps the last stored segment of a band to continue after its rows. A
+     * segment written with another capacity cannot be continued and fails
+     * the writer.
+     */
+    private void resume(Band band, int index) throws IOException {
+        int b = band.ordinal();
+        File path = Segment.file(directory, band, index);
+        long size = Segment.size(segmentRows);
+        RandomAccessFile file = new RandomAccessFile(path, "rw");
+        MappedByteBuffer buffer;
+        try {
+            if (file.length() < size) {
+                throw new IOException(path + " is not a segment of " + segmentRows + " rows");
+            }
+            buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        } finally {
+            file.close();
+        }
+        if (buffer.getInt(0) != Segment.MAGIC || buffer.getInt(4) != Segment.VERSION
+                || buffer.getInt(Segment.CAPACITY_OFFSET) != segmentRows) {
+            throw new IOException(path + " is not a segment of " + segmentRows + " rows");
+        }
+        int stored = Math.max(0, Math.min(buffer.getInt(Segment.ROWS_OFFSET), segmentRows));
+        current[b] = buffer;
+        segment[b] = index;
+        rows[b] = stored;
+        if (stored > 0) {
+            lastTimestamp[b] = buffer.getLong(Segment.timestampOffset(stored - 1));
+        }
+    }
+
+    /**
+     * Flushes every open segment to storage. The files stay readable and
+     * complete; the writer accepts no more frames afterwards.
+     */
+    @Override
+    public void close() {
+        for (int b = 0; b < BANDS.length; b++) {
+            if (current[b] != null) {
+                current[b].force();
+                current[b] = null;
+            }
+        }
+        closed = true;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    public long getWritten() {
+        return written;
+    }
+
+    /**
+     * Frames dropped for being slightly older than their band's last row.
+     */
+    public long getOutOfOrder() {
+        return outOfOrder;
+    }
+
+    /**
+     * Times the headband's clock was seen to restart.
+     */
+    public long getRestarts() {
+        return restarts;
+    }
+
+    /**
+     * Rows stored shifted after a clock restart.
+     */
+    public long getRebased() {
+        return rebased;
+    }
+
+    /**
+     * The error that stopped the writer, or null while it is running.
+     */
+    public IOException getFailure() {
+        return failure;
+    }
+}
@@ -0,0 +1,105 @@
+package driveware.com.synthetic;
+
+import java.util.Random;
+
+import com.interaxon.libmuse.Eeg;
+import com.interaxon.libmuse.MuseDataPacketType;
+
+import driveware.com.detection.Band;
+import driveware.com.detection.PacketSink;
+
+/**
+ * Generates raw EEG packets without a headband, for running and
+ * benchmarking BandPowerEstimator on a plain JVM.
+ *
+ * Each band is a sine at the middle of its range whose power is set by
+ * the band's relative level, on top of the ~800 uV offset Muse reports and
+ * gaussian noise. Every channel gets its own phases. Gamma takes the
+ * remainder so the levels sum to 1, like in SyntheticPacketSource.
+ *
+ * Output is deterministic for a given seed and emit() does not allocate.
+ * Not thread safe.
+ */
+public class SyntheticEegSource {
+
+    private static final int CHANNELS = Eeg.values().length;
+    private static final Band[] BANDS = Band.values();
+    private static final double OFFSET = 800.0d;
+    private static final double AMPLITUDE = 20.0d;
+
+    private final Random random;
+    private final double[] values = new double[CHANNELS];
+    private final double[] amplitudes = new double[BANDS.length];
+    private final double[] frequencies = new double[BANDS.length];
+    private final double[][] phases = new double[BANDS.length][CHANNELS];
+
+    private double sampleRate = 220.0d;
+    private double noise = 0.5d;
+    private long step;
+
+    public SyntheticEegSource(long seed) {
+        this.random = new Random(seed);
+        for (int b = 0; b < BANDS.length; b++) {
+            frequencies[b] = (BANDS[b].getLowHz() + BANDS[b].getHighHz()) / 2;
+            for (int c = 0; c < CHANNELS; c++) {
+                phases[b][c] = 2.0d * Math.PI * random.nextDouble();
+            }
+        }
+        setLevels(0.25d, 0.30d, 0.15d, 0.20d);
+    }
+
+    public SyntheticEegSource setSampleRate(double hz) {
+        this.sampleRate = hz;
+        return this;
+    }
+
+    /**
+     * Relative power of each band, gamma gets 1 minus the others.
+     */
+    public SyntheticEegSource setLevels(double alpha, double beta,
+                                        double theta, double delta) {
+        double gamma = Math.max(0.0d, 1.0d - alpha - beta - theta - delta);
+        setLevel(Band.ALPHA, alpha);
+        setLevel(Band.BETA, beta);
+        setLevel(Band.THETA, theta);
+        setLevel(Band.DELTA, delta);
+        setLevel(Band.GAMMA, gamma);
+        return this;
+    }
+
+    private void setLevel(Band band, double level) {
+        // A sine of amplitude a carries a^2 / 2 of power.
+        amplitudes[band.ordinal()] = AMPLITUDE * Math.sqrt(2.0d * level);
+    }
+
+    public SyntheticEegSource setNoise(double stddev) {
+        this.noise = stddev;
+        return this;
+    }
+
+    /**
+     * Timestamp of the next packet in microseconds, the unit libmuse uses.
+     */
+    public long getTimestamp() {
+        return (long) (step * 1e6d / sampleRate);
+    }
+
+    /**
+     * Emits one EEG packet into the sink and advances time by one sample.
+     * Returns whether the sink accepted it.
+     */
+    public boolean emit(PacketSink sink) {
+        double t = step / sampleRate;
+        for (int c = 0; c < CHANNELS; c++) {
+            double v = OFFSET + noise * random.nextGaussian();
+            for (int b = 0; b < BANDS.length; b++) {
+                v += amplitudes[b]
+                        * Math.sin(2.0d * Math.PI * frequencies[b] * t + phases[b][c]);
+            }
+            values[c] = v;
+        }
+        long timestamp = getTimestamp();
+        step++;
+        return sink.offer(MuseDataPacketType.EEG, timestamp, values, CHANNELS);
+    }
+}
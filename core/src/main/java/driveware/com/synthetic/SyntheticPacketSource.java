@@ -0,0 +1,205 @@
+package driveware.com.synthetic;
+
+import java.util.Random;
+
+import com.interaxon.libmuse.Eeg;
+import com.interaxon.libmuse.MuseDataPacketType;
+
+import driveware.com.detection.ArtifactGate;
+import driveware.com.detection.Band;
+import driveware.com.detection.PacketSink;
+
+/**
+ * Generates relative band power packets without a headband, for running
+ * and benchmarking the detector on a plain JVM.
+ *
+ * Each step emits one *_RELATIVE packet per band and one ARTIFACTS frame,
+ * like libmuse does at packetRate Hz. The trace has:
+ * - baseline alpha/beta/theta/delta levels plus gaussian noise, gamma
+ *   taking the remainder so the five bands sum to 1;
+ * - periodic drowsy episodes raising alpha and theta and lowering beta;
+ * - blink artifacts, which boost delta and suppress alpha on FP1/FP2 and
+ *   are flagged in the ARTIFACTS frame;
+ * - random NaN channel dropouts.
+ *
+ * Output is deterministic for a given seed and emit() does not allocate.
+ * Not thread safe.
+ */
+public class SyntheticPacketSource {
+
+    private static final int CHANNELS = Eeg.values().length;
+    private static final Band[] BANDS = Band.values();
+
+    private final Random random;
+    private final double[] values = new double[CHANNELS];
+    private final double[] artifacts = new double[ArtifactGate.VALUES];
+    private final double[][] levels = new double[BANDS.length][CHANNELS];
+
+    private double packetRate = 10.0d;
+    private double alphaLevel = 0.25d;
+    private double betaLevel = 0.30d;
+    private double thetaLevel = 0.15d;
+    private double deltaLevel = 0.20d;
+    private double noise = 0.03d;
+
+    private double drowsyPeriod = 120.0d;
+    private double drowsyDuration = 20.0d;
+    private double drowsyAlphaBoost = 0.25d;
+    private double drowsyThetaBoost = 0.10d;
+    private double drowsyBetaDrop = 0.15d;
+
+    private double blinkRate = 0.3d;
+    private double blinkDuration = 0.3d;
+    private double dropoutProbability = 0.01d;
+
+    private long step;
+    private double blinkUntil = -1.0d;
+
+    public SyntheticPacketSource(long seed) {
+        this.random = new Random(seed);
+    }
+
+    public SyntheticPacketSource setPacketRate(double hz) {
+        this.packetRate = hz;
+        return this;
+    }
+
+    public SyntheticPacketSource setLevels(double alpha, double beta,
+                                           double theta, double delta) {
+        this.alphaLevel = alpha;
+        this.betaLevel = beta;
+        this.thetaLevel = theta;
+        this.deltaLevel = delta;
+        return this;
+    }
+
+    public SyntheticPacketSource setNoise(double stddev) {
+        this.noise = stddev;
+        return this;
+    }
+
+    /**
+     * Drowsy episodes of the given length start every period seconds.
+     * A zero duration disables them.
+     */
+    public SyntheticPacketSource setDrowsiness(double periodSeconds,
+                                               double durationSeconds,
+                                               double alphaBoost,
+                                               double thetaBoost,
+                                               double betaDrop) {
+        this.drowsyPeriod = periodSeconds;
+        this.drowsyDuration = durationSeconds;
+        this.drowsyAlphaBoost = alphaBoost;
+        this.drowsyThetaBoost = thetaBoost;
+        this.drowsyBetaDrop = betaDrop;
+        return this;
+    }
+
+    public SyntheticPacketSource setBlinks(double perSecond,
+                                           double durationSeconds) {
+        this.blinkRate = perSecond;
+        this.blinkDuration = durationSeconds;
+        return this;
+    }
+
+    public SyntheticPacketSource setDropoutProbability(double p) {
+        this.dropoutProbability = p;
+        return this;
+    }
+
+    /**
+     * Seconds of simulated time since the first packet.
+     */
+    public double getTime() {
+        return step / packetRate;
+    }
+
+    /**
+     * Timestamp of the next packets in microseconds, the unit libmuse uses.
+     */
+    public long getTimestamp() {
+        return (long) (step * 1e6d / packetRate);
+    }
+
+    /**
+     * Ground truth: whether the current step is inside a drowsy episode.
+     */
+    public boolean isDrowsy() {
+        return drowsyDuration > 0.0d
+                && getTime() % drowsyPeriod >= drowsyPeriod - drowsyDuration;
+    }
+
+    public boolean isBlinking() {
+        return getTime() < blinkUntil;
+    }
+
+    /**
+     * Emits one packet per band and the artifact flags for the current
+     * step into the sink and advances time. Returns the number of packets
+     * the sink accepted.
+     */
+    public int emit(PacketSink sink) {
+        double time = getTime();
+        if (!isBlinking() && random.nextDouble() < blinkRate / packetRate) {
+            blinkUntil = time + blinkDuration;
+        }
+        computeLevels();
+        long timestamp = getTimestamp();
+        int accepted = 0;
+        for (int b = 0; b < BANDS.length; b++) {
+            for (int c = 0; c < CHANNELS; c++) {
+                values[c] = random.nextDouble() < dropoutProbability
+                        ? Double.NaN : levels[b][c];
+            }
+            if (sink.offer(BANDS[b].getRelativeType(), timestamp,
+                    values, CHANNELS)) {
+                accepted++;
+            }
+        }
+        artifacts[ArtifactGate.HEADBAND_ON] = 1.0d;
+        artifacts[ArtifactGate.BLINK] = isBlinking() ? 1.0d : 0.0d;
+        artifacts[ArtifactGate.JAW_CLENCH] = 0.0d;
+        if (sink.offer(MuseDataPacketType.ARTIFACTS, timestamp,
+                artifacts, ArtifactGate.VALUES)) {
+            accepted++;
+        }
+        step++;
+        return accepted;
+    }
+
+    private void computeLevels() {
+        boolean drowsy = isDrowsy();
+        boolean blink = isBlinking();
+        for (int c = 0; c < CHANNELS; c++) {
+            double alpha = alphaLevel;
+            double beta = betaLevel;
+            double theta = thetaLevel;
+            double delta = deltaLevel;
+            if (drowsy) {
+                alpha += drowsyAlphaBoost;
+                theta += drowsyThetaBoost;
+                beta -= drowsyBetaDrop;
+            }
+            boolean frontal = c == Eeg.FP1.ordinal() || c == Eeg.FP2.ordinal();
+            if (blink && frontal) {
+                delta += 0.4d;
+                alpha *= 0.5d;
+            }
+            alpha = positive(alpha + noise * random.nextGaussian());
+            beta = positive(beta + noise * random.nextGaussian());
+            theta = positive(theta + noise * random.nextGaussian());
+            delta = positive(delta + noise * random.nextGaussian());
+            double gamma = positive(1.0d - alpha - beta - theta - delta);
+            double total = alpha + beta + theta + delta + gamma;
+            levels[Band.ALPHA.ordinal()][c] = alpha / total;
+            levels[Band.BETA.ordinal()][c] = beta / total;
+            levels[Band.THETA.ordinal()][c] = theta / total;
+            levels[Band.DELTA.ordinal()][c] = delta / total;
+            levels[Band.GAMMA.ordinal()][c] = gamma / total;
+        }
+    }
+
+    private static double positive(double v) {
+        return v < 0.001d ? 0.001d : v;
+    }
+}
@@ -0,0 +1,156 @@
+package driveware.com.telemetry;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.interaxon.libmuse.Battery;
+import com.interaxon.libmuse.Eeg;
+import com.interaxon.libmuse.MuseDataPacket;
+import com.interaxon.libmuse.MuseDataPacketType;
+
+/**
+ * Health of one headband's link and electrodes: packet arrivals and the
+ * gaps between them, per-electrode contact from HORSESHOE packets and the
+ * headband battery from BATTERY packets.
+ *
+ * The packet side only bumps counters. onPacket() is O(1), does not
+ * allocate and takes no lock; offer() reads the values of the two
+ * low-rate packet types. Both must be called from the headband's libmuse
+ * thread. rollup() turns the counters into a TelemetryRollup of the time
+ * since the previous call and must be called from one other thread, e.g.
+ * every TelemetryRollup.DEFAULT_INTERVAL_MILLIS. A packet counted while
+ * rollup() runs may land in either interval.
+ */
+public final class LinkTelemetry {
+
+    public static final int CHANNELS = Eeg.values().length;
+
+    /**
+     * Horseshoe values are 1 good, 2 ok, 3 bad and 4 off the head.
+     */
+    public static final double BAD_CONTACT = 3.0d;
+
+    /**
+     * A gap between two packets longer than this counts as late; the
+     * slowest stream we register arrives at 10 Hz.
+     */
+    public static final long LATE_GAP_NANOS = 250000000L;
+
+    private static final int PERCENT = Battery.CHARGE_PERCENTAGE_REMAINING.ordinal();
+    private static final int MILLIVOLTS = Battery.MILLIVOLTS.ordinal();
+
+    // Written by the libmuse thread.
+    private volatile long packets;
+    private volatile long lateGaps;
+    private volatile long lastNanos = -1;
+    // Reset by rollup(), so written by both threads.
+    private final AtomicLong maxGapNanos = new AtomicLong();
+    private volatile long horseshoes;
+    // Doubles stored as raw long bits.
+    private final AtomicLongArray contactSums = new AtomicLongArray(CHANNELS);
+    private final AtomicLongArray badCounts = new AtomicLongArray(CHANNELS);
+    private volatile double batteryPercent = Double.NaN;
+    private volatile double batteryMillivolts = Double.NaN;
+
+    // Owned by the rollup thread.
+    private long rolledPackets;
+    private long rolledLate;
+    private long rolledHorseshoes;
+    private final double[] rolledSums = new double[CHANNELS];
+    private final long[] rolledBad = new long[CHANNELS];
+
+    /**
+     * Counts one packet of any type arriving at the given System.nanoTime().
+     */
+    public void onPacket(long nanos) {
+        packets++;
+        if (lastNanos >= 0) {
+            long gap = nanos - lastNanos;
+            if (gap > LATE_GAP_NANOS) {
+                lateGaps++;
+            }
+            long max = maxGapNanos.get();
+            while (gap > max && !maxGapNanos.compareAndSet(max, gap)) {
+                max = maxGapNanos.get();
+            }
+        }
+        lastNanos = nanos;
+    }
+
+    /**
+     * Reads HORSESHOE and BATTERY values; other packet types are ignored.
+     * Does not count the packet, see onPacket().
+     */
+    public void offer(MuseDataPacket p) {
+        MuseDataPacketType type = p.getPacketType();
+        if (type == MuseDataPacketType.HORSESHOE) {
+            List<Double> values = p.getValues();
+            int n = Math.min(values.size(), CHANNELS);
+            for (int c = 0; c < n; c++) {
+                double v = values.get(c);
+                contactSums.lazySet(c, Double.doubleToRawLongBits(
+                        Double.longBitsToDouble(contactSums.get(c)) + v));
+                if (v >= BAD_CONTACT) {
+                    badCounts.lazySet(c, badCounts.get(c) + 1);
+                }
+            }
+            horseshoes++;
+        } else if (type == MuseDataPacketType.BATTERY) {
+            List<Double> values = p.getValues();
+            if (values.size() > MILLIVOLTS) {
+                batteryPercent = values.get(PERCENT);
+                batteryMillivolts = values.get(MILLIVOLTS);
+            }
+        }
+    }
+
+    /**
+     * Summarises everything counted since the previous rollup.
+     *
+     * @param startMillis wall clock time the interval started
+     * @param durationMillis length of the interval
+     * @param nowNanos System.nanoTime() now, to count a gap still open
+     */
+    public TelemetryRollup rollup(long startMillis, long durationMillis, long nowNanos) {
+        long p = packets;
+        long late = lateGaps;
+        long maxGap = maxGapNanos.getAndSet(0);
+        long last = lastNanos;
+        if (last >= 0 && nowNanos - last > maxGap) {
+            // Nothing arrived for a while, which is the gap that matters.
+            maxGap = nowNanos - last;
+        }
+        long h = horseshoes;
+        long dh = h - rolledHorseshoes;
+        float[] contact = new float[CHANNELS];
+        float[] bad = new float[CHANNELS];
+        for (int c = 0; c < CHANNELS; c++) {
+            double sum = Double.longBitsToDouble(contactSums.get(c));
+            long badCount = badCounts.get(c);
+            contact[c] = dh > 0 ? (float) ((sum - rolledSums[c]) / dh) : Float.NaN;
+            bad[c] = dh > 0 ? (float) (badCount - rolledBad[c]) / dh : Float.NaN;
+            rolledSums[c] = sum;
+            rolledBad[c] = badCount;
+        }
+        TelemetryRollup rollup = new TelemetryRollup(startMillis, (int) durationMillis,
+                (int) (p - rolledPackets), (int) (late - rolledLate),
+                (int) (maxGap / 1000000L), (float) batteryPercent,
+                (float) batteryMillivolts, contact, bad);
+        rolledPackets = p;
+        rolledLate = late;
+        rolledHorseshoes = h;
+        return rollup;
+    }
+
+    /**
+     * Packets counted since creation.
+     */
+    public long getPackets() {
+        return packets;
+    }
+
+    public double getBatteryPercent() {
+        return batteryPercent;
+    }
+}
@@ -0,0 +1,235 @@
+package driveware.com.telemetry;
+
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.interaxon.libmuse.MuseDataPacketType;
+
+/**
+ * Watches that every registered packet type keeps arriving at its own
+ * cadence, so a stalled Bluetooth link is told apart from a driver who is
+ * simply awake: both look like "no alarm" to the detector.
+ *
+ * Per type, offer() keeps exponentially weighted statistics of the
+ * interval between packet timestamps: its mean (the expected cadence)
+ * and standard deviation (the jitter). An interval longer than
+ * GAP_FACTOR times the mean is a sequence gap, with about interval/mean -
+ * 1 packets missing; a timestamp before the previous one is counted as
+ * out of order. offer() is O(1), allocation free and must be called from
+ * the headband's libmuse thread.
+ *
+ * A stall cannot be seen from the packet thread, since no packet comes.
+ * check() is called periodically from one other thread with the types
+ * currently registered: the stream is degraded while one of them, once
+ * its cadence is known, has had no packet for stallNanos or STALL_FACTOR
+ * intervals, whichever is longer. A type that was just registered gets
+ * that long from its registration. Once check() has seen a type leave the
+ * registered set, offer() forgets its last timestamp until check() sees it
+ * registered again, so the first interval after e.g. a LEAN period
+ * without EEG is not taken for a sequence gap.
+ */
+public final class StreamHealthMonitor {
+
+    public static final long DEFAULT_STALL_NANOS = 1000000000L;
+    static final double GAP_FACTOR = 2.5d;
+    static final double STALL_FACTOR = 10.0d;
+    // Intervals needed before a type's cadence is trusted.
+    static final int MIN_INTERVALS = 32;
+    static final double ALPHA = 1.0d / 64.0d;
+
+    private static final MuseDataPacketType[] TYPES = MuseDataPacketType.values();
+
+    private final long stallNanos;
+
+    // Written by the libmuse thread.
+    private final long[] lastTimestamp = new long[TYPES.length];
+    private final long[] intervals = new long[TYPES.length];
+    private final double[] meanMicros = new double[TYPES.length];
+    private final double[] varMicros = new double[TYPES.length];
+    // Published to the checking thread, doubles as raw long bits.
+    private final AtomicLongArray lastArrival = new AtomicLongArray(TYPES.length);
+    private final AtomicLongArray cadence = new AtomicLongArray(TYPES.length);
+    private final AtomicLongArray jitter = new AtomicLongArray(TYPES.length);
+    private final AtomicLongArray gaps = new AtomicLongArray(TYPES.length);
+    private final AtomicLongArray missing = new AtomicLongArray(TYPES.length);
+    private final AtomicLongArray outOfOrder = new AtomicLongArray(TYPES.length);
+    // Set by the checking thread while a type is not registered.
+    private final AtomicIntegerArray unwatched = new AtomicIntegerArray(TYPES.length);
+
+    // Owned by the checking thread.
+    private final boolean[] watched = new boolean[TYPES.length];
+    private final long[] watchedSince = new long[TYPES.length];
+    private MuseDataPacketType stalled;
+    private long stalledNanos;
+    private volatile boolean degraded;
+    private volatile long degradations;
+
+    public StreamHealthMonitor() {
+        this(DEFAULT_STALL_NANOS);
+    }
+
+    public StreamHealthMonitor(long stallNanos) {
+        if (stallNanos <= 0) {
+            throw new IllegalArgumentException("stallNanos must be positive");
+        }
+        this.stallNanos = stallNanos;
+        for (int i = 0; i < TYPES.length; i++) {
+            lastTimestamp[i] = Long.MIN_VALUE;
+            cadence.set(i, Double.doubleToRawLongBits(Double.NaN));
+            jitter.set(i, Double.doubleToRawLongBits(Double.NaN));
+        }
+    }
+
+    /**
+     * Feeds one packet: its type, libmuse timestamp in microseconds and
+     * System.nanoTime() of its arrival. Returns the length of the sequence
+     * gap it ends in microseconds, 0 if there is none.
+     */
+    public long offer(MuseDataPacketType type, long timestamp, long nanos) {
+        int t = type.ordinal();
+        lastArrival.lazySet(t, nanos);
+        if (unwatched.get(t) != 0) {
+            // In flight from before unregistering, or registered again
+            // since the last check(): measure from a later packet.
+            lastTimestamp[t] = Long.MIN_VALUE;
+            return 0;
+        }
+        long previous = lastTimestamp[t];
+        if (previous == Long.MIN_VALUE) {
+            lastTimestamp[t] = timestamp;
+            return 0;
+        }
+        long interval = timestamp - previous;
+        if (interval < 0) {
+            // Also a headband whose clock restarted after a reconnect, so
+            // the next packets are measured from this one.
+            outOfOrder.lazySet(t, outOfOrder.get(t) + 1);
+            lastTimestamp[t] = timestamp;
+            return 0;
+        }
+        if (interval == 0) {
+            // Several packets decoded from one frame share its timestamp.
+            return 0;
+        }
+        lastTimestamp[t] = timestamp;
+        long n = ++intervals[t];
+        double mean = meanMicros[t];
+        if (n > MIN_INTERVALS && interval > GAP_FACTOR * mean) {
+            // Not learned from, or one dropout would stretch the cadence.
+            gaps.lazySet(t, gaps.get(t) + 1);
+            missing.lazySet(t, missing.get(t) + Math.round(interval / mean) - 1);
+            return interval;
+        }
+        if (n == 1) {
+            meanMicros[t] = interval;
+        } else {
+            // Plain averages until MIN_INTERVALS, then exponential.
+            double a = n <= MIN_INTERVALS ? 1.0d / n : ALPHA;
+            double delta = interval - mean;
+            meanMicros[t] = mean + a * delta;
+            varMicros[t] = (1.0d - a) * (varMicros[t] + a * delta * delta);
+        }
+        if (n >= MIN_INTERVALS) {
+            cadence.lazySet(t, Double.doubleToRawLongBits(meanMicros[t]));
+            jitter.lazySet(t, Double.doubleToRawLongBits(Math.sqrt(varMicros[t])));
+        }
+        return 0;
+    }
+
+    /**
+     * Updates and returns whether the stream is degraded.
+     *
+     * @param registered packet types currently registered with the Muse
+     * @param nowNanos System.nanoTime() now
+     */
+    public boolean check(Set<MuseDataPacketType> registered, long nowNanos) {
+        MuseDataPacketType worst = null;
+        long worstSilence = 0;
+        for (MuseDataPacketType type : TYPES) {
+            int t = type.ordinal();
+            if (!registered.contains(type)) {
+                if (watched[t]) {
+                    watched[t] = false;
+                    unwatched.set(t, 1);
+                }
+                continue;
+            }
+            if (!watched[t]) {
+                watched[t] = true;
+                watchedSince[t] = nowNanos;
+                unwatched.set(t, 0);
+            }
+            double mean = Double.longBitsToDouble(cadence.get(t));
+            if (Double.isNaN(mean)) {
+                continue;
+            }
+            long limit = Math.max(stallNanos, (long) (STALL_FACTOR * mean * 1000.0d));
+            long silence = nowNanos - Math.max(lastArrival.get(t), watchedSince[t]);
+            if (silence > limit && silence > worstSilence) {
+                worst = type;
+                worstSilence = silence;
+            }
+        }
+        stalled = worst;
+        stalledNanos = worstSilence;
+        boolean now = worst != null;
+        if (now && !degraded) {
+            degradations++;
+        }
+        degraded = now;
+        return now;
+    }
+
+    public boolean isDegraded() {
+        return degraded;
+    }
+
+    /**
+     * The silent type found by the last check(), null if none.
+     */
+    public MuseDataPacketType getStalled() {
+        return stalled;
+    }
+
+    /**
+     * How long the stalled type had been silent at the last check().
+     */
+    public long getStalledNanos() {
+        return stalledNanos;
+    }
+
+    public long getDegradations() {
+        return degradations;
+    }
+
+    /**
+     * Mean interval between packets of a type in microseconds, NaN until
+     * MIN_INTERVALS were seen.
+     */
+    public double getCadenceMicros(MuseDataPacketType type) {
+        return Double.longBitsToDouble(cadence.get(type.ordinal()));
+    }
+
+    /**
+     * Standard deviation of that interval in microseconds.
+     */
+    public double getJitterMicros(MuseDataPacketType type) {
+        return Double.longBitsToDouble(jitter.get(type.ordinal()));
+    }
+
+    public long getGaps(MuseDataPacketType type) {
+        return gaps.get(type.ordinal());
+    }
+
+    /**
+     * Packets estimated missing in the gaps of a type.
+     */
+    public long getMissing(MuseDataPacketType type) {
+        return missing.get(type.ordinal());
+    }
+
+    public long getOutOfOrder(MuseDataPacketType type) {
+        return outOfOrder.get(type.ordinal());
+    }
+}
@@ -0,0 +1,156 @@
+package driveware.com.telemetry;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Append-only file of TelemetryRollups, one fixed-size record per
+ * interval, so a chart can seek to any bucket and a drive's telemetry
+ * stays a few kilobytes an hour.
+ *
+ * Layout, big endian: int MAGIC, int VERSION, int channel count, then per
+ * rollup: long startMillis, int durationMillis, int packets, int
+ * lateGaps, int maxGapMillis, float batteryPercent, float
+ * batteryMillivolts, then the mean contact and the bad contact fraction of
+ * every channel as floats.
+ *
+ * Each record is flushed as it is appended, so a crash loses at most the
+ * interval in progress. read() stops at a truncated last record. Opening
+ * an existing log, e.g. for the same headband connected again within one
+ * recording stamp, appends to it after checking its header and cutting
+ * off a truncated last record. Not thread-safe.
+ */
+public final class TelemetryLog implements Closeable {
+
+    static final int MAGIC = 0x4457544C;  // "DWTL"
+    static final int VERSION = 1;
+    static final int HEADER = 12;
+
+    private final DataOutputStream out;
+    private final int channels;
+    private long written;
+
+    public TelemetryLog(File file, int channels) throws IOException {
+        this.channels = channels;
+        boolean existing = file.length() > 0;
+        if (existing) {
+            trimToRecords(file, channels);
+        }
+        out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file, true), 4096));
+        if (!existing) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(channels);
+            out.flush();
+        }
+    }
+
+    private static void trimToRecords(File file, int channels) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            if (raf.length() < HEADER || raf.readInt() != MAGIC || raf.readInt() != VERSION) {
+                throw new IOException(file + " is not a telemetry log");
+            }
+            int stored = raf.readInt();
+            if (stored != channels) {
+                throw new IOException(file + " has " + stored + " channels, log " + channels);
+            }
+            int size = recordSize(channels);
+            raf.setLength(HEADER + (raf.length() - HEADER) / size * size);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Bytes per rollup for the given channel count.
+     */
+    public static int recordSize(int channels) {
+        return 8 + 4 * 4 + 2 * 4 + channels * 2 * 4;
+    }
+
+    public void append(TelemetryRollup rollup) throws IOException {
+        if (rollup.getChannels() != channels) {
+            throw new IllegalArgumentException("rollup has " + rollup.getChannels()
+                    + " channels, log " + channels);
+        }
+        out.writeLong(rollup.getStartMillis());
+        out.writeInt(rollup.getDurationMillis());
+        out.writeInt(rollup.getPackets());
+        out.writeInt(rollup.getLateGaps());
+        out.writeInt(rollup.getMaxGapMillis());
+        out.writeFloat(rollup.getBatteryPercent());
+        out.writeFloat(rollup.getBatteryMillivolts());
+        for (int c = 0; c < channels; c++) {
+            out.writeFloat(rollup.getContact(c));
+        }
+        for (int c = 0; c < channels; c++) {
+            out.writeFloat(rollup.getBadContact(c));
+        }
+        out.flush();
+        written++;
+    }
+
+    public long getWritten() {
+        return written;
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+
+    public static List<TelemetryRollup> read(File file) throws IOException {
+        DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file), 1 << 16));
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException(file + " is not a telemetry log");
+            }
+            int channels = in.readInt();
+            if (channels < 0 || channels > 64) {
+                throw new IOException(file + " has " + channels + " channels");
+            }
+            List<TelemetryRollup> rollups = new ArrayList<TelemetryRollup>();
+            while (true) {
+                TelemetryRollup rollup;
+                try {
+                    long start = in.readLong();
+                    int duration = in.readInt();
+                    int packets = in.readInt();
+                    int late = in.readInt();
+                    int maxGap = in.readInt();
+                    float percent = in.readFloat();
+                    float millivolts = in.readFloat();
+                    float[] contact = new float[channels];
+                    float[] bad = new float[channels];
+                    for (int c = 0; c < channels; c++) {
+                        contact[c] = in.readFloat();
+                    }
+                    for (int c = 0; c < channels; c++) {
+                        bad[c] = in.readFloat();
+                    }
+                    rollup = new TelemetryRollup(start, duration, packets, late,
+                            maxGap, percent, millivolts, contact, bad);
+                } catch (EOFException e) {
+                    return rollups;
+                }
+                rollups.add(rollup);
+            }
+        } finally {
+            in.close();
+        }
+    }
+}
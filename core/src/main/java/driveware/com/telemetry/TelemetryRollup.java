@@ -0,0 +1,126 @@
+package driveware.com.telemetry;
+
+import java.util.Locale;
+
+/**
+ * One fixed interval of a headband's LinkTelemetry: packets received, how
+ * late they came, the last known battery and the mean contact and
+ * fraction of bad contact per electrode, in Eeg order. Contact values are
+ * NaN for an interval without HORSESHOE packets, battery values until the
+ * first BATTERY packet.
+ */
+public final class TelemetryRollup {
+
+    public static final long DEFAULT_INTERVAL_MILLIS = 10000L;
+
+    private final long startMillis;
+    private final int durationMillis;
+    private final int packets;
+    private final int lateGaps;
+    private final int maxGapMillis;
+    private final float batteryPercent;
+    private final float batteryMillivolts;
+    private final float[] contact;
+    private final float[] badContact;
+
+    public TelemetryRollup(long startMillis, int durationMillis, int packets,
+                           int lateGaps, int maxGapMillis, float batteryPercent,
+                           float batteryMillivolts, float[] contact,
+                           float[] badContact) {
+        this.startMillis = startMillis;
+        this.durationMillis = durationMillis;
+        this.packets = packets;
+        this.lateGaps = lateGaps;
+        this.maxGapMillis = maxGapMillis;
+        this.batteryPercent = batteryPercent;
+        this.batteryMillivolts = batteryMillivolts;
+        this.contact = contact;
+        this.badContact = badContact;
+    }
+
+    /**
+     * Wall clock time the interval started.
+     */
+    public long getStartMillis() {
+        return startMillis;
+    }
+
+    public int getDurationMillis() {
+        return durationMillis;
+    }
+
+    public int getPackets() {
+        return packets;
+    }
+
+    public double getPacketRate() {
+        return durationMillis > 0 ? packets * 1000.0d / durationMillis : 0.0d;
+    }
+
+    /**
+     * Gaps between packets longer than LinkTelemetry.LATE_GAP_NANOS.
+     */
+    public int getLateGaps() {
+        return lateGaps;
+    }
+
+    /**
+     * Longest time without a packet, including one still open at the end.
+     */
+    public int getMaxGapMillis() {
+        return maxGapMillis;
+    }
+
+    public float getBatteryPercent() {
+        return batteryPercent;
+    }
+
+    public float getBatteryMillivolts() {
+        return batteryMillivolts;
+    }
+
+    /**
+     * Mean horseshoe value of a channel, 1 good to 4 off the head.
+     */
+    public float getContact(int channel) {
+        return contact[channel];
+    }
+
+    /**
+     * Fraction of HORSESHOE packets with bad contact on a channel.
+     */
+    public float getBadContact(int channel) {
+        return badContact[channel];
+    }
+
+    public int getChannels() {
+        return contact.length;
+    }
+
+    /**
+     * Channels with bad contact in more than half of the interval.
+     */
+    public int getDegradedChannels() {
+        int n = 0;
+        for (float f : badContact) {
+            if (f > 0.5f) {
+                n++;
+            }
+        }
+        return n;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder s = new StringBuilder();
+        s.append(String.format(Locale.US,
+                "%.1f packets/s, %d late, max gap %d ms, battery %.0f%% %.0f mV, contact",
+                getPacketRate(), lateGaps, maxGapMillis, batteryPercent,
+                batteryMillivolts));
+        for (int c = 0; c < contact.length; c++) {
+            s.append(String.format(Locale.US, " %.1f/%.0f%%",
+                    contact[c], badContact[c] * 100.0f));
+        }
+        return s.toString();
+    }
+}
@@ -0,0 +1,225 @@
+package driveware.com.detection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import driveware.com.detection.DrowsinessStateMachine.State;
+
+public class DrowsinessStateMachineTest {
+
+    private static final long SECOND = 1000000L;
+    // Alpha frames at 10 Hz.
+    private static final long FRAME = 100000L;
+
+    private DrowsinessStateMachine states;
+    private long timestamp;
+
+    @Before
+    public void setUp() {
+        // Enter at 0.5, exit below 0.3; suspect 1 s, drowsy 1 s, repeat
+        // 5 s, recover 10 s, acknowledge 20 s, frames at most 1 s apart.
+        states = new DrowsinessStateMachine(0.5d, 0.3d, SECOND, SECOND,
+                5 * SECOND, 10 * SECOND, 20 * SECOND, SECOND);
+        timestamp = 0;
+    }
+
+    private boolean feed(double score) {
+        timestamp += FRAME;
+        return states.update(timestamp, score);
+    }
+
+    /**
+     * Feeds frames until the first alarm, at most limit of them, and
+     * returns how many it took, or -1 if none alarmed.
+     */
+    private int framesToAlarm(double score, int limit) {
+        for (int i = 1; i <= limit; i++) {
+            if (feed(score)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int alarms(double score, int frames) {
+        int alarms = 0;
+        for (int i = 0; i < frames; i++) {
+            if (feed(score)) {
+                alarms++;
+            }
+        }
+        return alarms;
+    }
+
+    @Test
+    public void staysAwakeBelowTheEnterScore() {
+        assertEquals(0, alarms(0.49d, 600));
+        assertEquals(State.AWAKE, states.getState());
+        assertEquals(0, states.getTransitions());
+    }
+
+    @Test
+    public void holdsASuspicionBetweenTheThresholds() {
+        feed(0.6d);
+        assertEquals(State.DROWSY_SUSPECT, states.getState());
+        // Below the enter score but not the exit score: still suspect.
+        for (int i = 0; i < 9; i++) {
+            feed(0.4d);
+        }
+        assertEquals(State.DROWSY_SUSPECT, states.getState());
+        feed(0.4d);
+        assertEquals(State.DROWSY, states.getState());
+        assertEquals(1, states.getEpisodes());
+    }
+
+    @Test
+    public void dismissesASuspicionBelowTheExitScore() {
+        feed(0.6d);
+        feed(0.6d);
+        feed(0.29d);
+        assertEquals(State.AWAKE, states.getState());
+        assertEquals(1, states.getDismissed());
+        assertEquals(0, states.getEpisodes());
+    }
+
+    @Test
+    public void alarmsAfterTheSuspectAndDrowsyDwells() {
+        // Suspect at frame 1, DROWSY 1 s later, the alarm 1 s after that.
+        assertEquals(21, framesToAlarm(0.6d, 100));
+        assertEquals(State.ALARMING, states.getState());
+        assertEquals(1, states.getAlarms());
+    }
+
+    @Test
+    public void repeatsTheAlarmEveryRepeatInterval() {
+        framesToAlarm(0.6d, 100);
+        assertEquals(50, framesToAlarm(0.6d, 100));
+        assertEquals(2, states.getAlarms());
+        assertEquals(1, alarms(0.6d, 50));
+        assertEquals(State.ALARMING, states.getState());
+    }
+
+    @Test
+    public void recoversAfterTheRecoverDwellBelowTheExitScore() {
+        framesToAlarm(0.6d, 100);
+        feed(0.2d);
+        assertEquals(State.RECOVERING, states.getState());
+        for (int i = 0; i < 99; i++) {
+            feed(0.2d);
+        }
+        assertEquals(State.RECOVERING, states.getState());
+        feed(0.2d);
+        assertEquals(State.AWAKE, states.getState());
+    }
+
+    @Test
+    public void restartsTheRecoverDwellBetweenTheThresholds() {
+        framesToAlarm(0.6d, 100);
+        feed(0.2d);
+        for (int i = 0; i < 50; i++) {
+            feed(0.2d);
+        }
+        feed(0.4d);
+        for (int i = 0; i < 99; i++) {
+            feed(0.2d);
+        }
+        assertEquals(State.RECOVERING, states.getState());
+        feed(0.2d);
+        assertEquals(State.AWAKE, states.getState());
+    }
+
+    @Test
+    public void returnsToDrowsyWithoutANewSuspicion() {
+        framesToAlarm(0.6d, 100);
+        feed(0.2d);
+        feed(0.6d);
+        assertEquals(State.DROWSY, states.getState());
+        assertEquals(1, states.getEpisodes());
+        // The drowsy dwell again, without the suspect one.
+        assertEquals(10, framesToAlarm(0.6d, 100));
+    }
+
+    @Test
+    public void acknowledgeMutesTheAlarmThenAlarmsAgain() {
+        framesToAlarm(0.6d, 100);
+        states.acknowledge();
+        assertFalse(feed(0.6d));
+        assertEquals(1, states.getAcknowledged());
+        // Still drowsy: DROWSY at once, but muted for 20 s.
+        assertEquals(State.DROWSY, states.getState());
+        long acknowledgedAt = timestamp;
+        framesToAlarm(0.6d, 1000);
+        assertEquals(acknowledgedAt + 20 * SECOND, timestamp);
+        assertEquals(2, states.getAlarms());
+    }
+
+    @Test
+    public void ignoresAnAcknowledgeWhileNotAlarming() {
+        states.acknowledge();
+        assertEquals(21, framesToAlarm(0.6d, 100));
+        assertEquals(0, states.getAcknowledged());
+    }
+
+    @Test
+    public void keepsDwellTimesWhenTheClockGoesBack() {
+        for (int i = 0; i < 15; i++) {
+            feed(0.6d);
+        }
+        assertEquals(State.DROWSY, states.getState());
+        // Clock restarted: the frames before count as they did, and the
+        // first one after the restart adds no time.
+        timestamp -= 100 * SECOND;
+        assertEquals(7, framesToAlarm(0.6d, 100));
+        assertEquals(0, states.getGaps());
+    }
+
+    @Test
+    public void dismissesASuspicionAcrossAGap() {
+        feed(0.6d);
+        timestamp += 2 * SECOND;
+        feed(0.4d);
+        assertEquals(State.AWAKE, states.getState());
+        assertEquals(1, states.getDismissed());
+        assertEquals(1, states.getGaps());
+    }
+
+    @Test
+    public void confirmsOnlyContinuousEvidence() {
+        for (int i = 0; i < 15; i++) {
+            feed(0.6d);
+        }
+        assertEquals(State.DROWSY, states.getState());
+        timestamp += 2 * SECOND;
+        feed(0.4d);
+        assertEquals(State.RECOVERING, states.getState());
+        // Back to DROWSY, then a full drowsy dwell before the alarm.
+        assertEquals(11, framesToAlarm(0.6d, 100));
+    }
+
+    @Test
+    public void toleratesFramesUpToTheMaximumGap() {
+        feed(0.6d);
+        timestamp += SECOND - FRAME;
+        feed(0.6d);
+        assertEquals(State.DROWSY, states.getState());
+        assertEquals(0, states.getGaps());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsAnExitScoreAboveTheEnterScore() {
+        new DrowsinessStateMachine(0.3d, 0.5d, SECOND, SECOND, SECOND, SECOND,
+                SECOND, SECOND);
+    }
+
+    @Test
+    public void takesUpAnAcknowledgeOnANaNScore() {
+        framesToAlarm(0.6d, 100);
+        states.acknowledge();
+        assertFalse(feed(Double.NaN));
+        assertEquals(State.RECOVERING, states.getState());
+        assertEquals(1, states.getAcknowledged());
+    }
+}
@@ -0,0 +1,148 @@
+package driveware.com.detection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.interaxon.libmuse.MuseDataPacketType;
+
+public class PacketRingTest {
+
+    private final double[] values = new double[4];
+
+    private boolean offer(PacketRing ring, long timestamp) {
+        values[0] = timestamp;
+        return ring.offer(MuseDataPacketType.ALPHA_RELATIVE, timestamp, values, 4);
+    }
+
+    private static long take(PacketRing ring) {
+        BandFrame frame = ring.peek();
+        long timestamp = frame.getTimestamp();
+        assertEquals((double) timestamp, frame.get(0), 0.0d);
+        ring.release();
+        return timestamp;
+    }
+
+    @Test
+    public void roundsTheCapacityUpToAPowerOfTwo() {
+        assertEquals(2, new PacketRing(0).capacity());
+        assertEquals(2, new PacketRing(2).capacity());
+        assertEquals(8, new PacketRing(5).capacity());
+        assertEquals(8, new PacketRing(8).capacity());
+        assertEquals(16, new PacketRing(9).capacity());
+    }
+
+    @Test
+    public void startsEmpty() {
+        PacketRing ring = new PacketRing(4);
+        assertTrue(ring.isEmpty());
+        assertFalse(ring.isFull());
+        assertNull(ring.peek());
+    }
+
+    @Test
+    public void dropsAndCountsOnlyWhenFull() {
+        PacketRing ring = new PacketRing(4);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(offer(ring, i));
+        }
+        assertTrue(ring.isFull());
+        assertEquals(0, ring.getDropped());
+        assertFalse(offer(ring, 4));
+        assertEquals(1, ring.getDropped());
+        // Checking for space is not a drop.
+        assertTrue(ring.isFull());
+        assertEquals(1, ring.getDropped());
+
+        assertEquals(0, take(ring));
+        assertFalse(ring.isFull());
+        assertTrue(offer(ring, 5));
+        assertEquals(1, ring.getDropped());
+    }
+
+    @Test
+    public void keepsOrderAcrossWrapAround() {
+        PacketRing ring = new PacketRing(4);
+        long next = 0;
+        long expected = 0;
+        // Three at a time, so every slot is written at every phase.
+        for (int round = 0; round < 1000; round++) {
+            for (int i = 0; i < 3; i++) {
+                assertTrue(offer(ring, next++));
+            }
+            for (int i = 0; i < 3; i++) {
+                assertEquals(expected++, take(ring));
+            }
+            assertTrue(ring.isEmpty());
+            assertNull(ring.peek());
+        }
+        assertEquals(0, ring.getDropped());
+    }
+
+    @Test
+    public void peekReturnsTheSameFrameUntilReleased() {
+        PacketRing ring = new PacketRing(2);
+        offer(ring, 1);
+        offer(ring, 2);
+        assertEquals(1, ring.peek().getTimestamp());
+        assertEquals(1, ring.peek().getTimestamp());
+        ring.release();
+        assertEquals(2, ring.peek().getTimestamp());
+    }
+
+    @Test
+    public void copiesValuesOnOffer() {
+        PacketRing ring = new PacketRing(2);
+        offer(ring, 7);
+        values[0] = -1.0d;
+        BandFrame frame = ring.peek();
+        assertEquals(MuseDataPacketType.ALPHA_RELATIVE, frame.getType());
+        assertEquals(4, frame.getCount());
+        assertEquals(7.0d, frame.get(0), 0.0d);
+    }
+
+    @Test
+    public void handsEveryFrameOverBetweenTwoThreads() throws InterruptedException {
+        final PacketRing ring = new PacketRing(8);
+        final long frames = 1000000;
+        final long[] received = new long[1];
+        final boolean[] ordered = {true};
+        Thread consumer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                long expected = 0;
+                while (expected < frames) {
+                    BandFrame frame = ring.peek();
+                    if (frame == null) {
+                        Thread.yield();
+                        continue;
+                    }
+                    if (frame.getTimestamp() != expected
+                            || frame.get(0) != (double) expected) {
+                        ordered[0] = false;
+                    }
+                    ring.release();
+                    expected++;
+                }
+                received[0] = expected;
+            }
+        });
+        consumer.start();
+        double[] producerValues = new double[4];
+        for (long i = 0; i < frames; i++) {
+            while (ring.isFull()) {
+                Thread.yield();
+            }
+            producerValues[0] = i;
+            assertTrue(ring.offer(MuseDataPacketType.ALPHA_RELATIVE, i,
+                    producerValues, 4));
+        }
+        consumer.join();
+        assertEquals(frames, received[0]);
+        assertTrue(ordered[0]);
+        assertEquals(0, ring.getDropped());
+    }
+}
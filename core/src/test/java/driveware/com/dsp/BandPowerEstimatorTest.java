@@ -0,0 +1,192 @@
+package driveware.com.dsp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.interaxon.libmuse.MuseDataPacketType;
+
+import driveware.com.detection.Band;
+import driveware.com.detection.PacketSink;
+
+public class BandPowerEstimatorTest {
+
+    private static final double RATE = BandPowerEstimator.MUSE_SAMPLE_RATE;
+    private static final int WINDOW = BandPowerEstimator.DEFAULT_WINDOW;
+    private static final int HOP = 11;
+    private static final int CHANNELS = 4;
+
+    /**
+     * Keeps the latest values of every band and the order of one hop.
+     */
+    static final class Collector implements PacketSink {
+        final double[][] values = new double[Band.values().length][CHANNELS];
+        final MuseDataPacketType[] order = new MuseDataPacketType[Band.values().length];
+        int packets;
+
+        @Override
+        public boolean offer(MuseDataPacketType type, long timestamp,
+                             double[] v, int count) {
+            order[packets % order.length] = type;
+            packets++;
+            Band band = Band.fromPacketType(type);
+            System.arraycopy(v, 0, values[band.ordinal()], 0, count);
+            return true;
+        }
+
+        double get(Band band, int channel) {
+            return values[band.ordinal()][channel];
+        }
+    }
+
+    private final double[] sample = new double[CHANNELS];
+    private long index;
+
+    /**
+     * Adds one sample of a sinusoid per channel, at the given frequencies.
+     */
+    private boolean add(BandPowerEstimator estimator, double[] hz, Collector sink) {
+        for (int c = 0; c < CHANNELS; c++) {
+            sample[c] = Math.sin(2.0d * Math.PI * hz[c] * index / RATE);
+        }
+        index++;
+        return estimator.add(index, sample, CHANNELS, sink);
+    }
+
+    private static double[] all(double hz) {
+        return new double[] {hz, hz, hz, hz};
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsAHopLongerThanTheWindow() {
+        new BandPowerEstimator(RATE, WINDOW, WINDOW + 1);
+    }
+
+    @Test
+    public void emitsOnceTheWindowIsFullThenEveryHop() {
+        BandPowerEstimator estimator = new BandPowerEstimator(RATE, WINDOW, HOP);
+        Collector sink = new Collector();
+        for (int i = 1; i < WINDOW; i++) {
+            assertFalse(add(estimator, all(10.0d), sink));
+        }
+        assertTrue(add(estimator, all(10.0d), sink));
+        assertEquals(Band.values().length, sink.packets);
+        for (int round = 0; round < 3; round++) {
+            for (int i = 1; i < HOP; i++) {
+                assertFalse(add(estimator, all(10.0d), sink));
+            }
+            assertTrue(add(estimator, all(10.0d), sink));
+        }
+        assertEquals(4 * Band.values().length, sink.packets);
+    }
+
+    @Test
+    public void emitsAlphaLast() {
+        BandPowerEstimator estimator = new BandPowerEstimator(RATE, WINDOW, HOP);
+        Collector sink = new Collector();
+        for (int i = 0; i < WINDOW; i++) {
+            add(estimator, all(10.0d), sink);
+        }
+        assertEquals(MuseDataPacketType.ALPHA_RELATIVE, sink.order[sink.order.length - 1]);
+    }
+
+    @Test
+    public void findsASinusoidInItsBand() {
+        BandPowerEstimator estimator = new BandPowerEstimator(RATE, WINDOW, HOP);
+        Collector sink = new Collector();
+        for (int i = 0; i < WINDOW; i++) {
+            add(estimator, all(10.0d), sink);
+        }
+        for (int c = 0; c < CHANNELS; c++) {
+            double total = 0.0d;
+            for (Band band : Band.values()) {
+                total += sink.get(band, c);
+            }
+            assertEquals(1.0d, total, 1e-9d);
+            assertTrue(sink.get(Band.ALPHA, c) > 0.95d);
+        }
+    }
+
+    @Test
+    public void keepsThePackedChannelsApart() {
+        // Channels are transformed in pairs, 0 with 1 and 2 with 3.
+        BandPowerEstimator estimator = new BandPowerEstimator(RATE, WINDOW, HOP);
+        Collector sink = new Collector();
+        double[] hz = {10.0d, 20.0d, 6.0d, 37.0d};
+        Band[] expected = {Band.ALPHA, Band.BETA, Band.THETA, Band.GAMMA};
+        for (int i = 0; i < WINDOW; i++) {
+            add(estimator, hz, sink);
+        }
+        for (int c = 0; c < CHANNELS; c++) {
+            assertTrue("channel " + c, sink.get(expected[c], c) > 0.9d);
+        }
+    }
+
+    @Test
+    public void reportsNaNForAWindowAfterANaNSample() {
+        BandPowerEstimator estimator = new BandPowerEstimator(RATE, WINDOW, 1);
+        Collector sink = new Collector();
+        for (int i = 0; i < WINDOW; i++) {
+            add(estimator, all(10.0d), sink);
+        }
+        index++;
+        estimator.add(index, new double[] {0.0d, Double.NaN, 0.0d, 0.0d},
+                CHANNELS, sink);
+        for (int i = 1; i < WINDOW; i++) {
+            add(estimator, all(10.0d), sink);
+            assertTrue(Double.isNaN(sink.get(Band.ALPHA, 1)));
+            assertFalse(Double.isNaN(sink.get(Band.ALPHA, 0)));
+            assertFalse(Double.isNaN(sink.get(Band.ALPHA, 2)));
+        }
+        // The NaN sample has left the window.
+        add(estimator, all(10.0d), sink);
+        assertFalse(Double.isNaN(sink.get(Band.ALPHA, 1)));
+    }
+
+    @Test
+    public void reportsNaNForMissingChannels() {
+        BandPowerEstimator estimator = new BandPowerEstimator(RATE, WINDOW, HOP);
+        Collector sink = new Collector();
+        double[] two = new double[CHANNELS];
+        for (int i = 0; i < WINDOW; i++) {
+            two[0] = Math.sin(2.0d * Math.PI * 10.0d * i / RATE);
+            two[1] = two[0];
+            estimator.add(i, two, 2, sink);
+        }
+        assertFalse(Double.isNaN(sink.get(Band.ALPHA, 1)));
+        assertTrue(Double.isNaN(sink.get(Band.ALPHA, 2)));
+        assertTrue(Double.isNaN(sink.get(Band.ALPHA, 3)));
+    }
+
+    @Test
+    public void startsOverAfterReset() {
+        BandPowerEstimator used = new BandPowerEstimator(RATE, WINDOW, HOP);
+        Collector ignored = new Collector();
+        for (int i = 0; i < WINDOW + 5 * HOP; i++) {
+            add(used, all(20.0d), ignored);
+        }
+        used.reset();
+
+        BandPowerEstimator fresh = new BandPowerEstimator(RATE, WINDOW, HOP);
+        Collector afterReset = new Collector();
+        Collector fromNew = new Collector();
+        long start = index;
+        for (int i = 1; i < WINDOW; i++) {
+            assertFalse(add(used, all(10.0d), afterReset));
+        }
+        index = start;
+        for (int i = 1; i < WINDOW; i++) {
+            add(fresh, all(10.0d), fromNew);
+        }
+        assertTrue(add(used, all(10.0d), afterReset));
+        index--;
+        assertTrue(add(fresh, all(10.0d), fromNew));
+        for (Band band : Band.values()) {
+            for (int c = 0; c < CHANNELS; c++) {
+                assertEquals(fromNew.get(band, c), afterReset.get(band, c), 0.0d);
+            }
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package driveware.com.dsp;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class FftTest {
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsASizeThatIsNotAPowerOfTwo() {
+        new Fft(48);
+    }
+
+    @Test
+    public void matchesADirectTransform() {
+        int n = 64;
+        Random random = new Random(3L);
+        double[] re = new double[n];
+        double[] im = new double[n];
+        for (int i = 0; i < n; i++) {
+            re[i] = random.nextGaussian();
+            im[i] = random.nextGaussian();
+        }
+        double[] expectedRe = new double[n];
+        double[] expectedIm = new double[n];
+        for (int k = 0; k < n; k++) {
+            for (int t = 0; t < n; t++) {
+                double angle = -2.0d * Math.PI * k * t / n;
+                expectedRe[k] += re[t] * Math.cos(angle) - im[t] * Math.sin(angle);
+                expectedIm[k] += re[t] * Math.sin(angle) + im[t] * Math.cos(angle);
+            }
+        }
+        new Fft(n).transform(re, im);
+        for (int k = 0; k < n; k++) {
+            assertEquals(expectedRe[k], re[k], 1e-9d);
+            assertEquals(expectedIm[k], im[k], 1e-9d);
+        }
+    }
+
+    @Test
+    public void putsACosineIntoItsTwoBins() {
+        int n = 256;
+        int bin = 12;
+        double[] re = new double[n];
+        double[] im = new double[n];
+        for (int t = 0; t < n; t++) {
+            re[t] = Math.cos(2.0d * Math.PI * bin * t / n);
+        }
+        new Fft(n).transform(re, im);
+        for (int k = 0; k < n; k++) {
+            double expected = k == bin || k == n - bin ? n / 2.0d : 0.0d;
+            assertEquals(expected, re[k], 1e-9d);
+            assertEquals(0.0d, im[k], 1e-9d);
+        }
+    }
+}
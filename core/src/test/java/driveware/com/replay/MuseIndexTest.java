@@ -0,0 +1,176 @@
+package driveware.com.replay;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MuseIndexTest {
+
+    private static final long INTERVAL = 10000L;
+
+    private File recording;
+    private File sidecar;
+
+    @Before
+    public void setUp() throws IOException {
+        recording = File.createTempFile("drive", ".muse");
+        sidecar = MuseIndex.sidecar(recording);
+        FileOutputStream out = new FileOutputStream(recording);
+        try {
+            out.write(new byte[1000]);
+        } finally {
+            out.close();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        recording.delete();
+        sidecar.delete();
+    }
+
+    /**
+     * Writes a sidecar for the recording as MuseIndex lays it out and
+     * reads it back.
+     */
+    static MuseIndex index(File recording, long interval, long messages,
+                           long[] timestamps, long[] offsets, long[] ordinals)
+            throws IOException {
+        File sidecar = MuseIndex.sidecar(recording);
+        writeSidecar(sidecar, MuseIndex.MAGIC, recording.length(),
+                recording.lastModified(), interval, messages, timestamps.length,
+                timestamps, offsets, ordinals);
+        return MuseIndex.read(sidecar);
+    }
+
+    private static void writeSidecar(File file, int magic, long length, long modified,
+                                     long interval, long messages, int size,
+                                     long[] timestamps, long[] offsets,
+                                     long[] ordinals) throws IOException {
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+        try {
+            out.writeInt(magic);
+            out.writeInt(MuseIndex.VERSION);
+            out.writeLong(length);
+            out.writeLong(modified);
+            out.writeLong(interval);
+            out.writeLong(messages);
+            out.writeInt(size);
+            for (long[] column : new long[][] {timestamps, offsets, ordinals}) {
+                for (long value : column) {
+                    out.writeLong(value);
+                }
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    private MuseIndex threeCheckpoints() throws IOException {
+        return index(recording, INTERVAL, 30,
+                new long[] {100, 10100, 20100},
+                new long[] {0, 300, 600},
+                new long[] {0, 10, 20});
+    }
+
+    @Test
+    public void readsEveryColumn() throws IOException {
+        MuseIndex index = threeCheckpoints();
+        assertEquals(3, index.size());
+        assertEquals(INTERVAL, index.getIntervalMicros());
+        assertEquals(30, index.getMessages());
+        assertEquals(10100, index.getTimestamp(1));
+        assertEquals(300, index.getOffset(1));
+        assertEquals(10, index.getOrdinal(1));
+        assertTrue(index.isCurrent(recording));
+    }
+
+    @Test
+    public void writesWhatItRead() throws IOException {
+        MuseIndex index = threeCheckpoints();
+        File copy = File.createTempFile("drive", ".idx");
+        try {
+            index.write(copy);
+            assertTrue(Arrays.equals(bytes(sidecar), bytes(copy)));
+        } finally {
+            copy.delete();
+        }
+    }
+
+    private static byte[] bytes(File file) throws IOException {
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            byte[] data = new byte[(int) in.length()];
+            in.readFully(data);
+            return data;
+        } finally {
+            in.close();
+        }
+    }
+
+    @Test
+    public void floorFindsTheLastCheckpointAtOrBefore() throws IOException {
+        MuseIndex index = threeCheckpoints();
+        assertEquals(-1, index.floor(Long.MIN_VALUE));
+        assertEquals(-1, index.floor(99));
+        assertEquals(0, index.floor(100));
+        assertEquals(0, index.floor(10099));
+        assertEquals(1, index.floor(10100));
+        assertEquals(1, index.floor(20099));
+        assertEquals(2, index.floor(20100));
+        assertEquals(2, index.floor(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void floorOfAnEmptyIndexIsBeforeEverything() throws IOException {
+        MuseIndex index = index(recording, INTERVAL, 0,
+                new long[0], new long[0], new long[0]);
+        assertEquals(0, index.size());
+        assertEquals(-1, index.floor(Long.MAX_VALUE));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsAnotherFormat() throws IOException {
+        writeSidecar(sidecar, 0x12345678, 0, 0, INTERVAL, 0, 0,
+                new long[0], new long[0], new long[0]);
+        MuseIndex.read(sidecar);
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsMoreCheckpointsThanTheFileHolds() throws IOException {
+        writeSidecar(sidecar, MuseIndex.MAGIC, 0, 0, INTERVAL, 0, 1000,
+                new long[1], new long[1], new long[1]);
+        MuseIndex.read(sidecar);
+    }
+
+    @Test
+    public void loadReusesACurrentSidecar() throws IOException {
+        threeCheckpoints();
+        MuseIndex index = MuseIndex.load(recording, INTERVAL);
+        assertEquals(3, index.size());
+        assertEquals(20100, index.getTimestamp(2));
+    }
+
+    @Test
+    public void isNotCurrentOnceTheRecordingChanges() throws IOException {
+        MuseIndex index = threeCheckpoints();
+        RandomAccessFile out = new RandomAccessFile(recording, "rw");
+        try {
+            out.setLength(2000);
+        } finally {
+            out.close();
+        }
+        assertFalse(index.isCurrent(recording));
+    }
+}
@@ -0,0 +1,260 @@
+package driveware.com.replay;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.interaxon.libmuse.AnnotationData;
+import com.interaxon.libmuse.ComputingDeviceConfiguration;
+import com.interaxon.libmuse.DspData;
+import com.interaxon.libmuse.MessageType;
+import com.interaxon.libmuse.MuseConfiguration;
+import com.interaxon.libmuse.MuseDataPacket;
+import com.interaxon.libmuse.MuseFileReader;
+import com.interaxon.libmuse.MuseVersion;
+
+public class SeekableMuseReaderTest {
+
+    private static final int MESSAGES = 100;
+    // A checkpoint every ten messages.
+    private static final int EVERY = 10;
+
+    private File recording;
+    private long[] timestamps;
+    private int opened;
+
+    /**
+     * Reader over the timestamps in memory, where a message's offset is
+     * its ordinal.
+     */
+    private final class ArrayReader extends MuseFileReader {
+        private int next;
+        private int current = -1;
+
+        ArrayReader(long offset) {
+            next = (int) offset;
+        }
+
+        @Override
+        public boolean gotoNextMessage() {
+            if (next >= timestamps.length) {
+                return false;
+            }
+            current = next++;
+            return true;
+        }
+
+        @Override
+        public long getMessageTimestamp() {
+            return timestamps[current];
+        }
+
+        @Override
+        public void open() {
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public MessageType getMessageType() {
+            return MessageType.ANNOTATION;
+        }
+
+        @Override
+        public int getMessageId() {
+            return 0;
+        }
+
+        @Override
+        public AnnotationData getAnnotation() {
+            return null;
+        }
+
+        @Override
+        public MuseConfiguration getConfiguration() {
+            return null;
+        }
+
+        @Override
+        public MuseVersion getVersion() {
+            return null;
+        }
+
+        @Override
+        public ComputingDeviceConfiguration getComputingDeviceConfiguration() {
+            return null;
+        }
+
+        @Override
+        public DspData getDsp() {
+            return null;
+        }
+
+        @Override
+        public MuseDataPacket getDataPacket() {
+            return null;
+        }
+    }
+
+    private final SeekableMuseReader.Readers readers = new SeekableMuseReader.Readers() {
+        @Override
+        public MuseFileReader open(long offset) {
+            opened++;
+            return new ArrayReader(offset);
+        }
+    };
+
+    @Before
+    public void setUp() throws IOException {
+        recording = File.createTempFile("drive", ".muse");
+        FileOutputStream out = new FileOutputStream(recording);
+        try {
+            out.write(new byte[MESSAGES]);
+        } finally {
+            out.close();
+        }
+        // Messages 1 ms apart, from 0.5 ms.
+        timestamps = new long[MESSAGES];
+        for (int i = 0; i < MESSAGES; i++) {
+            timestamps[i] = 1000L * i + 500L;
+        }
+    }
+
+    @After
+    public void tearDown() {
+        recording.delete();
+        MuseIndex.sidecar(recording).delete();
+    }
+
+    private SeekableMuseReader reader(long[] checkpointTimestamps) throws IOException {
+        int size = checkpointTimestamps.length;
+        long[] ordinals = new long[size];
+        for (int i = 0; i < size; i++) {
+            ordinals[i] = (long) i * EVERY;
+        }
+        MuseIndex index = MuseIndexTest.index(recording, EVERY * 1000L, MESSAGES,
+                checkpointTimestamps, ordinals, ordinals);
+        return new SeekableMuseReader(index, readers);
+    }
+
+    private SeekableMuseReader reader() throws IOException {
+        long[] checkpoints = new long[MESSAGES / EVERY];
+        for (int i = 0; i < checkpoints.length; i++) {
+            checkpoints[i] = timestamps[i * EVERY];
+        }
+        return reader(checkpoints);
+    }
+
+    /**
+     * Moves to the next message and returns its ordinal.
+     */
+    private static long next(SeekableMuseReader reader) {
+        assertTrue(reader.gotoNextMessage());
+        return reader.getOrdinal();
+    }
+
+    @Test
+    public void seeksToTheFirstMessageAtOrAfterTheTarget() throws IOException {
+        SeekableMuseReader reader = reader();
+        assertTrue(reader.seek(45700));
+        assertEquals(46, next(reader));
+        assertEquals(46500, reader.getMessageTimestamp());
+        assertEquals(1, reader.getReopens());
+        // Then reads on in order.
+        assertEquals(47, next(reader));
+    }
+
+    @Test
+    public void seeksOntoACheckpoint() throws IOException {
+        SeekableMuseReader reader = reader();
+        assertTrue(reader.seek(timestamps[30]));
+        assertEquals(30, next(reader));
+    }
+
+    @Test
+    public void seeksBeforeTheFirstCheckpointFromTheStart() throws IOException {
+        SeekableMuseReader reader = reader(new long[] {timestamps[10], timestamps[20]});
+        assertTrue(reader.seek(Long.MIN_VALUE));
+        assertEquals(0, next(reader));
+        assertTrue(reader.seek(5000));
+        assertEquals(5, next(reader));
+        // The reader opened at the start was good for both.
+        assertEquals(0, reader.getReopens());
+        assertEquals(1, opened);
+    }
+
+    @Test
+    public void seeksPastTheLastMessageToTheEnd() throws IOException {
+        SeekableMuseReader reader = reader();
+        assertFalse(reader.seek(timestamps[MESSAGES - 1] + 1));
+        assertFalse(reader.gotoNextMessage());
+        // And back from there.
+        assertTrue(reader.seek(0));
+        assertEquals(0, next(reader));
+    }
+
+    @Test
+    public void seeksPastTheLastCheckpoint() throws IOException {
+        SeekableMuseReader reader = reader();
+        assertTrue(reader.seek(timestamps[MESSAGES - 1]));
+        assertEquals(MESSAGES - 1, next(reader));
+        assertFalse(reader.gotoNextMessage());
+    }
+
+    @Test
+    public void keepsDecodingOnAShortSeekForward() throws IOException {
+        SeekableMuseReader reader = reader();
+        reader.seek(41000);
+        assertEquals(41, next(reader));
+        assertTrue(reader.seek(43000));
+        assertEquals(43, next(reader));
+        assertEquals(1, reader.getReopens());
+        // Passing a checkpoint starts a new reader there.
+        assertTrue(reader.seek(75000));
+        assertEquals(75, next(reader));
+        assertEquals(2, reader.getReopens());
+    }
+
+    @Test
+    public void seeksBackToThePendingMessage() throws IOException {
+        SeekableMuseReader reader = reader();
+        reader.seek(45700);
+        // Still before message 46, which is not returned yet.
+        assertTrue(reader.seek(45900));
+        assertEquals(46, next(reader));
+        assertEquals(1, reader.getReopens());
+    }
+
+    @Test
+    public void seeksBackFromTheCheckpoint() throws IOException {
+        SeekableMuseReader reader = reader();
+        reader.seek(65000);
+        next(reader);
+        assertTrue(reader.seek(22000));
+        assertEquals(22, next(reader));
+        assertEquals(2, reader.getReopens());
+    }
+
+    @Test
+    public void fallsBackToTheStartOnAStaleCheckpoint() throws IOException {
+        long[] checkpoints = new long[MESSAGES / EVERY];
+        for (int i = 0; i < checkpoints.length; i++) {
+            checkpoints[i] = timestamps[i * EVERY];
+        }
+        checkpoints[4]++;
+        SeekableMuseReader reader = reader(checkpoints);
+        assertTrue(reader.seek(45700));
+        assertEquals(46, next(reader));
+        assertEquals(1, reader.getFallbacks());
+    }
+}
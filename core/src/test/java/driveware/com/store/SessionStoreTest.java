@@ -0,0 +1,156 @@
+package driveware.com.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.interaxon.libmuse.MuseDataPacketType;
+
+import driveware.com.detection.Band;
+import driveware.com.detection.PacketSink;
+
+public class SessionStoreTest {
+
+    // Small segments so every test spans several of them.
+    private static final int SEGMENT_ROWS = 16;
+    private static final long HOP_MICROS = 50000L;
+
+    private File directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = File.createTempFile("session", "");
+        assertTrue(directory.delete());
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    private static double[] values(long row) {
+        return new double[] {row, row + 0.25d, row + 0.5d, row + 0.75d};
+    }
+
+    private static void append(SessionStoreWriter writer, long from, long rows) {
+        for (long i = from; i < from + rows; i++) {
+            long timestamp = i * HOP_MICROS;
+            assertTrue(writer.offer(MuseDataPacketType.ALPHA_RELATIVE, timestamp,
+                    values(i), 4));
+            assertTrue(writer.offer(MuseDataPacketType.BETA_RELATIVE, timestamp + 1,
+                    values(i), 4));
+        }
+    }
+
+    @Test
+    public void storesRowsAcrossSegments() throws IOException {
+        SessionStoreWriter writer = new SessionStoreWriter(directory, SEGMENT_ROWS);
+        append(writer, 0, 50);
+        writer.offer(MuseDataPacketType.EEG, 0, values(0), 4);
+        writer.close();
+        assertEquals(100, writer.getWritten());
+        assertEquals(null, writer.getFailure());
+
+        SessionStore store = SessionStore.open(directory);
+        BandSeries alpha = store.getSeries(Band.ALPHA);
+        assertEquals(50, alpha.size());
+        assertEquals(0, store.getSeries(Band.THETA).size());
+        for (long row = 0; row < 50; row++) {
+            assertEquals(row * HOP_MICROS, alpha.getTimestamp(row));
+            for (int c = 0; c < 4; c++) {
+                assertEquals((float) values(row)[c], alpha.get(row, c), 0.0f);
+            }
+        }
+    }
+
+    @Test
+    public void findsRowsByTimestamp() throws IOException {
+        SessionStoreWriter writer = new SessionStoreWriter(directory, SEGMENT_ROWS);
+        append(writer, 0, 40);
+        writer.close();
+
+        BandSeries alpha = SessionStore.open(directory).getSeries(Band.ALPHA);
+        assertEquals(0, alpha.indexOf(Long.MIN_VALUE));
+        assertEquals(20, alpha.indexOf(20 * HOP_MICROS));
+        assertEquals(21, alpha.indexOf(20 * HOP_MICROS + 1));
+        assertEquals(40, alpha.indexOf(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void replaysBandsInTimestampOrder() throws IOException {
+        SessionStoreWriter writer = new SessionStoreWriter(directory, SEGMENT_ROWS);
+        append(writer, 0, 40);
+        writer.close();
+
+        final long[] last = {Long.MIN_VALUE};
+        final int[] counts = new int[2];
+        long frames = SessionStore.open(directory).replay(10 * HOP_MICROS,
+                30 * HOP_MICROS, new PacketSink() {
+                    @Override
+                    public boolean offer(MuseDataPacketType type, long timestamp,
+                                         double[] values, int count) {
+                        assertTrue(timestamp >= last[0]);
+                        last[0] = timestamp;
+                        counts[type == MuseDataPacketType.ALPHA_RELATIVE ? 0 : 1]++;
+                        assertEquals(4, count);
+                        return true;
+                    }
+                });
+        assertEquals(40, frames);
+        assertEquals(20, counts[0]);
+        assertEquals(20, counts[1]);
+    }
+
+    @Test
+    public void appendsAfterRowsOfAnEarlierWriter() throws IOException {
+        SessionStoreWriter first = new SessionStoreWriter(directory, SEGMENT_ROWS);
+        append(first, 0, 20);
+        first.close();
+        SessionStoreWriter second = new SessionStoreWriter(directory, SEGMENT_ROWS);
+        append(second, 20, 20);
+        second.close();
+        assertEquals(null, second.getFailure());
+
+        BandSeries alpha = SessionStore.open(directory).getSeries(Band.ALPHA);
+        assertEquals(40, alpha.size());
+        for (long row = 0; row < 40; row++) {
+            assertEquals(row * HOP_MICROS, alpha.getTimestamp(row));
+        }
+    }
+
+    @Test
+    public void keepsTimestampsIncreasingWhenTheClockGoesBack() throws IOException {
+        SessionStoreWriter writer = new SessionStoreWriter(directory, SEGMENT_ROWS);
+        append(writer, 0, 30);
+        // Slightly late frame, dropped.
+        assertTrue(!writer.offer(MuseDataPacketType.ALPHA_RELATIVE, 10 * HOP_MICROS,
+                values(0), 4));
+        // Clock restarted: stored after the newest row instead.
+        append(writer, 0, 30);
+        writer.close();
+        assertEquals(1, writer.getOutOfOrder());
+        assertEquals(1, writer.getRestarts());
+        assertEquals(60, writer.getRebased());
+
+        SessionStore store = SessionStore.open(directory);
+        for (Band band : new Band[] {Band.ALPHA, Band.BETA}) {
+            BandSeries series = store.getSeries(band);
+            assertEquals(60, series.size());
+            for (long row = 1; row < series.size(); row++) {
+                assertTrue(series.getTimestamp(row) > series.getTimestamp(row - 1));
+            }
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package driveware.com.tools;
+
+import com.interaxon.libmuse.MessageType;
+
+import driveware.com.detection.Detector;
+import driveware.com.session.SourcePolicy;
+
+/**
+ * Picks the band source a replay scores the way the phone picked it, from
+ * the SourcePolicy annotations in the recording: raw EEG through the
+ * Detector's estimator in RICH, libmuse's band packets in LEAN, and the
+ * band packets while a switch to RICH waits for the estimator's first
+ * frame, as MonitorService hands over.
+ *
+ * A recording without these annotations, from before the source was
+ * switched, is scored from EEG throughout. Without an estimator only the
+ * band packets are scored, whatever the annotations say.
+ */
+final class BandSource {
+
+    private final Detector detector;
+    private final boolean estimating;
+    private boolean lean;
+    private boolean warming;
+    private long mark;
+
+    /**
+     * @param estimating whether the detector was built with an estimator.
+     */
+    BandSource(Detector detector, boolean estimating) {
+        this.detector = detector;
+        this.estimating = estimating;
+    }
+
+    /**
+     * Follows a SourcePolicy annotation. Returns false if the text is not
+     * one.
+     */
+    boolean annotate(String text) {
+        SourcePolicy.Mode mode = SourcePolicy.parseAnnotation(text);
+        if (mode == null) {
+            return false;
+        }
+        if (mode == SourcePolicy.Mode.LEAN) {
+            lean = true;
+            warming = false;
+        } else if (lean) {
+            lean = false;
+            warming = true;
+            mark = detector.getEstimatedFrames();
+        }
+        return true;
+    }
+
+    /**
+     * Whether a data message of the type is scored: EEG, or ALG_VALUE for
+     * the band packets written back by the app.
+     */
+    boolean scores(MessageType type) {
+        if (!estimating) {
+            return type == MessageType.ALG_VALUE;
+        }
+        if (type == MessageType.EEG) {
+            return !lean;
+        }
+        if (type != MessageType.ALG_VALUE) {
+            return false;
+        }
+        if (warming && detector.getEstimatedFrames() > mark) {
+            warming = false;
+        }
+        return lean || warming;
+    }
+}
@@ -0,0 +1,149 @@
+package driveware.com.tools;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.interaxon.libmuse.MuseFileFactory;
+import com.interaxon.libmuse.MuseFileReader;
+
+/**
+ * Turns a directory tree of .muse recordings into FeatureTables, one per
+ * recording, mirroring the input tree under the output directory.
+ *
+ * Directories and files are fork-join tasks, one file per task, so a
+ * corpus with many small and a few huge drives still keeps every core
+ * busy. Each task streams its file through FeatureReplay into a row-group
+ * writer, so memory depends on the number of threads, not on corpus or
+ * file size. A file that fails to read is reported and skipped.
+ *
+ * Usage: ExtractFeatures [-hop N] [-threads N] input-dir output-dir
+ * -hop as for TrainClassifier, -threads defaults to one per core.
+ */
+public class ExtractFeatures {
+
+    static final String SUFFIX = ".features";
+
+    private final File outputRoot;
+    private final int hop;
+    private final AtomicLong files = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong rows = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+
+    ExtractFeatures(File outputRoot, int hop) {
+        this.outputRoot = outputRoot;
+        this.hop = hop;
+    }
+
+    public static void main(String[] args) {
+        int hop = 11;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int a = 0;
+        for (; a < args.length && args[a].startsWith("-"); a += 2) {
+            int value = Integer.parseInt(args[a + 1]);
+            if ("-hop".equals(args[a])) {
+                hop = value;
+            } else if ("-threads".equals(args[a])) {
+                threads = value;
+            } else {
+                throw new IllegalArgumentException("unknown option " + args[a]);
+            }
+        }
+        if (args.length - a != 2) {
+            System.err.println("Usage: ExtractFeatures [-hop N] [-threads N]"
+                    + " input-dir output-dir");
+            System.exit(2);
+        }
+        File input = new File(args[a]);
+        File output = new File(args[a + 1]);
+
+        ExtractFeatures extract = new ExtractFeatures(output, hop);
+        long start = System.nanoTime();
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        pool.invoke(extract.new DirectoryTask(input, output));
+        pool.shutdown();
+        double seconds = (System.nanoTime() - start) / 1e9d;
+        System.out.printf("%d files (%d failed), %d frames, %.1f MB in %.1f s,"
+                        + " %.1f MB/s on %d threads%n",
+                extract.files.get(), extract.failed.get(), extract.rows.get(),
+                extract.bytes.get() / 1e6d, seconds,
+                extract.bytes.get() / 1e6d / seconds, threads);
+        System.exit(extract.failed.get() == 0 ? 0 : 1);
+    }
+
+    final class DirectoryTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final File directory;
+        private final File output;
+
+        DirectoryTask(File directory, File output) {
+            this.directory = directory;
+            this.output = output;
+        }
+
+        @Override
+        protected void compute() {
+            File[] children = directory.listFiles();
+            if (children == null) {
+                return;
+            }
+            List<RecursiveAction> tasks = new ArrayList<RecursiveAction>();
+            for (File child : children) {
+                if (child.isDirectory()) {
+                    tasks.add(new DirectoryTask(child, new File(output, child.getName())));
+                } else if (child.getName().endsWith(".muse")) {
+                    String name = child.getName();
+                    name = name.substring(0, name.length() - ".muse".length()) + SUFFIX;
+                    tasks.add(new FileTask(child, new File(output, name)));
+                }
+            }
+            invokeAll(tasks);
+        }
+    }
+
+    final class FileTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final File input;
+        private final File output;
+
+        FileTask(File input, File output) {
+            this.input = input;
+            this.output = output;
+        }
+
+        @Override
+        protected void compute() {
+            files.incrementAndGet();
+            try {
+                File parent = output.getParentFile();
+                if (!parent.isDirectory() && !parent.mkdirs() && !parent.isDirectory()) {
+                    throw new IOException("cannot create " + parent);
+                }
+                MuseFileReader reader = MuseFileFactory.getMuseFileReader(input);
+                FeatureTable.Writer writer = new FeatureTable.Writer(output, hop);
+                try {
+                    FeatureReplay.run(reader, hop, writer);
+                } finally {
+                    reader.close();
+                    writer.close();
+                }
+                rows.addAndGet(writer.getRows());
+                bytes.addAndGet(input.length());
+            } catch (IOException e) {
+                failed.incrementAndGet();
+                System.err.println(input + ": " + e);
+            } catch (RuntimeException e) {
+                // Corrupt recordings surface as runtime errors from libmuse.
+                failed.incrementAndGet();
+                System.err.println(input + ": " + e);
+            }
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package driveware.com.tools;
+
+import java.util.ArrayList;
+
+import com.interaxon.libmuse.MuseDataPacket;
+import com.interaxon.libmuse.MuseDataPacketType;
+import com.interaxon.libmuse.MuseFileReader;
+
+import driveware.com.detection.ArtifactGate;
+import driveware.com.detection.BandFrame;
+import driveware.com.detection.DetectionListener;
+import driveware.com.detection.Detector;
+import driveware.com.detection.DrowsinessClassifier;
+import driveware.com.detection.ThresholdClassifier;
+import driveware.com.dsp.BandPowerEstimator;
+import driveware.com.metrics.LatencyMonitor;
+
+/**
+ * Replays a recording through a Detector whose classifier hands every
+ * vector it is asked to score to a Consumer, so offline features are
+ * exactly the ones the phone computes. The vector is then scored by
+ * ThresholdClassifier, which the phone runs until a model is installed,
+ * so the Detector stops adapting its Baseline while alarming as it does
+ * on the phone, and ALPHA_Z comes out the same. Drives recorded with a
+ * trained model installed may have alarmed, and frozen the Baseline, at
+ * other frames.
+ *
+ * Labels come from annotations written while driving or added afterwards:
+ * LABEL_DROWSY and LABEL_AWAKE apply to the frames that follow,
+ * LABEL_NONE goes back to UNLABELLED, the state a recording starts in.
+ * Artifact flags the app recorded as annotations are replayed into the
+ * Detector, so blink features are learned like the phone computes them.
+ * The band source follows the app's source switches, see BandSource.
+ *
+ * Only the current message is held in memory, whatever the file size.
+ */
+final class FeatureReplay implements DrowsinessClassifier {
+
+    static final String LABEL_DROWSY = "label drowsy";
+    static final String LABEL_AWAKE = "label awake";
+    static final String LABEL_NONE = "label none";
+
+    static final int UNLABELLED = -1;
+    static final int AWAKE = 0;
+    static final int DROWSY = 1;
+
+    interface Consumer {
+        /**
+         * @param features only valid during the call.
+         */
+        void accept(long timestamp, double[] features, int label);
+    }
+
+    private final Consumer consumer;
+    private final ThresholdClassifier classifier = new ThresholdClassifier();
+    private long timestamp;
+    private int label = UNLABELLED;
+
+    private FeatureReplay(Consumer consumer) {
+        this.consumer = consumer;
+    }
+
+    @Override
+    public double score(double[] features) {
+        consumer.accept(timestamp, features, label);
+        return classifier.score(features);
+    }
+
+    private void annotate(String text) {
+        if (LABEL_DROWSY.equals(text)) {
+            label = DROWSY;
+        } else if (LABEL_AWAKE.equals(text)) {
+            label = AWAKE;
+        } else if (LABEL_NONE.equals(text)) {
+            label = UNLABELLED;
+        }
+    }
+
+    /**
+     * Reads the whole file on the calling thread.
+     *
+     * @param hop BandPowerEstimator hop used on the phone, or 0 to score
+     *            the band packets stored in the file instead of raw EEG.
+     */
+    static void run(MuseFileReader reader, int hop, Consumer consumer) {
+        FeatureReplay replay = new FeatureReplay(consumer);
+        BandPowerEstimator estimator = hop > 0
+                ? new BandPowerEstimator(BandPowerEstimator.MUSE_SAMPLE_RATE,
+                        BandPowerEstimator.DEFAULT_WINDOW, hop)
+                : null;
+        Detector detector = new Detector(new DetectionListener() {
+            @Override
+            public void onAlarm(double alpha, long arrivalNanos,
+                                long decisionNanos) {
+            }
+        }, new LatencyMonitor(), estimator, replay);
+        BandSource source = new BandSource(detector, estimator != null);
+        double[] values = new double[BandFrame.MAX_VALUES];
+        while (reader.gotoNextMessage()) {
+            switch (reader.getMessageType()) {
+                case ANNOTATION:
+                    String text = reader.getAnnotation().getData();
+                    long stamp = ArtifactGate.parseAnnotation(text, values);
+                    if (stamp != Long.MIN_VALUE) {
+                        detector.offer(MuseDataPacketType.ARTIFACTS, stamp,
+                                values, ArtifactGate.VALUES);
+                    } else if (!source.annotate(text)) {
+                        replay.annotate(text);
+                    }
+                    break;
+                case EEG:
+                case ALG_VALUE:
+                    // Like the app, score our own estimates or libmuse's
+                    // band packets, whichever it was scoring.
+                    if (!source.scores(reader.getMessageType())) {
+                        break;
+                    }
+                    MuseDataPacket p = reader.getDataPacket();
+                    ArrayList<Double> data = p.getValues();
+                    int n = Math.min(data.size(), values.length);
+                    for (int i = 0; i < n; i++) {
+                        values[i] = data.get(i);
+                    }
+                    // Band frames from the estimator carry the timestamp
+                    // of the EEG packet that completed their window.
+                    replay.timestamp = p.getTimestamp();
+                    detector.offer(p.getPacketType(), p.getTimestamp(), values, n);
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package driveware.com.tools;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Locale;
+
+import driveware.com.detection.Band;
+import driveware.com.detection.Features;
+
+/**
+ * Columnar binary table of the feature vectors of one recording, as
+ * written by ExtractFeatures.
+ *
+ * Layout, big endian:
+ * - int MAGIC, int VERSION, int hop used for extraction (0: libmuse bands);
+ * - short column count, then per column its name (modified UTF-8) and a
+ *   type byte: INT64 for "timestamp" (microseconds), INT8 for "label"
+ *   (FeatureReplay.UNLABELLED, AWAKE or DROWSY), FLOAT32 for each feature
+ *   in Features order;
+ * - row groups of at most GROUP_ROWS rows: int row count, then each column
+ *   as a contiguous block of that many values;
+ * - int 0 after the last group.
+ *
+ * Row groups keep the writer's memory fixed however long the recording
+ * is, while each column stays contiguous within a group for readers that
+ * load one column at a time.
+ */
+final class FeatureTable {
+
+    static final int MAGIC = 0x44574654;  // "DWFT"
+    // 2 added the blink features, 3 alpha_z.
+    static final int VERSION = 3;
+    static final int GROUP_ROWS = 4096;
+
+    static final byte INT64 = 0;
+    static final byte INT8 = 1;
+    static final byte FLOAT32 = 2;
+
+    private FeatureTable() {
+    }
+
+    static String featureName(int i) {
+        if (i < Features.RATIO_MEAN) {
+            return Band.values()[i].name().toLowerCase(Locale.US);
+        }
+        if (i == Features.RATIO_MEAN) {
+            return "ratio_mean";
+        }
+        if (i == Features.RATIO_SLOPE) {
+            return "ratio_slope";
+        }
+        if (i == Features.AWAKE) {
+            return "awake";
+        }
+        if (i == Features.BLINK_RATE) {
+            return "blink_rate";
+        }
+        if (i == Features.BLINK_DURATION) {
+            return "blink_duration";
+        }
+        if (i == Features.ALPHA_Z) {
+            return "alpha_z";
+        }
+        throw new IllegalArgumentException("feature " + i);
+    }
+
+    /**
+     * Streams one table written by Writer, group by group, into the
+     * consumer. Returns the number of rows.
+     */
+    static long read(File file, FeatureReplay.Consumer consumer) throws IOException {
+        DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file), 1 << 16));
+        try {
+            if (in.readInt() != MAGIC) {
+                throw new IOException(file + " is not a feature table");
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException(file + " has version " + version
+                        + ", run ExtractFeatures again");
+            }
+            in.readInt();
+            int columns = in.readShort();
+            if (columns != Features.SIZE + 2) {
+                throw new IOException(file + " has " + columns + " columns");
+            }
+            for (int c = 0; c < columns; c++) {
+                in.readUTF();
+                in.readByte();
+            }
+            long[] timestamps = new long[GROUP_ROWS];
+            byte[] labels = new byte[GROUP_ROWS];
+            float[][] features = new float[Features.SIZE][GROUP_ROWS];
+            double[] row = new double[Features.SIZE];
+            long total = 0;
+            int rows;
+            while ((rows = in.readInt()) > 0) {
+                if (rows > GROUP_ROWS) {
+                    throw new IOException(file + " has a group of " + rows + " rows");
+                }
+                for (int r = 0; r < rows; r++) {
+                    timestamps[r] = in.readLong();
+                }
+                in.readFully(labels, 0, rows);
+                for (float[] column : features) {
+                    for (int r = 0; r < rows; r++) {
+                        column[r] = in.readFloat();
+                    }
+                }
+                for (int r = 0; r < rows; r++) {
+                    for (int f = 0; f < Features.SIZE; f++) {
+                        row[f] = features[f][r];
+                    }
+                    consumer.accept(timestamps[r], row, labels[r]);
+                }
+                total += rows;
+            }
+            return total;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Consumer that buffers one row group and writes it out when full.
+     * accept() cannot throw, so the first I/O error is kept, later rows
+     * are dropped and close() rethrows it.
+     */
+    static final class Writer implements FeatureReplay.Consumer, Closeable {
+
+        private final DataOutputStream out;
+        private final long[] timestamps = new long[GROUP_ROWS];
+        private final byte[] labels = new byte[GROUP_ROWS];
+        private final float[][] features = new float[Features.SIZE][GROUP_ROWS];
+        private int rows;
+        private long written;
+        private IOException failure;
+
+        Writer(File file, int hop) throws IOException {
+            out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(hop);
+            out.writeShort(Features.SIZE + 2);
+            out.writeUTF("timestamp");
+            out.writeByte(INT64);
+            out.writeUTF("label");
+            out.writeByte(INT8);
+            for (int f = 0; f < Features.SIZE; f++) {
+                out.writeUTF(featureName(f));
+                out.writeByte(FLOAT32);
+            }
+        }
+
+        @Override
+        public void accept(long timestamp, double[] row, int label) {
+            if (failure != null) {
+                return;
+            }
+            timestamps[rows] = timestamp;
+            labels[rows] = (byte) label;
+            for (int f = 0; f < Features.SIZE; f++) {
+                features[f][rows] = (float) row[f];
+            }
+            if (++rows == GROUP_ROWS) {
+                try {
+                    writeGroup();
+                } catch (IOException e) {
+                    failure = e;
+                }
+            }
+        }
+
+        private void writeGroup() throws IOException {
+            out.writeInt(rows);
+            for (int r = 0; r < rows; r++) {
+                out.writeLong(timestamps[r]);
+            }
+            out.write(labels, 0, rows);
+            for (float[] column : features) {
+                for (int r = 0; r < rows; r++) {
+                    out.writeFloat(column[r]);
+                }
+            }
+            written += rows;
+            rows = 0;
+        }
+
+        long getRows() {
+            return written + rows;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                if (failure == null && rows > 0) {
+                    writeGroup();
+                }
+                if (failure == null) {
+                    out.writeInt(0);
+                }
+            } finally {
+                out.close();
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+}
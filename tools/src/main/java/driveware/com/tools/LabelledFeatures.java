@@ -0,0 +1,45 @@
+package driveware.com.tools;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.interaxon.libmuse.MuseFileReader;
+
+/**
+ * Labelled feature vectors of one recording, for training. Unlabelled
+ * frames are skipped. See FeatureReplay for how recordings are labelled.
+ */
+final class LabelledFeatures implements FeatureReplay.Consumer {
+
+    private final List<double[]> features = new ArrayList<double[]>();
+    private final List<Boolean> labels = new ArrayList<Boolean>();
+
+    @Override
+    public void accept(long timestamp, double[] f, int label) {
+        if (label != FeatureReplay.UNLABELLED) {
+            features.add(f.clone());
+            labels.add(label == FeatureReplay.DROWSY);
+        }
+    }
+
+    int size() {
+        return features.size();
+    }
+
+    double[] getFeatures(int i) {
+        return features.get(i);
+    }
+
+    boolean isDrowsy(int i) {
+        return labels.get(i);
+    }
+
+    /**
+     * @param hop see FeatureReplay.run().
+     */
+    static LabelledFeatures extract(MuseFileReader reader, int hop) {
+        LabelledFeatures collected = new LabelledFeatures();
+        FeatureReplay.run(reader, hop, collected);
+        return collected;
+    }
+}
@@ -0,0 +1,188 @@
+package driveware.com.tools;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+
+import com.interaxon.libmuse.MuseDataPacket;
+import com.interaxon.libmuse.MuseDataPacketType;
+import com.interaxon.libmuse.MuseFileFactory;
+import com.interaxon.libmuse.MuseFileReader;
+
+import driveware.com.classifier.MlpClassifier;
+import driveware.com.detection.ArtifactGate;
+import driveware.com.detection.BandFrame;
+import driveware.com.detection.DetectionListener;
+import driveware.com.detection.Detector;
+import driveware.com.detection.DrowsinessClassifier;
+import driveware.com.detection.DrowsinessStateMachine;
+import driveware.com.detection.ThresholdClassifier;
+import driveware.com.dsp.BandPowerEstimator;
+import driveware.com.metrics.LatencyMonitor;
+import driveware.com.replay.SeekableMuseReader;
+
+/**
+ * Replays recordings through a Detector as the phone runs it and prints
+ * when DrowsinessStateMachine raises the alarm, for tuning its thresholds
+ * and dwell times against real drives. Acknowledgements recorded by the
+ * app are replayed at the same point, and accelerometer packets feed the
+ * head motion the Detector fuses into the score. The band source follows
+ * the app's source switches, see BandSource.
+ *
+ * Each recording ends with a summary, including how many frames the
+ * classifier alone scored at DrowsinessClassifier.ALARM_SCORE or more,
+ * each of which used to be an alarm.
+ *
+ * Usage: ReplayAlarms [-hop N] [-model drowsiness.mlp] [-from S] input.muse...
+ * -hop as for TrainClassifier; without -model ThresholdClassifier scores.
+ * -from starts S seconds into each recording through a SeekableMuseReader,
+ * skipping the acknowledgements and artifact flags recorded before it.
+ */
+public class ReplayAlarms {
+
+    /**
+     * Counts the scores at the alarm level of the classifier it wraps.
+     */
+    static final class Counting implements DrowsinessClassifier {
+        private final DrowsinessClassifier classifier;
+        long scored;
+        long above;
+
+        Counting(DrowsinessClassifier classifier) {
+            this.classifier = classifier;
+        }
+
+        @Override
+        public double score(double[] features) {
+            double score = classifier.score(features);
+            scored++;
+            if (score >= ALARM_SCORE) {
+                above++;
+            }
+            return score;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        int hop = 11;
+        MlpClassifier model = null;
+        long fromMicros = 0;
+        int a = 0;
+        for (; a < args.length && args[a].startsWith("-"); a += 2) {
+            if ("-hop".equals(args[a])) {
+                hop = Integer.parseInt(args[a + 1]);
+            } else if ("-model".equals(args[a])) {
+                InputStream in = new FileInputStream(args[a + 1]);
+                try {
+                    model = MlpClassifier.read(in);
+                } finally {
+                    in.close();
+                }
+            } else if ("-from".equals(args[a])) {
+                fromMicros = (long) (Double.parseDouble(args[a + 1]) * 1e6d);
+            } else {
+                throw new IllegalArgumentException("unknown option " + args[a]);
+            }
+        }
+        if (args.length - a < 1) {
+            System.err.println("Usage: ReplayAlarms [-hop N] [-model drowsiness.mlp]"
+                    + " [-from S] input.muse...");
+            System.exit(2);
+        }
+        for (; a < args.length; a++) {
+            File file = new File(args[a]);
+            MuseFileReader reader;
+            if (fromMicros > 0) {
+                SeekableMuseReader seekable = SeekableMuseReader.open(file);
+                if (seekable.gotoNextMessage()) {
+                    seekable.seek(seekable.getMessageTimestamp() + fromMicros);
+                }
+                reader = seekable;
+            } else {
+                reader = MuseFileFactory.getMuseFileReader(file);
+            }
+            try {
+                replay(file.getName(), reader, hop,
+                        model != null ? model.copy() : new ThresholdClassifier());
+            } finally {
+                reader.close();
+            }
+        }
+    }
+
+    static void replay(final String name, MuseFileReader reader, int hop,
+                       DrowsinessClassifier classifier) {
+        BandPowerEstimator estimator = hop > 0
+                ? new BandPowerEstimator(BandPowerEstimator.MUSE_SAMPLE_RATE,
+                        BandPowerEstimator.DEFAULT_WINDOW, hop)
+                : null;
+        Counting counting = new Counting(classifier);
+        // The packet being replayed, for the time of each alarm.
+        final long[] timestamp = new long[2];
+        Detector detector = new Detector(new DetectionListener() {
+            @Override
+            public void onAlarm(double alpha, long arrivalNanos,
+                                long decisionNanos) {
+                System.out.printf("%s: alarm at %.1f s, alpha %.3f%n", name,
+                        (timestamp[0] - timestamp[1]) / 1e6d, alpha);
+            }
+        }, new LatencyMonitor(), estimator, counting);
+        DrowsinessStateMachine states = detector.getStateMachine();
+        BandSource source = new BandSource(detector, estimator != null);
+        double[] values = new double[BandFrame.MAX_VALUES];
+        boolean first = true;
+        while (reader.gotoNextMessage()) {
+            switch (reader.getMessageType()) {
+                case ANNOTATION:
+                    String text = reader.getAnnotation().getData();
+                    long stamp = ArtifactGate.parseAnnotation(text, values);
+                    if (stamp != Long.MIN_VALUE) {
+                        detector.offer(MuseDataPacketType.ARTIFACTS, stamp,
+                                values, ArtifactGate.VALUES);
+                    } else if (DrowsinessStateMachine.ACKNOWLEDGED.equals(text)) {
+                        states.acknowledge();
+                    } else {
+                        source.annotate(text);
+                    }
+                    break;
+                case EEG:
+                case ALG_VALUE:
+                    // Scores the same packets as FeatureReplay.
+                    if (!source.scores(reader.getMessageType())) {
+                        break;
+                    }
+                    MuseDataPacket p = reader.getDataPacket();
+                    ArrayList<Double> data = p.getValues();
+                    int n = Math.min(data.size(), values.length);
+                    for (int i = 0; i < n; i++) {
+                        values[i] = data.get(i);
+                    }
+                    timestamp[0] = p.getTimestamp();
+                    if (first) {
+                        first = false;
+                        timestamp[1] = p.getTimestamp();
+                    }
+                    detector.offer(p.getPacketType(), p.getTimestamp(), values, n);
+                    break;
+                case ACCELEROMETER:
+                    MuseDataPacket motion = reader.getDataPacket();
+                    ArrayList<Double> axes = motion.getValues();
+                    int m = Math.min(axes.size(), values.length);
+                    for (int i = 0; i < m; i++) {
+                        values[i] = axes.get(i);
+                    }
+                    detector.offer(motion.getPacketType(), motion.getTimestamp(),
+                            values, m);
+                    break;
+                default:
+                    break;
+            }
+        }
+        System.out.printf("%s: %d frames scored, %d at the alarm score, %d drowsy"
+                        + " episodes, %d suspicions dismissed, %d alarms, %d acknowledged%n",
+                name, counting.scored, counting.above, states.getEpisodes(),
+                states.getDismissed(), states.getAlarms(), states.getAcknowledged());
+    }
+}
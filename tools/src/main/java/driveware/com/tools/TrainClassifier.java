@@ -0,0 +1,272 @@
+package driveware.com.tools;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.encog.Encog;
+import org.encog.engine.network.activation.ActivationSigmoid;
+import org.encog.ml.data.basic.BasicMLDataSet;
+import org.encog.neural.networks.BasicNetwork;
+import org.encog.neural.networks.layers.BasicLayer;
+import org.encog.neural.networks.training.propagation.resilient.ResilientPropagation;
+
+import com.interaxon.libmuse.MuseFileFactory;
+import com.interaxon.libmuse.MuseFileReader;
+
+import driveware.com.classifier.MlpClassifier;
+import driveware.com.detection.Features;
+
+/**
+ * Trains the drowsiness classifier from labelled .muse recordings, or from
+ * FeatureTables ExtractFeatures made of them, and writes it in
+ * MlpClassifier's format, for the app to load as drowsiness.mlp.
+ *
+ * Recordings are read in parallel, one per core, and Encog's resilient
+ * propagation spreads every epoch over all cores as well.
+ *
+ * Usage: TrainClassifier [-hidden N] [-epochs N] [-hop N]
+ *                        output.mlp input.muse|input.features|directory...
+ * -hop must match the app's DSP_HOP, 0 if the app scores libmuse's band
+ * packets; it is ignored for feature tables, which were extracted with
+ * their own. See FeatureReplay for how recordings are labelled.
+ */
+public class TrainClassifier {
+
+    public static void main(String[] args) throws Exception {
+        int hidden = 8;
+        int epochs = 500;
+        int hop = 11;
+        int a = 0;
+        for (; a < args.length && args[a].startsWith("-"); a += 2) {
+            int value = Integer.parseInt(args[a + 1]);
+            if ("-hidden".equals(args[a])) {
+                hidden = value;
+            } else if ("-epochs".equals(args[a])) {
+                epochs = value;
+            } else if ("-hop".equals(args[a])) {
+                hop = value;
+            } else {
+                throw new IllegalArgumentException("unknown option " + args[a]);
+            }
+        }
+        if (args.length - a < 2) {
+            System.err.println("Usage: TrainClassifier [-hidden N] [-epochs N] [-hop N]"
+                    + " output.mlp input.muse|input.features|directory...");
+            System.exit(2);
+        }
+        File output = new File(args[a++]);
+        List<File> inputs = new ArrayList<File>();
+        for (; a < args.length; a++) {
+            collect(new File(args[a]), inputs);
+        }
+
+        long start = System.nanoTime();
+        List<LabelledFeatures> recordings = extractAll(inputs, hop);
+        int rows = 0;
+        for (LabelledFeatures r : recordings) {
+            rows += r.size();
+        }
+        if (rows == 0) {
+            System.err.println("no labelled frames in " + inputs.size() + " files");
+            System.exit(1);
+        }
+        double[][] input = new double[rows][];
+        double[][] ideal = new double[rows][];
+        int row = 0;
+        int drowsy = 0;
+        for (LabelledFeatures r : recordings) {
+            for (int i = 0; i < r.size(); i++) {
+                input[row] = r.getFeatures(i).clone();
+                ideal[row] = new double[] {r.isDrowsy(i) ? 1.0d : 0.0d};
+                drowsy += r.isDrowsy(i) ? 1 : 0;
+                row++;
+            }
+        }
+        System.out.printf("%d files, %d frames (%d drowsy) in %.1f s%n",
+                inputs.size(), rows, drowsy, (System.nanoTime() - start) / 1e9d);
+
+        double[] mean = new double[Features.SIZE];
+        double[] stddev = new double[Features.SIZE];
+        standardize(input, mean, stddev);
+
+        BasicNetwork network = new BasicNetwork();
+        network.addLayer(new BasicLayer(null, true, Features.SIZE));
+        network.addLayer(new BasicLayer(new ActivationSigmoid(), true, hidden));
+        network.addLayer(new BasicLayer(new ActivationSigmoid(), false, 1));
+        network.getStructure().finalizeStructure();
+        network.reset();
+
+        ResilientPropagation train = new ResilientPropagation(
+                network, new BasicMLDataSet(input, ideal));
+        // 0 lets Encog use one thread per core.
+        train.setThreadCount(0);
+        for (int epoch = 1; epoch <= epochs; epoch++) {
+            train.iteration();
+            if (epoch % 50 == 0 || epoch == epochs) {
+                System.out.printf("epoch %d error %.5f%n", epoch, train.getError());
+            }
+        }
+        train.finishTraining();
+
+        MlpClassifier classifier = flatten(network, mean, stddev);
+        report(network, classifier, recordings, input, ideal);
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(output));
+        try {
+            classifier.write(out);
+        } finally {
+            out.close();
+        }
+        System.out.println("wrote " + output);
+        Encog.getInstance().shutdown();
+    }
+
+    private static void collect(File file, List<File> out) {
+        File[] children = file.listFiles();
+        if (children == null) {
+            out.add(file);
+            return;
+        }
+        for (File child : children) {
+            if (child.isDirectory() || child.getName().endsWith(".muse")
+                    || child.getName().endsWith(ExtractFeatures.SUFFIX)) {
+                collect(child, out);
+            }
+        }
+    }
+
+    private static List<LabelledFeatures> extractAll(List<File> files, final int hop)
+            throws InterruptedException, ExecutionException {
+        ExecutorService pool = Executors.newFixedThreadPool(
+                Runtime.getRuntime().availableProcessors());
+        try {
+            List<Future<LabelledFeatures>> futures =
+                    new ArrayList<Future<LabelledFeatures>>();
+            for (final File file : files) {
+                futures.add(pool.submit(new Callable<LabelledFeatures>() {
+                    @Override
+                    public LabelledFeatures call() throws IOException {
+                        if (file.getName().endsWith(ExtractFeatures.SUFFIX)) {
+                            LabelledFeatures collected = new LabelledFeatures();
+                            FeatureTable.read(file, collected);
+                            return collected;
+                        }
+                        MuseFileReader reader = MuseFileFactory.getMuseFileReader(file);
+                        try {
+                            return LabelledFeatures.extract(reader, hop);
+                        } finally {
+                            reader.close();
+                        }
+                    }
+                }));
+            }
+            List<LabelledFeatures> result = new ArrayList<LabelledFeatures>();
+            for (Future<LabelledFeatures> f : futures) {
+                result.add(f.get());
+            }
+            return result;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Rescales every column to zero mean and unit variance in place, the
+     * way MlpClassifier will at inference. NaN becomes 0, the mean; a column
+     * without any value gets a NaN mean.
+     */
+    static void standardize(double[][] rows, double[] mean, double[] stddev) {
+        for (int c = 0; c < mean.length; c++) {
+            double sum = 0.0d;
+            double squares = 0.0d;
+            int n = 0;
+            for (double[] r : rows) {
+                if (!Double.isNaN(r[c])) {
+                    sum += r[c];
+                    squares += r[c] * r[c];
+                    n++;
+                }
+            }
+            if (n == 0) {
+                // Never seen in training, e.g. blink features of drives
+                // recorded without artifact flags: its weights stay
+                // random, so MlpClassifier ignores the input on the phone.
+                mean[c] = Double.NaN;
+                stddev[c] = 1.0d;
+                for (double[] r : rows) {
+                    r[c] = 0.0d;
+                }
+                continue;
+            }
+            mean[c] = sum / n;
+            double variance = squares / n - mean[c] * mean[c];
+            stddev[c] = variance > 1e-12d ? Math.sqrt(variance) : 1.0d;
+            for (double[] r : rows) {
+                r[c] = Double.isNaN(r[c]) ? 0.0d : (r[c] - mean[c]) / stddev[c];
+            }
+        }
+    }
+
+    /**
+     * Copies the network's weights into MlpClassifier's layout through
+     * Encog's public accessors, independent of its internal flat order.
+     */
+    static MlpClassifier flatten(BasicNetwork network, double[] mean, double[] stddev) {
+        int[] layers = new int[network.getLayerCount()];
+        int count = 0;
+        for (int l = 0; l < layers.length; l++) {
+            layers[l] = network.getLayerNeuronCount(l);
+            if (l > 0) {
+                count += layers[l] * (layers[l - 1] + 1);
+            }
+        }
+        double[] weights = new double[count];
+        int w = 0;
+        for (int l = 1; l < layers.length; l++) {
+            for (int to = 0; to < layers[l]; to++) {
+                for (int from = 0; from < layers[l - 1]; from++) {
+                    weights[w++] = network.getWeight(l - 1, from, to);
+                }
+                // Encog's bias neuron follows the regular ones.
+                weights[w++] = network.getWeight(l - 1, layers[l - 1], to)
+                        * network.getLayerBiasActivation(l - 1);
+            }
+        }
+        return new MlpClassifier(layers, mean.clone(), stddev.clone(), weights);
+    }
+
+    /**
+     * Prints training accuracy and checks the flattened classifier against
+     * Encog on the same frames.
+     */
+    private static void report(BasicNetwork network, MlpClassifier classifier,
+                               List<LabelledFeatures> recordings,
+                               double[][] standardized, double[][] ideal) {
+        int correct = 0;
+        double maxDifference = 0.0d;
+        double[] out = new double[1];
+        int row = 0;
+        for (LabelledFeatures r : recordings) {
+            for (int i = 0; i < r.size(); i++, row++) {
+                network.compute(standardized[row], out);
+                double score = classifier.score(r.getFeatures(i));
+                maxDifference = Math.max(maxDifference, Math.abs(score - out[0]));
+                boolean alarm = score >= MlpClassifier.ALARM_SCORE;
+                if (alarm == (ideal[row][0] > 0.5d)) {
+                    correct++;
+                }
+            }
+        }
+        System.out.printf("training accuracy %.3f, max difference to Encog %.2e%n",
+                correct / (double) row, maxDifference);
+    }
+}
@@ -0,0 +1,100 @@
+package driveware.com.tools;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import driveware.com.detection.Features;
+
+public class FeatureTableTest {
+
+    // Two full row groups and a partial one.
+    private static final int ROWS = 10000;
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("table", ".features");
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    private static void fill(int r, double[] row) {
+        for (int f = 0; f < Features.SIZE; f++) {
+            row[f] = r * 0.001d + f;
+        }
+        if (r % 7 == 0) {
+            row[Features.BLINK_RATE] = Double.NaN;
+        }
+    }
+
+    private static int label(int r) {
+        return r % 3 == 0 ? FeatureReplay.UNLABELLED
+                : r % 3 == 1 ? FeatureReplay.AWAKE : FeatureReplay.DROWSY;
+    }
+
+    @Test
+    public void readsBackEveryRow() throws IOException {
+        FeatureTable.Writer writer = new FeatureTable.Writer(file, 11);
+        double[] row = new double[Features.SIZE];
+        for (int r = 0; r < ROWS; r++) {
+            fill(r, row);
+            writer.accept(1000L * r, row, label(r));
+        }
+        assertEquals(ROWS, writer.getRows());
+        writer.close();
+
+        final int[] next = {0};
+        final double[] expected = new double[Features.SIZE];
+        long rows = FeatureTable.read(file, new FeatureReplay.Consumer() {
+            @Override
+            public void accept(long timestamp, double[] features, int label) {
+                int r = next[0]++;
+                fill(r, expected);
+                assertEquals(1000L * r, timestamp);
+                assertEquals(label(r), label);
+                for (int f = 0; f < Features.SIZE; f++) {
+                    // Stored as FLOAT32.
+                    assertEquals((float) expected[f], features[f], 0.0d);
+                }
+            }
+        });
+        assertEquals(ROWS, rows);
+        assertEquals(ROWS, next[0]);
+    }
+
+    @Test
+    public void readsAnEmptyTable() throws IOException {
+        new FeatureTable.Writer(file, 0).close();
+        assertEquals(0, FeatureTable.read(file, new FeatureReplay.Consumer() {
+            @Override
+            public void accept(long timestamp, double[] features, int label) {
+                fail("no rows were written");
+            }
+        }));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsAnotherVersion() throws IOException {
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+        try {
+            out.writeInt(FeatureTable.MAGIC);
+            out.writeInt(FeatureTable.VERSION - 1);
+        } finally {
+            out.close();
+        }
+        FeatureTable.read(file, null);
+    }
+}